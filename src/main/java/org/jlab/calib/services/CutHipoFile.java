@@ -1,14 +1,216 @@
 package org.jlab.calib.services;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.jlab.io.base.DataBank;
+import org.jlab.io.base.DataEvent;
+import org.jlab.io.hipo.HipoDataSource;
+import org.jlab.io.hipo.HipoDataSync;
+
+// Skims hipo files for the calibration
+// Keeps only the events with FTOF or CTOF hits matched to a track, and only the banks
+// read by the DataProvider classes, e.g.
+// CutHipoFile -threads 8 -o skims file1.hipo file2.hipo
+// Each input file is written to its own skim file, the files are shared out over the threads
 public class CutHipoFile {
 
+	public final static String[] FTOF_BANKS = { "FTOF::adc", "FTOF::tdc", "FTOF::hits", "TimeBasedTrkg::TBTracks" };
+	public final static String[] CTOF_BANKS = { "CTOF::adc", "CTOF::tdc", "CTOF::hits", "CVTRec::Tracks" };
+	public final static String[] REC_BANKS = { "RUN::config", "REC::Event", "REC::Particle", "REC::Track",
+			"REC::Scintillator" };
+	public final static int UPDATE_RATE = 1000000;
+
+	public List<String> inputFiles = new ArrayList<String>();
+	public String outputDir = null;
+	public int nThreads = Runtime.getRuntime().availableProcessors();
+	public boolean keepFtof = true;
+	public boolean keepCtof = true;
+	public long triggerMask = 0;
+
 	public CutHipoFile() {
-		// TODO Auto-generated constructor stub
+	}
+
+	public static void usage() {
+		System.out.println("Usage: CutHipoFile [options] file1.hipo [file2.hipo ...]");
+		System.out.println("  -detector ftof|ctof|both  keep events with hits in this detector (default both)");
+		System.out.println("  -trigger 0                trigger bit mask, e.g. 0x1, 0 for all events");
+		System.out.println("  -threads <n>              number of files skimmed at once (default all cores)");
+		System.out.println("  -o <dir>                  output directory (default the directory of each input file)");
+		System.out.println("Each file.hipo is written to file_tofskim.hipo");
+	}
+
+	public boolean configure(String[] args) {
+
+		try {
+			for (int i = 0; i < args.length; i++) {
+
+				String arg = args[i];
+				if (!arg.startsWith("-") || arg.length() == 1) {
+					inputFiles.add(arg);
+					continue;
+				}
+				if (i + 1 >= args.length) {
+					System.out.println("Missing value for option " + arg);
+					return false;
+				}
+				String val = args[++i];
+
+				if (arg.equals("-detector")) {
+					keepFtof = val.equalsIgnoreCase("ftof") || val.equalsIgnoreCase("both");
+					keepCtof = val.equalsIgnoreCase("ctof") || val.equalsIgnoreCase("both");
+					if (!keepFtof && !keepCtof) {
+						System.out.println("Unknown detector " + val);
+						return false;
+					}
+				} else if (arg.equals("-trigger")) {
+					triggerMask = Long.decode(val);
+				} else if (arg.equals("-threads")) {
+					nThreads = Math.max(1, Integer.parseInt(val));
+				} else if (arg.equals("-o")) {
+					outputDir = val;
+				} else {
+					System.out.println("Unknown option " + arg);
+					return false;
+				}
+			}
+		} catch (NumberFormatException e) {
+			System.out.println("Invalid option value: " + e.getMessage());
+			return false;
+		}
+
+		if (inputFiles.isEmpty()) {
+			System.out.println("No input files given");
+			return false;
+		}
+		return true;
+	}
+
+	public void run() {
+
+		List<Callable<Object>> skims = new ArrayList<Callable<Object>>();
+		for (final String file : inputFiles) {
+			skims.add(new Callable<Object>() {
+				public Object call() {
+					skim(file, outputFile(file));
+					return null;
+				}
+			});
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(nThreads, skims.size()));
+		try {
+			for (Future<Object> f : pool.invokeAll(skims)) {
+				try {
+					f.get();
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	public String outputFile(String inputFile) {
+		File in = new File(inputFile);
+		String name = in.getName();
+		if (name.endsWith(".hipo")) {
+			name = name.substring(0, name.length() - 5);
+		}
+		name = name + "_tofskim.hipo";
+		String dir = outputDir != null ? outputDir : in.getAbsoluteFile().getParent();
+		return new File(dir, name).getPath();
+	}
+
+	// Copy the selected events and banks of one file
+	public void skim(String inputFile, String outputFile) {
+
+		System.out.println("Skimming " + inputFile + " to " + outputFile);
+		HipoDataSource reader = new HipoDataSource();
+		reader.open(inputFile);
+		HipoDataSync writer = new HipoDataSync();
+		writer.open(outputFile);
+
+		long nEvents = 0;
+		long nKept = 0;
+		while (reader.hasEvent()) {
+			DataEvent event = reader.getNextEvent();
+			nEvents++;
+			if (keepEvent(event)) {
+				DataEvent skimEvent = writer.createEvent();
+				if (keepFtof) {
+					appendBanks(event, skimEvent, FTOF_BANKS);
+				}
+				if (keepCtof) {
+					appendBanks(event, skimEvent, CTOF_BANKS);
+				}
+				appendBanks(event, skimEvent, REC_BANKS);
+				writer.writeEvent(skimEvent);
+				nKept++;
+			}
+			if (nEvents % UPDATE_RATE == 0) {
+				System.out.println(inputFile + " " + nEvents + " events read " + nKept + " kept");
+			}
+		}
+		writer.close();
+		reader.close();
+		System.out.println(inputFile + " " + nEvents + " events read " + nKept + " kept");
+	}
+
+	// Events with at least one hit matched to a track
+	// the track banks are checked before the hits bank is read
+	public boolean keepEvent(DataEvent event) {
+
+		if (!event.hasBank("RUN::config")) {
+			return false;
+		}
+		if (triggerMask != 0 && (event.getBank("RUN::config").getLong("trigger", 0) & triggerMask) == 0) {
+			return false;
+		}
+		if (keepFtof && event.hasBank("FTOF::hits") && event.hasBank("TimeBasedTrkg::TBTracks")
+				&& event.hasBank("REC::Event") && hasTrackHit(event.getBank("FTOF::hits"), "trackid")) {
+			return true;
+		}
+		if (keepCtof && event.hasBank("CTOF::hits") && event.hasBank("CVTRec::Tracks")
+				&& hasTrackHit(event.getBank("CTOF::hits"), "trkID")) {
+			return true;
+		}
+		return false;
+	}
+
+	private static boolean hasTrackHit(DataBank hitsBank, String trackColumn) {
+		for (int i = 0; i < hitsBank.rows(); i++) {
+			if (hitsBank.getShort(trackColumn, i) != -1) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static void appendBanks(DataEvent event, DataEvent skimEvent, String[] banks) {
+		for (String bank : banks) {
+			if (event.hasBank(bank)) {
+				skimEvent.appendBank(event.getBank(bank));
+			}
+		}
 	}
 
 	public static void main(String[] args) {
-		
 
+		CutHipoFile cut = new CutHipoFile();
+		if (!cut.configure(args)) {
+			usage();
+			System.exit(1);
+		}
+		cut.run();
 	}
 
 }
@@ -44,25 +44,16 @@ import org.jlab.utils.groups.IndexedTable;
  */
 public class DataProvider {
 
-	private static boolean test = false;
-
+	// output is switched off for this thread only
 	public static void setOutput(boolean outputOn) {
-		if (outputOn) {
-			System.setOut(TOFCalibration.oldStdout);
-		} else {
-			System.setOut(new java.io.PrintStream(
-					new java.io.OutputStream() {
-						public void write(int b) {
-						}
-					}));
-		}
+		TOFLog.quiet(!outputOn);
 	}
 
 	public static List<TOFPaddle> getPaddleList(DataEvent event) {
 
-		List<TOFPaddle> paddleList = new ArrayList<TOFPaddle>();
+		List<TOFPaddle> paddleList;
 
-		if (test) {
+		if (TOFLog.isEnabled(TOFLog.DEBUG)) {
 			// event.show();
 		}
 		// EvioDataEvent e = (EvioDataEvent) event;
@@ -70,6 +61,11 @@ public class DataProvider {
 
 		paddleList = getPaddleListHipo(event);
 		// paddleList = getPaddleListDgtzNew(event);
+		TOFEventBanks.get().endEvent();
+
+		if (TOFHitCache.writer != null) {
+			TOFHitCache.writer.addEvent(paddleList);
+		}
 
 		return paddleList;
 
@@ -77,7 +73,7 @@ public class DataProvider {
 
 	public static List<TOFPaddle> getPaddleListHipo(DataEvent event) {
 
-		if (test) {
+		if (TOFLog.isEnabled(TOFLog.DEBUG)) {
 
 			event.show();
 			if (event.hasBank("FTOF::adc")) {
@@ -114,11 +110,20 @@ public class DataProvider {
 
 		}
 
-		ArrayList<TOFPaddle> paddleList = new ArrayList<TOFPaddle>();
+		// paddles and list are reused from the previous event on this thread
+		TOFPaddlePool pool = TOFPaddlePool.get();
+		ArrayList<TOFPaddle> paddleList = pool.newEvent();
+		// each bank is unpacked once, when first used
+		TOFEventBanks banks = TOFEventBanks.get().newEvent(event);
+
+		// with a trigger mask set the channel status only counts the selected events
+		if (!acceptTrigger(banks)) {
+			return paddleList;
+		}
 
 		// Set the status flags
-		if (event.hasBank("FTOF::adc")) {
-			DataBank adcBank = event.getBank("FTOF::adc");
+		if (banks.hasBank("FTOF::adc")) {
+			DataBank adcBank = banks.getBank("FTOF::adc");
 
 			for (int i = 0; i < adcBank.rows(); i++) {
 				int sector = adcBank.getByte("sector", i);
@@ -127,15 +132,15 @@ public class DataProvider {
 				int order = adcBank.getByte("order", i);
 				int adc = adcBank.getInt("ADC", i);
 				if (order == 0 && adc != 0) {
-					TOFCalibrationEngine.adcLeftStatus.add(0, sector, layer, component);
+					TOFCalibrationEngine.counterStatus.hit(order, sector, layer, component);
 				}
 				if (order == 1 && adc != 0) {
-					TOFCalibrationEngine.adcRightStatus.add(0, sector, layer, component);
+					TOFCalibrationEngine.counterStatus.hit(order, sector, layer, component);
 				}
 			}
 		}
-		if (event.hasBank("FTOF::tdc")) {
-			DataBank tdcBank = event.getBank("FTOF::tdc");
+		if (banks.hasBank("FTOF::tdc")) {
+			DataBank tdcBank = banks.getBank("FTOF::tdc");
 
 			for (int i = 0; i < tdcBank.rows(); i++) {
 				int sector = tdcBank.getByte("sector", i);
@@ -144,21 +149,25 @@ public class DataProvider {
 				int order = tdcBank.getByte("order", i);
 				int tdc = tdcBank.getInt("TDC", i);
 				if (order == 2 && tdc != 0) {
-					TOFCalibrationEngine.tdcLeftStatus.add(0, sector, layer, component);
+					TOFCalibrationEngine.counterStatus.hit(order, sector, layer, component);
 				}
 				if (order == 3 && tdc != 0) {
-					TOFCalibrationEngine.tdcRightStatus.add(0, sector, layer, component);
+					TOFCalibrationEngine.counterStatus.hit(order, sector, layer, component);
 				}
 			}
 		}
 
+		if (!acceptEvent(banks)) {
+			return paddleList;
+		}
+
 		// Only continue if we have adc and tdc banks
-		if (!event.hasBank("FTOF::adc") || !event.hasBank("FTOF::tdc") || !event.hasBank("RUN::config")) {
+		if (!banks.hasBank("FTOF::adc") || !banks.hasBank("FTOF::tdc") || !banks.hasBank("RUN::config")) {
 			return paddleList;
 		}
 
-		DataBank adcBank = event.getBank("FTOF::adc");
-		DataBank tdcBank = event.getBank("FTOF::tdc");
+		DataBank adcBank = banks.getBank("FTOF::adc");
+		DataBank tdcBank = banks.getBank("FTOF::tdc");
 
 		// if (event.hasBank("TimeBasedTrkg::TBTracks")) {
 		// DataBank testBank = event.getBank("TimeBasedTrkg::TBTracks");
@@ -173,14 +182,20 @@ public class DataProvider {
 		// }
 		// }
 
-		DataBank configBank = event.getBank("RUN::config");
+		DataBank configBank = banks.getBank("RUN::config");
 		long triggerBit = configBank.getLong("trigger", 0);
 		int run = configBank.getInt("run", 0);
 		long timeStamp = configBank.getLong("timestamp", 0);
 
 		// iterate through hits bank getting corresponding adc and tdc
-		if (event.hasBank("FTOF::hits") && event.hasBank("RUN::config")) {
-			DataBank hitsBank = event.getBank("FTOF::hits");
+		if (banks.hasBank("FTOF::hits") && banks.hasBank("RUN::config")) {
+			DataBank hitsBank = banks.getBank("FTOF::hits");
+
+			// REC banks are indexed the first time they're needed in the event
+			DataBank recTrkBank = null;
+			DataBank recSciBank = null;
+			TOFBankIndex trackIndex = TOFBankIndex.get(TOFBankIndex.TRACK);
+			TOFBankIndex sciIndex = TOFBankIndex.get(TOFBankIndex.SCINTILLATOR);
 
 			for (int hitIndex = 0; hitIndex < hitsBank.rows(); hitIndex++) {
 
@@ -192,13 +207,13 @@ public class DataProvider {
 				// System.out.println("Paddle created
 				// "+paddle.getDescriptor().getSector()+paddle.getDescriptor().getLayer()+paddle.getDescriptor().getComponent());
 
-				if (event.hasBank("TimeBasedTrkg::TBTracks") && event.hasBank("REC::Event")) {
+				if (banks.hasBank("TimeBasedTrkg::TBTracks") && banks.hasBank("REC::Event")) {
 
-					DataBank tbtBank = event.getBank("TimeBasedTrkg::TBTracks");
+					DataBank tbtBank = banks.getBank("TimeBasedTrkg::TBTracks");
 
 					// get the RF time from REC::Event
 					double trf = 0.0;
-					DataBank eventBank = event.getBank("REC::Event");
+					DataBank eventBank = banks.getBank("REC::Event");
 					trf = eventBank.getFloat("RFTime", 0);
 
 					// Identify electrons and store path length etc for time walk
@@ -209,7 +224,7 @@ public class DataProvider {
 					// only use hit with associated track and a minimum energy
 					if (trkId != -1) {
 
-						TOFPaddle paddle = new TOFPaddle(
+						TOFPaddle paddle = pool.getPaddle(
 								(int) hitsBank.getByte("sector", hitIndex),
 								(int) hitsBank.getByte("layer", hitIndex),
 								(int) hitsBank.getShort("component", hitIndex));
@@ -290,27 +305,30 @@ public class DataProvider {
 
 							// Get the REC::Track and then the REC::Particle
 							setOutput(false);
-							if (event.hasBank("REC::Particle") && event.hasBank("REC::Track")
-									&& event.hasBank("REC::Scintillator")) {
-
-								DataBank recTrkBank = event.getBank("REC::Track");
-								DataBank recSciBank = event.getBank("REC::Scintillator");
-								int pIdx = -1;
-								for (int i = 0; i < recTrkBank.rows(); i++) {
-									if (recTrkBank.getShort("index", i) == trkId - 1) {
-										pIdx = recTrkBank.getShort("pindex", i);
-										break;
+							if (banks.hasBank("REC::Particle") && banks.hasBank("REC::Track")
+									&& banks.hasBank("REC::Scintillator")) {
+
+								if (recTrkBank == null) {
+									recTrkBank = banks.getBank("REC::Track");
+									recSciBank = banks.getBank("REC::Scintillator");
+									trackIndex.indexColumn(recTrkBank, "index");
+									sciIndex.clear();
+									for (int i = 0; i < recSciBank.rows(); i++) {
+										sciIndex.add(scintillatorKey(recSciBank.getShort("pindex", i),
+												recSciBank.getByte("layer", i)), i);
 									}
 								}
-								for (int i = 0; i < recSciBank.rows(); i++) {
-									if (recSciBank.getShort("pindex", i) == pIdx
-											&& recSciBank.getByte("layer", i) == paddle.getDescriptor().getLayer()) {
-										paddle.setPATH_LENGTH(recSciBank.getFloat("path", i));
-										break;
-									}
+								int pIdx = -1;
+								int trkRow = trackIndex.getRow(trkId - 1);
+								if (trkRow != -1) {
+									pIdx = recTrkBank.getShort("pindex", trkRow);
+								}
+								int sciRow = sciIndex.getRow(scintillatorKey(pIdx, paddle.getDescriptor().getLayer()));
+								if (sciRow != -1) {
+									paddle.setPATH_LENGTH(recSciBank.getFloat("path", sciRow));
 								}
 
-								DataBank recPartBank = event.getBank("REC::Particle");
+								DataBank recPartBank = banks.getBank("REC::Particle");
 								paddle.setPARTICLE_ID(recPartBank.getInt("pid", pIdx));
 							}
 							setOutput(true);
@@ -318,7 +336,7 @@ public class DataProvider {
 							if (paddle.includeInCalib()) {
 								paddle.Init();
 								paddleList.add(paddle);
-								if (test) {
+								if (TOFLog.isEnabled(TOFLog.DEBUG)) {
 									paddle.show();
 								}
 							}
@@ -336,6 +354,11 @@ public class DataProvider {
 			// ADC R two indices after ADC L (will assume right is always after left)
 			// TDC bank only has actual hits, so can just search the whole bank for matching
 			// SLC
+			// banks are indexed once so the matching rows are found directly
+			TOFBankIndex adcIndex = TOFBankIndex.get(TOFBankIndex.ADC);
+			TOFBankIndex tdcIndex = TOFBankIndex.get(TOFBankIndex.TDC);
+			adcIndex.indexHits(adcBank, false);
+			tdcIndex.indexHits(tdcBank, false);
 
 			for (int i = 0; i < adcBank.rows(); i++) {
 				int order = adcBank.getByte("order", i);
@@ -352,67 +375,34 @@ public class DataProvider {
 					int tdcL = 0;
 					int tdcR = 0;
 
-					for (int j = 0; j < adcBank.rows(); j++) {
-						int s = adcBank.getByte("sector", j);
-						int l = adcBank.getByte("layer", j);
-						int c = adcBank.getShort("component", j);
-						int o = adcBank.getByte("order", j);
-						if (s == sector && l == layer && c == component && o == 1) {
-							// matching adc R
-							adcR = adcBank.getInt("ADC", j);
-							adcTimeR = adcBank.getFloat("time", j);
-							break;
-						}
+					int j = adcIndex.getHitRow(sector, layer, component, 1);
+					if (j != -1) {
+						// matching adc R
+						adcR = adcBank.getInt("ADC", j);
+						adcTimeR = adcBank.getFloat("time", j);
 					}
 
 					// Now get matching TDCs
-					// can search whole bank as it has fewer rows (only hits)
-					// break when you find so always take the first one found
-					for (int tdci = 0; tdci < tdcBank.rows(); tdci++) {
-						int s = tdcBank.getByte("sector", tdci);
-						int l = tdcBank.getByte("layer", tdci);
-						int c = tdcBank.getShort("component", tdci);
-						int o = tdcBank.getByte("order", tdci);
-						if (s == sector && l == layer && c == component && o == 2) {
-							// matching tdc L
-							tdcL = tdcBank.getInt("TDC", tdci);
-							break;
-						}
+					// always take the first one found
+					int tdci = tdcIndex.getHitRow(sector, layer, component, 2);
+					if (tdci != -1) {
+						// matching tdc L
+						tdcL = tdcBank.getInt("TDC", tdci);
 					}
-					for (int tdci = 0; tdci < tdcBank.rows(); tdci++) {
-						int s = tdcBank.getByte("sector", tdci);
-						int l = tdcBank.getByte("layer", tdci);
-						int c = tdcBank.getShort("component", tdci);
-						int o = tdcBank.getByte("order", tdci);
-						if (s == sector && l == layer && c == component && o == 3) {
-							// matching tdc R
-							tdcR = tdcBank.getInt("TDC", tdci);
-							break;
-						}
-					}
-
-					// set status to ok if at least one reading
-					if (adcL != 0) {
-						TOFCalibrationEngine.adcLeftStatus.add(0, sector, layer, component);
-					}
-					if (adcR != 0) {
-						TOFCalibrationEngine.adcRightStatus.add(0, sector, layer, component);
-					}
-					if (tdcL != 0) {
-						TOFCalibrationEngine.tdcLeftStatus.add(0, sector, layer, component);
-					}
-					if (tdcR != 0) {
-						TOFCalibrationEngine.tdcRightStatus.add(0, sector, layer, component);
+					tdci = tdcIndex.getHitRow(sector, layer, component, 3);
+					if (tdci != -1) {
+						// matching tdc R
+						tdcR = tdcBank.getInt("TDC", tdci);
 					}
 
-					if (test) {
-						System.out.println("Values found " + sector + layer + component);
-						System.out.println(adcL + " " + adcR + " " + tdcL + " " + tdcR);
+					if (TOFLog.isEnabled(TOFLog.DEBUG)) {
+						TOFLog.debug("Values found " + sector + layer + component);
+						TOFLog.debug(adcL + " " + adcR + " " + tdcL + " " + tdcR);
 					}
 
 					if (adcL > 100 && adcR > 100) {
 
-						TOFPaddle paddle = new TOFPaddle(
+						TOFPaddle paddle = pool.getPaddle(
 								sector,
 								layer,
 								component);
@@ -424,9 +414,9 @@ public class DataProvider {
 
 						if (paddle.includeInCalib()) {
 
-							if (test) {
-								System.out.println("Adding paddle " + sector + layer + component);
-								System.out.println(adcL + " " + adcR + " " + tdcL + " " + tdcR);
+							if (TOFLog.isEnabled(TOFLog.DEBUG)) {
+								TOFLog.debug("Adding paddle " + sector + layer + component);
+								TOFLog.debug(adcL + " " + adcR + " " + tdcL + " " + tdcR);
 							}
 							paddleList.add(paddle);
 						}
@@ -439,11 +429,40 @@ public class DataProvider {
 		return paddleList;
 	}
 
-	public static void systemOut(String text) {
-		boolean test = false;
-		if (test) {
-			System.out.println(text);
+	// Trigger selection made before any of the FTOF banks are read, all events pass with no mask set
+	public static boolean acceptTrigger(TOFEventBanks banks) {
+
+		if (TOFCalibration.triggerBit == 0) {
+			return true;
 		}
+		return banks.hasBank("RUN::config")
+				&& (banks.getBank("RUN::config").getLong("trigger", 0) & TOFCalibration.triggerBit) != 0;
+	}
+
+	// Event selection made after the channel status is counted and before the hits and track banks are read
+	// rejects events without the banks needed to make any paddles, i.e. hits with no tracks
+	public static boolean acceptEvent(TOFEventBanks banks) {
+
+		if (!banks.hasBank("FTOF::adc") || !banks.hasBank("FTOF::tdc") || !banks.hasBank("RUN::config")) {
+			return false;
+		}
+		if (banks.hasBank("FTOF::hits")
+				&& (!banks.hasBank("TimeBasedTrkg::TBTracks") || !banks.hasBank("REC::Event"))) {
+			return false;
+		}
+		return true;
+	}
+
+	// REC::Scintillator row key from particle index and layer
+	private static int scintillatorKey(int pindex, int layer) {
+		if (pindex < 0 || layer < 0 || layer > 3) {
+			return -1;
+		}
+		return pindex * 4 + layer;
+	}
+
+	public static void systemOut(String text) {
+		TOFLog.debug(text);
 	}
 
 }
@@ -0,0 +1,120 @@
+package org.jlab.calib.services;
+
+import java.util.Arrays;
+
+import org.jlab.io.base.DataBank;
+
+/**
+ * Row lookup for a bank, built once per event
+ *
+ * Maps an integer key (e.g. paddle and order, or track index) to the first row with that key,
+ * replacing a search of the whole bank for every hit.
+ * One set of indexes per thread, reused for each event.
+ */
+public class TOFBankIndex {
+
+	public static final int ADC = 0;
+	public static final int TDC = 1;
+	public static final int TRACK = 2;
+	public static final int SCINTILLATOR = 3;
+	public static final int NUM_INDEXES = 4;
+
+	private static final ThreadLocal<TOFBankIndex[]> indexes = new ThreadLocal<TOFBankIndex[]>() {
+		@Override
+		protected TOFBankIndex[] initialValue() {
+			TOFBankIndex[] idx = new TOFBankIndex[NUM_INDEXES];
+			for (int i = 0; i < NUM_INDEXES; i++) {
+				idx[i] = new TOFBankIndex();
+			}
+			return idx;
+		}
+	};
+
+	private int[] rows = new int[256];
+	private int[] usedKeys = new int[256];
+	private int nUsed = 0;
+
+	public TOFBankIndex() {
+		Arrays.fill(rows, -1);
+	}
+
+	public static TOFBankIndex get(int bank) {
+		return indexes.get()[bank];
+	}
+
+	// only resets the entries used for the last event
+	public void clear() {
+		for (int i = 0; i < nUsed; i++) {
+			rows[usedKeys[i]] = -1;
+		}
+		nUsed = 0;
+	}
+
+	// keeps the first row found for each key, as the searches did
+	public void add(int key, int row) {
+		if (key < 0) {
+			return;
+		}
+		if (key >= rows.length) {
+			int newLength = rows.length;
+			while (key >= newLength) {
+				newLength *= 2;
+			}
+			int[] newRows = new int[newLength];
+			Arrays.fill(newRows, -1);
+			System.arraycopy(rows, 0, newRows, 0, rows.length);
+			rows = newRows;
+		}
+		if (rows[key] != -1) {
+			return;
+		}
+		if (nUsed == usedKeys.length) {
+			int[] newKeys = new int[usedKeys.length * 2];
+			System.arraycopy(usedKeys, 0, newKeys, 0, nUsed);
+			usedKeys = newKeys;
+		}
+		rows[key] = row;
+		usedKeys[nUsed++] = key;
+	}
+
+	// first row for the key or -1 if not in the bank
+	public int getRow(int key) {
+		if (key < 0 || key >= rows.length) {
+			return -1;
+		}
+		return rows[key];
+	}
+
+	public static int hitKey(int sector, int layer, int component, int order) {
+		int paddle = TOFConstantSnapshot.index(sector, layer, component);
+		if (paddle == 0 || order < 0 || order > 3) {
+			return -1;
+		}
+		return paddle * 4 + order;
+	}
+
+	// index an adc or tdc bank by sector, layer, component and order
+	// CTOF banks are matched on component only
+	public void indexHits(DataBank bank, boolean componentOnly) {
+		clear();
+		for (int i = 0; i < bank.rows(); i++) {
+			int sector = componentOnly ? 1 : bank.getByte("sector", i);
+			int layer = componentOnly ? 1 : bank.getByte("layer", i);
+			int component = bank.getShort("component", i);
+			int order = bank.getByte("order", i);
+			add(hitKey(sector, layer, component, order), i);
+		}
+	}
+
+	public int getHitRow(int sector, int layer, int component, int order) {
+		return getRow(hitKey(sector, layer, component, order));
+	}
+
+	// index a bank on a single short column, e.g. track index
+	public void indexColumn(DataBank bank, String column) {
+		clear();
+		for (int i = 0; i < bank.rows(); i++) {
+			add(bank.getShort(column, i), i);
+		}
+	}
+}
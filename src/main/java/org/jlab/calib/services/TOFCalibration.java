@@ -17,7 +17,6 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintStream;
 import java.text.DateFormat;
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
@@ -90,30 +89,24 @@ public class TOFCalibration
 	EmbeddedCanvas canvas = null;
 	CalibrationConstantsView ccview = null;
 
-	TOFCalibrationEngine[] engines = { new TofHVEventListener(), new TofAttenEventListener(),
-			new TofTdcConvEventListener(), new TofLeftRightEventListener(), new TofVeffEventListener(),
-			new TofTimeWalkEventListener(), new TofTWPosEventListener(), new TofRFPadEventListener(),
-			new TofP2PEventListener(), new TofFadcEventListener(), new TofCheckEventListener() };
+	TOFCalibrationEngine[] engines = createEngines();
 	
-	public static TofPrevConfigPanel[] engPanels = { new TofPrevConfigPanel(new TOFCalibrationEngine()),
-			new TofPrevConfigPanel(new TOFCalibrationEngine()), new TofPrevConfigPanel(new TOFCalibrationEngine()),
-			new TofPrevConfigPanel(new TOFCalibrationEngine()), new TofPrevConfigPanel(new TOFCalibrationEngine()),
-			new TofPrevConfigPanel(new TOFCalibrationEngine()), new TofPrevConfigPanel(new TOFCalibrationEngine()),
-			new TofPrevConfigPanel(new TOFCalibrationEngine()) };
+	// filled in configure() - not created here so the class can be loaded headless
+	public static TofPrevConfigPanel[] engPanels = new TofPrevConfigPanel[7];
 
 
 	// engine indices
-	public final int HV = 0;
-	public final int ATTEN = 1;
-	public final int TDC_CONV = 2;
-	public final int LEFT_RIGHT = 3;
-	public final int VEFF = 4;
-	public final int TW = 5;
-	public final int TWPOS = 6;
-	public final int RFPAD = 7;
-	public final int P2P = 8;
-	public final int FADC = 9;
-	public final int CHECK = 10;
+	public final static int HV = 0;
+	public final static int ATTEN = 1;
+	public final static int TDC_CONV = 2;
+	public final static int LEFT_RIGHT = 3;
+	public final static int VEFF = 4;
+	public final static int TW = 5;
+	public final static int TWPOS = 6;
+	public final static int RFPAD = 7;
+	public final static int P2P = 8;
+	public final static int FADC = 9;
+	public final static int CHECK = 10;
 
 	String[] dirs = { "/calibration/ftof/gain_balance", "/calibration/ftof/attenuation", "/calibration/ftof/tdc_conv",
 			"/calibration/ftof/timing_offset/left_right", "/calibration/ftof/effective_velocity",
@@ -195,8 +188,11 @@ public class TOFCalibration
 	public final static int PID_P = 3;
 	public final static int PID_LPI = 4;
 
+	JComboBox<String> rfpadLiveList = new JComboBox<String>();
+	JComboBox<String> liveSliceList = new JComboBox<String>();
 	private JTextField triggerText = new JTextField(10);
-	public static int triggerBit = 0;
+	// events are only used if they have one of these trigger bits, 0 for all events
+	public static long triggerBit = 0;
 
 	JComboBox<String> fitList = new JComboBox<String>();
 	JComboBox<String> fitModeList = new JComboBox<String>();
@@ -208,8 +204,6 @@ public class TOFCalibration
 	private JTextField maxFADCxText = new JTextField(6);
 	private JTextField widthFADCText = new JTextField(6);
 
-	public final static PrintStream oldStdout = System.out;
-
 	public TOFCalibration() {
 
 		TOFPaddle.tof = "FTOF";
@@ -414,6 +408,7 @@ public class TOFCalibration
 				}
 				System.out.println(engines[i].stepName + " " + engines[i].engineOn);
 			}
+			TOFEventBanks.setRequiredBanks(TOFCalibrationEngine.requiredBanks(engines));
 
 			System.out.println("");
 			System.out.println("Configuration settings - Previous calibration values");
@@ -428,6 +423,8 @@ public class TOFCalibration
 					System.exit(0);
 				}
 			}
+			// values used for each hit are read again from the new tables
+			TOFConstantSnapshot.invalidate();
 
 			// set the config values
 			TofHVEventListener hvEngine = (TofHVEventListener) engines[HV];
@@ -477,8 +474,10 @@ public class TOFCalibration
 			trackPid2 = pidList2.getSelectedIndex();
 
 			if (triggerText.getText().compareTo("") != 0) {
-				triggerBit = Integer.parseInt(triggerText.getText());
+				triggerBit = Long.decode(triggerText.getText().trim());
 			}
+			TOFCalibrationEngine.liveSliceFits = liveSliceList.getSelectedIndex() == 1;
+			TofRFPadEventListener.circularStats = rfpadLiveList.getSelectedIndex() == 1;
 
 			engines[ATTEN].fitMethod = fitList.getSelectedIndex();
 			engines[ATTEN].fitMode = (String) fitModeList.getSelectedItem();
@@ -542,6 +541,8 @@ public class TOFCalibration
 			System.out.println(
 					"PID: " + pidList.getItemAt(trackPid) + " (1a/1b) " + pidList2.getItemAt(trackPid2) + " (2)");
 			System.out.println("Trigger: " + triggerBit);
+			System.out.println("Live slice fits: " + liveSliceList.getSelectedItem());
+			System.out.println("Live RF pad offsets: " + rfpadLiveList.getSelectedItem());
 			System.out.println("2D histogram graph method: " + fitList.getSelectedItem());
 			System.out.println("Slicefitter mode: " + fitModeList.getSelectedItem());
 			System.out.println("Minimum events per slice: " + minEventsText.getText());
@@ -557,22 +558,28 @@ public class TOFCalibration
 
 		List<TOFPaddle> paddleList = DataProvider.getPaddleList(event);
 
+		if (event.getType() == DataEventType.EVENT_START) {
+			for (int i = 0; i < engines.length; i++) {
+				if (engines[i].engineOn) {
+					engines[i].resetEventListener();
+					engines[i].resetHitCounts();
+				}
+			}
+		}
+		if (event.getType() == DataEventType.EVENT_START || event.getType() == DataEventType.EVENT_ACCUMULATE) {
+			TOFCalibrationEngine.processPaddleListFused(paddleList, engines);
+		}
+
 		for (int i = 0; i < engines.length; i++) {
 
 			if (engines[i].engineOn) {
 
-				if (event.getType() == DataEventType.EVENT_START) {
-					engines[i].resetEventListener();
-					engines[i].processPaddleList(paddleList);
-
-				} else if (event.getType() == DataEventType.EVENT_ACCUMULATE) {
-					engines[i].processPaddleList(paddleList);
-				} else if (event.getType() == DataEventType.EVENT_STOP) {
-					System.setOut(oldStdout);
+				if (event.getType() == DataEventType.EVENT_STOP) {
+					TOFLog.reset();
 					System.out.println("EVENT_STOP for " + engines[i].stepName + " " + todayString());
 					engines[i].analyze();
 					ccview.getTabbedPane().setEnabled(true);
-					System.setOut(oldStdout);
+					TOFLog.reset();
 				}
 
 				if (event.getType() == DataEventType.EVENT_STOP) {
@@ -600,14 +607,23 @@ public class TOFCalibration
 			rfpadEng.writeSigmaFile("FTOF_CALIB_TRES.txt");
 
 			// time offsets
-			writeTimeOffsets("FTOF_CALIB_TIME_OFFSETS.txt", panel.stepOptions);
+			writeTimeOffsets(engines, "FTOF_CALIB_TIME_OFFSETS.txt", panel.stepOptions);
 
 			// TDC conv
 			// engines[TDC_CONV].writeFile("FTOF_CALIB_TDC_CONV.txt");
 		}
 	}
 
-	public void writeTimeOffsets(String filename, int[] stepOptions) {
+	public static TOFCalibrationEngine[] createEngines() {
+
+		TOFCalibrationEngine[] engines = { new TofHVEventListener(), new TofAttenEventListener(),
+				new TofTdcConvEventListener(), new TofLeftRightEventListener(), new TofVeffEventListener(),
+				new TofTimeWalkEventListener(), new TofTWPosEventListener(), new TofRFPadEventListener(),
+				new TofP2PEventListener(), new TofFadcEventListener(), new TofCheckEventListener() };
+		return engines;
+	}
+
+	public static void writeTimeOffsets(TOFCalibrationEngine[] engines, String filename, int[] stepOptions) {
 
 		try {
 
@@ -1071,14 +1087,38 @@ public class TOFCalibration
 		y++;
 		c.gridx = 0;
 		c.gridy = y;
-		trPanel.add(new JLabel("Trigger:"), c);
+		trPanel.add(new JLabel("Trigger mask:"), c);
 		triggerText.addActionListener(this);
 		c.gridx = 1;
 		c.gridy = y;
 		trPanel.add(triggerText, c);
 		c.gridx = 2;
 		c.gridy = y;
-		trPanel.add(new JLabel("Not currently used"), c);
+		trPanel.add(new JLabel("e.g. 0x1, 0 for all events"), c);
+
+		// live slice fits
+		y++;
+		c.gridx = 0;
+		c.gridy = y;
+		trPanel.add(new JLabel("Live slice fits:"), c);
+		c.gridx = 1;
+		c.gridy = y;
+		liveSliceList.addItem("No");
+		liveSliceList.addItem("Yes");
+		liveSliceList.addActionListener(this);
+		trPanel.add(liveSliceList, c);
+
+		// live rf pad offsets
+		y++;
+		c.gridx = 0;
+		c.gridy = y;
+		trPanel.add(new JLabel("Live RF pad offsets:"), c);
+		c.gridx = 1;
+		c.gridy = y;
+		rfpadLiveList.addItem("Fit at each update");
+		rfpadLiveList.addItem("Circular mean");
+		rfpadLiveList.addActionListener(this);
+		trPanel.add(rfpadLiveList, c);
 
 		// graph type
 		y++;
@@ -1169,6 +1209,12 @@ public class TOFCalibration
 
 	public static void main(String[] args) {
 
+		if (args.length > 0) {
+			// command line arguments given - run without the GUI
+			TOFCalibrationBatch.main(args);
+			return;
+		}
+
 		TOFCalibration calibGUI = new TOFCalibration();
 
 	}
@@ -0,0 +1,863 @@
+package org.jlab.calib.services;
+
+import java.io.IOException;
+import java.text.DateFormat;
+import java.text.DecimalFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+import org.jlab.detector.calib.utils.CalibrationConstants;
+import org.jlab.io.base.DataEvent;
+import org.jlab.io.hipo.HipoDataSource;
+
+// Command line version of TOFCalibration
+// Runs the selected steps over a list of hipo files without any GUI, e.g.
+// TOFCalibrationBatch -steps lr,veff,rfpad -prev rfpad=db:4013 -rf 4.008 file1.hipo file2.hipo
+public class TOFCalibrationBatch {
+
+	public final static String[] STEP_KEYS = { "hv", "atten", "tdc", "lr", "veff", "tw", "twpos", "rfpad", "p2p",
+			"fadc", "check" };
+
+	// steps using the 2D histogram graph method settings
+	public final static int[] FIT_STEPS = { TOFCalibration.ATTEN, TOFCalibration.TW, TOFCalibration.TWPOS,
+			TOFCalibration.VEFF, TOFCalibration.TDC_CONV };
+
+	TOFCalibrationEngine[] engines = TOFCalibration.createEngines();
+
+	public List<String> inputFiles = new ArrayList<String>();
+	public long maxEvents = -1;
+	public int[] stepOptions = { 1, 1, 1, 1, 1 };
+	public final static int UPDATE_RATE = 200000;
+
+	// multi threaded processing
+	// each thread fills its own copy of the engines, added together before analyze
+	public int nThreads = 1;
+	List<TOFCalibrationEngine[]> shards = new ArrayList<TOFCalibrationEngine[]>();
+	public final static int BLOCK_SIZE = 100; // events passed to a thread at a time
+
+	// check of the threaded result, see fillReference() and compareReference()
+	// a second set of engines is filled on one thread from the same input and its constants compared
+	public boolean verifyThreads = false;
+	public boolean verified = true;
+	TOFCalibrationEngine[] reference = null;
+
+	// checkpoints of the histograms, see TOFCheckpoint
+	// written every checkpointEvery events and at the end of the input files
+	// the resume files are added in before processing and the events they hold are skipped
+	public String checkpointFile = null;
+	public long checkpointEvery = 0;
+	public List<String> resumeFiles = new ArrayList<String>();
+	// block telling each thread to wait while a checkpoint is written
+	private final static List<DataEvent> CHECKPOINT_BLOCK = new ArrayList<DataEvent>();
+
+	// hit cache files, see TOFHitCache
+	// written from the input files, and replayed instead of reading the hipo files again
+	public String writeCacheFile = null;
+	public List<String> cacheFiles = new ArrayList<String>();
+
+	// iterations of the timing steps before the full run, see iterate()
+	public int iterations = 0;
+	// scales the iterationTolerance of each step
+	public double tolerance = 1.0;
+	public final static int[] ITERATION_STEPS = { TOFCalibration.LEFT_RIGHT, TOFCalibration.VEFF, TOFCalibration.TW,
+			TOFCalibration.RFPAD, TOFCalibration.P2P };
+
+	public TOFCalibrationBatch() {
+
+		TOFPaddle.tof = "FTOF";
+
+		// defaults as in the GUI configuration
+		TOFCalibration.pathNorm = TOFCalibration.PATH_NORM_YES;
+		TOFCalibration.maxRcs = 75.0;
+		TOFCalibration.maxRcs2 = 5000.0;
+		TOFCalibration.minV = -10.0;
+		TOFCalibration.maxV = 5.0;
+		TOFCalibration.vertexCorr = TOFCalibration.VERTEX_CORR_YES;
+		TOFCalibration.targetPos = -3.0;
+		TOFCalibration.minP = 0.4;
+		TOFCalibration.maxP = 10.0;
+		TOFCalibration.minE = 0.5;
+		TOFCalibration.massAss = TOFCalibration.USE_PID;
+		TOFCalibration.trackCharge = TOFCalibration.TRACK_BOTH;
+		TOFCalibration.trackPid = TOFCalibration.PID_LPI;
+		TOFCalibration.trackPid2 = TOFCalibration.PID_ALL;
+		TOFCalibration.triggerBit = 0;
+		TOFCalibrationEngine.BEAM_BUCKET = 4.008;
+
+		for (int i : FIT_STEPS) {
+			engines[i].fitMethod = 0;
+			engines[i].fitMode = "";
+			engines[i].fitMinEvents = 2;
+		}
+		TofTdcConvEventListener tdcEngine = (TofTdcConvEventListener) engines[TOFCalibration.TDC_CONV];
+		tdcEngine.TDC_MIN = 8500;
+		tdcEngine.TDC_MAX = 15000;
+		tdcEngine.FIT_MIN = tdcEngine.TDC_MIN + 100;
+		tdcEngine.FIT_MAX = tdcEngine.TDC_MAX - 100;
+	}
+
+	public static void usage() {
+		System.out.println("Usage: TOFCalibrationBatch [options] file1.hipo [file2.hipo ...]");
+		System.out.println("  -steps hv,atten,tdc,lr,veff,tw,twpos,rfpad,p2p,fadc,check  (default all)");
+		System.out.println("  -prev <step>=default|file:<filename>|db:<run>  previous calibration values");
+		System.out.println("  -gmean 650,700,650    target GMEAN channel 1a,1b,2");
+		System.out.println("  -pathNorm yes|no      -vertexCorr yes|no");
+		System.out.println("  -maxRcs 75.0          -maxRcs2 5000.0 (panel 2)");
+		System.out.println("  -minV -10.0           -maxV 5.0        -targetPos -3.0");
+		System.out.println("  -minP 0.4             -maxP 10.0       -minE 0.5");
+		System.out.println("  -mass pion|proton|electron|pid        -charge both|neg|pos");
+		System.out.println("  -pid all|l|pi|p|lpi   -pid2 all|l|pi|p|lpi (panel 2)");
+		System.out.println("  -rf 4.008             -trigger 0       trigger bit mask, e.g. 0x1, 0 for all events");
+		System.out.println("  -fitMethod max|sf     -fitMode \"\"|N     -minEvents 2");
+		System.out.println("  -tdc 8500,15000       -fadc -10.0,60.0,10.0");
+		System.out.println("  -offsets 1,1,1        time offsets file: 0=previous value, 1=new value for lr,rfpad,p2p");
+		System.out.println("  -n <events>           maximum number of events to process");
+		System.out.println("  -threads 1            number of event processing threads");
+		System.out.println("  -fitThreads <n>       number of threads for the paddle fits (default all cores)");
+		System.out.println("  -fused 1              1 fills all steps in one pass over each event, 0 one step at a time");
+		System.out.println("  -p2pMean 0            1 fills P2P against the event mean start time instead of each pair");
+		System.out.println("  -warmStart 1          1 starts each fit from the last good fit or previous calibration of the paddle");
+		System.out.println("  -fastFit 1            1 fits lines and gaussian peaks directly, 0 always uses DataFitter");
+		System.out.println("  -checkpoint <file>    write the histograms to a checkpoint file at the end of the input files");
+		System.out.println("  -checkpointEvery <n>  also write the checkpoint every n events");
+		System.out.println("  -resume f1[,f2...]    add the histograms from checkpoint files, skipping the events they hold");
+		System.out.println("                        with no input files the checkpoints of split jobs are added and analysed");
+		System.out.println("  -writeCache <file>    write the hits from the input files to a hit cache file");
+		System.out.println("  -readCache f1[,f2...] replay the hits from hit cache files, the input files are optional");
+		System.out.println("  -iterate <n>          up to n iterations of lr,veff,tw,rfpad,p2p before the full run");
+		System.out.println("  -tolerance 1.0        scales the step tolerances, iterations stop when no step changes by more:");
+		System.out.println("                        0.01 ns for lr, tw (correction), rfpad and p2p, 0.1 cm/ns for veff");
+		System.out.println("  -verifyThreads 0      1 also fills the steps on one thread and compares the constants");
+		System.out.println("                        with the threaded result, e.g. on input with several runs");
+		System.out.println("  -log info             message level error|warn|info|debug, debug prints each hit");
+		System.out.println("  -lowRate <fraction>   status file flags channels below this fraction of the median hits");
+		System.out.println("  -ccdbSnapshot <file>  read the CCDB tables from a snapshot file written by TOFConstantFile");
+	}
+
+	public boolean configure(String[] args) {
+
+		try {
+			for (int i = 0; i < args.length; i++) {
+
+				String arg = args[i];
+				if (!arg.startsWith("-") || arg.length() == 1) {
+					inputFiles.add(arg);
+					continue;
+				}
+				if (i + 1 >= args.length) {
+					System.out.println("Missing value for option " + arg);
+					return false;
+				}
+				String val = args[++i];
+
+				if (arg.equals("-steps")) {
+					for (int j = 0; j < engines.length; j++) {
+						engines[j].engineOn = false;
+					}
+					for (String step : val.split(",")) {
+						int index = stepIndex(step);
+						if (index == -1) {
+							System.out.println("Unknown step " + step);
+							return false;
+						}
+						engines[index].engineOn = true;
+					}
+				} else if (arg.equals("-prev")) {
+					String[] parts = val.split("=", 2);
+					int index = stepIndex(parts[0]);
+					if (index == -1 || parts.length != 2) {
+						System.out.println("Invalid previous calibration option " + val);
+						return false;
+					}
+					if (parts[1].startsWith("file:")) {
+						engines[index].calDBSource = TOFCalibrationEngine.CAL_FILE;
+						engines[index].prevCalFilename = parts[1].substring(5);
+					} else if (parts[1].startsWith("db:")) {
+						engines[index].calDBSource = TOFCalibrationEngine.CAL_DB;
+						engines[index].prevCalRunNo = Integer.parseInt(parts[1].substring(3));
+					} else {
+						engines[index].calDBSource = TOFCalibrationEngine.CAL_DEFAULT;
+					}
+				} else if (arg.equals("-gmean")) {
+					TofHVEventListener hvEngine = (TofHVEventListener) engines[TOFCalibration.HV];
+					String[] vals = val.split(",");
+					for (int j = 0; j < 3; j++) {
+						hvEngine.EXPECTED_MIP_CHANNEL[j] = Integer.parseInt(vals[j]);
+						hvEngine.NEWHV_MIP_CHANNEL[j] = Integer.parseInt(vals[j]);
+					}
+				} else if (arg.equals("-pathNorm")) {
+					TOFCalibration.pathNorm = val.equalsIgnoreCase("no") ? TOFCalibration.PATH_NORM_NO
+							: TOFCalibration.PATH_NORM_YES;
+				} else if (arg.equals("-vertexCorr")) {
+					TOFCalibration.vertexCorr = val.equalsIgnoreCase("no") ? TOFCalibration.VERTEX_CORR_NO
+							: TOFCalibration.VERTEX_CORR_YES;
+				} else if (arg.equals("-maxRcs")) {
+					TOFCalibration.maxRcs = Double.parseDouble(val);
+				} else if (arg.equals("-maxRcs2")) {
+					TOFCalibration.maxRcs2 = Double.parseDouble(val);
+				} else if (arg.equals("-minV")) {
+					TOFCalibration.minV = Double.parseDouble(val);
+				} else if (arg.equals("-maxV")) {
+					TOFCalibration.maxV = Double.parseDouble(val);
+				} else if (arg.equals("-targetPos")) {
+					TOFCalibration.targetPos = Double.parseDouble(val);
+				} else if (arg.equals("-minP")) {
+					TOFCalibration.minP = Double.parseDouble(val);
+				} else if (arg.equals("-maxP")) {
+					TOFCalibration.maxP = Double.parseDouble(val);
+				} else if (arg.equals("-minE")) {
+					TOFCalibration.minE = Double.parseDouble(val);
+				} else if (arg.equals("-mass")) {
+					String[] names = { "pion", "proton", "electron", "pid" };
+					TOFCalibration.massAss = optionIndex(names, val);
+				} else if (arg.equals("-charge")) {
+					String[] names = { "both", "neg", "pos" };
+					TOFCalibration.trackCharge = optionIndex(names, val);
+				} else if (arg.equals("-pid")) {
+					String[] names = { "all", "l", "pi", "p", "lpi" };
+					TOFCalibration.trackPid = optionIndex(names, val);
+				} else if (arg.equals("-pid2")) {
+					String[] names = { "all", "l", "pi", "p", "lpi" };
+					TOFCalibration.trackPid2 = optionIndex(names, val);
+				} else if (arg.equals("-rf")) {
+					TOFCalibrationEngine.BEAM_BUCKET = Double.parseDouble(val);
+				} else if (arg.equals("-trigger")) {
+					TOFCalibration.triggerBit = Long.decode(val);
+				} else if (arg.equals("-fitMethod")) {
+					String[] names = { "max", "sf" };
+					int method = optionIndex(names, val);
+					for (int j : FIT_STEPS) {
+						engines[j].fitMethod = method;
+					}
+				} else if (arg.equals("-fitMode")) {
+					for (int j : FIT_STEPS) {
+						engines[j].fitMode = val;
+					}
+				} else if (arg.equals("-minEvents")) {
+					for (int j : FIT_STEPS) {
+						engines[j].fitMinEvents = Integer.parseInt(val);
+					}
+				} else if (arg.equals("-tdc")) {
+					String[] vals = val.split(",");
+					TofTdcConvEventListener tdcEngine = (TofTdcConvEventListener) engines[TOFCalibration.TDC_CONV];
+					tdcEngine.TDC_MIN = Integer.parseInt(vals[0]);
+					tdcEngine.TDC_MAX = Integer.parseInt(vals[1]);
+					tdcEngine.FIT_MIN = tdcEngine.TDC_MIN + 100;
+					tdcEngine.FIT_MAX = tdcEngine.TDC_MAX - 100;
+				} else if (arg.equals("-fadc")) {
+					String[] vals = val.split(",");
+					TofFadcEventListener fadcEngine = (TofFadcEventListener) engines[TOFCalibration.FADC];
+					fadcEngine.MIN_X = Double.parseDouble(vals[0]);
+					fadcEngine.MAX_X = Double.parseDouble(vals[1]);
+					fadcEngine.WIDTH = Double.parseDouble(vals[2]);
+				} else if (arg.equals("-offsets")) {
+					String[] vals = val.split(",");
+					for (int j = 0; j < vals.length && j < stepOptions.length; j++) {
+						stepOptions[j] = Integer.parseInt(vals[j]);
+					}
+				} else if (arg.equals("-n")) {
+					maxEvents = Long.parseLong(val);
+				} else if (arg.equals("-threads")) {
+					nThreads = Math.max(1, Integer.parseInt(val));
+				} else if (arg.equals("-ccdbSnapshot")) {
+					TOFConstantFile.snapshotFile = val;
+				} else if (arg.equals("-fitThreads")) {
+					TOFCalibrationEngine.fitThreads = Math.max(1, Integer.parseInt(val));
+				} else if (arg.equals("-fused")) {
+					TOFCalibrationEngine.fusedProcessing = !val.equals("0");
+				} else if (arg.equals("-p2pMean")) {
+					TofP2PEventListener.eventMeanMode = val.equals("1");
+				} else if (arg.equals("-warmStart")) {
+					TOFFitSeeds.enabled = !val.equals("0");
+				} else if (arg.equals("-fastFit")) {
+					TOFFastFitter.enabled = !val.equals("0");
+				} else if (arg.equals("-checkpoint")) {
+					checkpointFile = val;
+				} else if (arg.equals("-checkpointEvery")) {
+					checkpointEvery = Long.parseLong(val);
+				} else if (arg.equals("-resume")) {
+					for (String file : val.split(",")) {
+						resumeFiles.add(file);
+					}
+				} else if (arg.equals("-writeCache")) {
+					writeCacheFile = val;
+				} else if (arg.equals("-readCache")) {
+					for (String file : val.split(",")) {
+						cacheFiles.add(file);
+					}
+				} else if (arg.equals("-iterate")) {
+					iterations = Integer.parseInt(val);
+				} else if (arg.equals("-tolerance")) {
+					tolerance = Double.parseDouble(val);
+				} else if (arg.equals("-verifyThreads")) {
+					verifyThreads = val.equals("1");
+				} else if (arg.equals("-log")) {
+					TOFLog.level = optionIndex(TOFLog.LEVEL_NAMES, val);
+				} else if (arg.equals("-lowRate")) {
+					TOFCounterStatus.lowRateFraction = Double.parseDouble(val);
+				} else {
+					System.out.println("Unknown option " + arg);
+					return false;
+				}
+			}
+		} catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+			System.out.println("Invalid option value: " + e.getMessage());
+			return false;
+		}
+
+		if (inputFiles.isEmpty() && resumeFiles.isEmpty() && cacheFiles.isEmpty()) {
+			System.out.println("No input files given");
+			return false;
+		}
+		if (verifyThreads && !resumeFiles.isEmpty()) {
+			System.out.println("-verifyThreads can't be used with -resume, the resumed events are not in the input files");
+			return false;
+		}
+		return true;
+	}
+
+	public int stepIndex(String step) {
+		for (int i = 0; i < STEP_KEYS.length; i++) {
+			if (STEP_KEYS[i].equalsIgnoreCase(step)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private int optionIndex(String[] names, String val) {
+		for (int i = 0; i < names.length; i++) {
+			if (names[i].equalsIgnoreCase(val)) {
+				return i;
+			}
+		}
+		throw new NumberFormatException("unknown value " + val);
+	}
+
+	public boolean populatePrevCalib() {
+
+		System.out.println("");
+		System.out.println(todayString());
+		System.out.println("Configuration settings - Selected steps");
+		System.out.println("---------------------------------------");
+		for (int i = 0; i < engines.length; i++) {
+			System.out.println(engines[i].stepName + " " + engines[i].engineOn);
+		}
+
+		System.out.println("");
+		System.out.println("Configuration settings - Previous calibration values");
+		System.out.println("----------------------------------------------------");
+		for (int i = 0; i < engines.length; i++) {
+			engines[i].populatePrevCalib();
+
+			if (!engines[i].prevCalRead) {
+				System.out.println("Problem populating " + engines[i].stepName + " previous calibration values");
+				return false;
+			}
+		}
+		// values used for each hit are read again from the new tables
+		TOFConstantSnapshot.invalidate();
+
+		TofHVEventListener hvEngine = (TofHVEventListener) engines[TOFCalibration.HV];
+		hvEngine.setConstraints();
+
+		System.out.println("");
+		System.out.println("Configuration settings - Tracking/General");
+		System.out.println("-----------------------------------------");
+		System.out.println("Target GMEAN channel 1a/1b/2: " + hvEngine.EXPECTED_MIP_CHANNEL[0] + "/"
+				+ hvEngine.EXPECTED_MIP_CHANNEL[1] + "/" + hvEngine.EXPECTED_MIP_CHANNEL[2]);
+		System.out.println("Path length normalisation for gmean?: " + TOFCalibration.pathNorm);
+		System.out.println("Maximum reduced chi squared for tracks: " + TOFCalibration.maxRcs + " (1a/1b) "
+				+ TOFCalibration.maxRcs2 + " (2)");
+		System.out.println("Vertex z range: " + TOFCalibration.minV + " - " + TOFCalibration.maxV);
+		System.out.println("Vertex time correction?: " + TOFCalibration.vertexCorr);
+		System.out.println("Target position (cm): " + TOFCalibration.targetPos);
+		System.out.println("Momentum range (GeV): " + TOFCalibration.minP + "-" + TOFCalibration.maxP);
+		System.out.println("Minimum energy deposit (MeV): " + TOFCalibration.minE);
+		System.out.println("Mass assumption for beta calculation: " + TOFCalibration.massAss);
+		System.out.println("Track charge: " + TOFCalibration.trackCharge);
+		System.out.println("RF period: " + TOFCalibrationEngine.BEAM_BUCKET);
+		System.out.println("PID: " + TOFCalibration.trackPid + " (1a/1b) " + TOFCalibration.trackPid2 + " (2)");
+		System.out.println("Trigger: " + TOFCalibration.triggerBit);
+		System.out.println("");
+		return true;
+	}
+
+	// Create the engine copies for the extra threads
+	// Must be called before populatePrevCalib as the engine constructors
+	// reset the static previous calibration values
+	public void createShards() {
+
+		shards.clear();
+		for (int t = 1; t < nThreads; t++) {
+			TOFCalibrationEngine[] shard = TOFCalibration.createEngines();
+			for (int i = 0; i < engines.length; i++) {
+				shard[i].copyConfig(engines[i]);
+			}
+			shards.add(shard);
+		}
+
+		if (verifyThreads) {
+			reference = TOFCalibration.createEngines();
+			for (int i = 0; i < engines.length; i++) {
+				reference[i].copyConfig(engines[i]);
+			}
+		}
+
+		// only the banks the selected steps need are read, the hit cache keeps the hits for any step
+		if (writeCacheFile == null) {
+			TOFEventBanks.setRequiredBanks(TOFCalibrationEngine.requiredBanks(engines));
+		}
+	}
+
+	public void run() {
+
+		List<TOFCalibrationEngine[]> engineSets = new ArrayList<TOFCalibrationEngine[]>();
+		engineSets.add(engines);
+		engineSets.addAll(shards);
+
+		for (TOFCalibrationEngine[] engineSet : engineSets) {
+			for (int i = 0; i < engineSet.length; i++) {
+				if (engineSet[i].engineOn) {
+					engineSet[i].resetEventListener();
+				}
+			}
+		}
+
+		long skipEvents = 0;
+		for (String file : resumeFiles) {
+			try {
+				long events = TOFCheckpoint.read(file, "FTOF", TOFCalibrationEngine.counterStatus, engines);
+				System.out.println("Resuming from " + file + " with " + events + " events");
+				skipEvents += events;
+			} catch (IOException e) {
+				System.out.println("Could not read checkpoint " + file + ": " + e.getMessage());
+				return;
+			}
+		}
+
+		for (String file : cacheFiles) {
+			System.out.println("Replaying " + file + " " + todayString());
+			try {
+				long events = TOFHitCache.replay(file, "FTOF", TOFCalibrationEngine.counterStatus,
+						new TOFHitCache.EventHandler() {
+							public void processPaddleList(List<TOFPaddle> paddleList) {
+								TOFCalibrationEngine.processPaddleListFused(paddleList, engines);
+							}
+						});
+				System.out.println(events + " events replayed from " + file);
+			} catch (IOException e) {
+				System.out.println("Could not read hit cache " + file + ": " + e.getMessage());
+				return;
+			}
+		}
+
+		if (writeCacheFile != null) {
+			try {
+				TOFHitCache.writer = new TOFHitCache.Writer(writeCacheFile, "FTOF");
+			} catch (IOException e) {
+				System.out.println("Could not write hit cache " + writeCacheFile + ": " + e.getMessage());
+				return;
+			}
+		}
+
+		BlockingQueue<List<DataEvent>> queue = null;
+		List<Thread> workers = new ArrayList<Thread>();
+		CyclicBarrier barrier = new CyclicBarrier(engineSets.size() + 1);
+		if (nThreads > 1) {
+			queue = new ArrayBlockingQueue<List<DataEvent>>(4 * nThreads);
+			for (TOFCalibrationEngine[] engineSet : engineSets) {
+				Thread worker = new Thread(new EventWorker(queue, engineSet, barrier));
+				worker.start();
+				workers.add(worker);
+			}
+		}
+
+		long nEvents = 0;
+		List<DataEvent> block = new ArrayList<DataEvent>(BLOCK_SIZE);
+		for (String file : inputFiles) {
+
+			System.out.println("Processing " + file + " " + todayString());
+			HipoDataSource reader = new HipoDataSource();
+			reader.open(file);
+
+			while (reader.hasEvent() && (maxEvents < 0 || nEvents < maxEvents)) {
+				DataEvent event = reader.getNextEvent();
+				if (nEvents < skipEvents) {
+					// already in the resumed histograms
+					nEvents++;
+					continue;
+				}
+				if (queue == null) {
+					processEvent(event, engines);
+				} else {
+					block.add(event);
+					if (block.size() == BLOCK_SIZE) {
+						putBlock(queue, block);
+						block = new ArrayList<DataEvent>(BLOCK_SIZE);
+					}
+				}
+				nEvents++;
+				if (nEvents % UPDATE_RATE == 0) {
+					System.out.println(nEvents + " events processed " + todayString());
+				}
+				if (checkpointFile != null && checkpointEvery > 0 && nEvents % checkpointEvery == 0) {
+					if (queue != null) {
+						if (!block.isEmpty()) {
+							putBlock(queue, block);
+							block = new ArrayList<DataEvent>(BLOCK_SIZE);
+						}
+						// wait for all the threads to finish the events so far
+						for (int t = 0; t < workers.size(); t++) {
+							putBlock(queue, CHECKPOINT_BLOCK);
+						}
+						awaitBarrier(barrier);
+					}
+					writeCheckpoint(engineSets, nEvents);
+					if (queue != null) {
+						awaitBarrier(barrier);
+					}
+				}
+			}
+			reader.close();
+		}
+
+		if (queue != null) {
+			if (!block.isEmpty()) {
+				putBlock(queue, block);
+			}
+			// an empty block tells each thread to finish
+			for (int t = 0; t < workers.size(); t++) {
+				putBlock(queue, new ArrayList<DataEvent>());
+			}
+			for (Thread worker : workers) {
+				try {
+					worker.join();
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+				}
+			}
+
+			// add the thread histograms into the main engines
+			for (TOFCalibrationEngine[] shard : shards) {
+				for (int i = 0; i < engines.length; i++) {
+					if (engines[i].engineOn) {
+						engines[i].merge(shard[i]);
+					}
+				}
+			}
+		}
+		System.out.println(nEvents + " events processed in total");
+
+		if (TOFHitCache.writer != null) {
+			try {
+				TOFHitCache.writer.close(TOFCalibrationEngine.counterStatus);
+			} catch (IOException e) {
+				System.out.println("Could not write hit cache " + writeCacheFile + ": " + e.getMessage());
+			}
+			TOFHitCache.writer = null;
+		}
+
+		if (checkpointFile != null) {
+			List<TOFCalibrationEngine[]> merged = new ArrayList<TOFCalibrationEngine[]>();
+			merged.add(engines);
+			writeCheckpoint(merged, Math.max(nEvents, skipEvents));
+		}
+
+		// the reference engines are analysed first so the output files are those of the main engines
+		if (verifyThreads) {
+			fillReference();
+			for (int i = 0; i < reference.length; i++) {
+				if (reference[i].engineOn) {
+					reference[i].analyze();
+				}
+			}
+		}
+
+		analyze();
+		writeFiles();
+
+		if (verifyThreads) {
+			verified = compareReference();
+		}
+	}
+
+	// Fill the reference engines on this thread from the same hit cache and input files as run()
+	// the channel hits are counted separately so the status files are unchanged
+	private void fillReference() {
+
+		System.out.println("Filling the single thread reference " + todayString());
+		TOFCounterStatus status = TOFCalibrationEngine.counterStatus;
+		TOFCalibrationEngine.counterStatus = new TOFCounterStatus();
+		try {
+			for (int i = 0; i < reference.length; i++) {
+				if (reference[i].engineOn) {
+					reference[i].resetEventListener();
+				}
+			}
+			for (String file : cacheFiles) {
+				try {
+					TOFHitCache.replay(file, "FTOF", TOFCalibrationEngine.counterStatus, new TOFHitCache.EventHandler() {
+						public void processPaddleList(List<TOFPaddle> paddleList) {
+							TOFCalibrationEngine.processPaddleListFused(paddleList, reference);
+						}
+					});
+				} catch (IOException e) {
+					System.out.println("Could not read hit cache " + file + ": " + e.getMessage());
+				}
+			}
+			long nEvents = 0;
+			for (String file : inputFiles) {
+				HipoDataSource reader = new HipoDataSource();
+				reader.open(file);
+				while (reader.hasEvent() && (maxEvents < 0 || nEvents < maxEvents)) {
+					processEvent(reader.getNextEvent(), reference);
+					nEvents++;
+				}
+				reader.close();
+			}
+		} finally {
+			TOFCalibrationEngine.counterStatus = status;
+		}
+	}
+
+	// Compare the constants of each step with the single thread reference
+	// numbers must agree to rounding, as the merged sums can be added in a different order
+	private boolean compareReference() {
+
+		boolean same = true;
+		for (int i = 0; i < engines.length; i++) {
+			if (!engines[i].engineOn) {
+				continue;
+			}
+			CalibrationConstants a = engines[i].calib;
+			CalibrationConstants b = reference[i].calib;
+			int nDiff = 0;
+			double maxDiff = 0.0;
+			if (a.getRowCount() != b.getRowCount() || a.getColumnCount() != b.getColumnCount()) {
+				nDiff = Math.max(a.getRowCount(), b.getRowCount());
+			}
+			else {
+				for (int row = 0; row < a.getRowCount(); row++) {
+					for (int col = 0; col < a.getColumnCount(); col++) {
+						Object va = a.getValueAt(row, col);
+						Object vb = b.getValueAt(row, col);
+						if (va instanceof Number && vb instanceof Number) {
+							double da = ((Number) va).doubleValue();
+							double db = ((Number) vb).doubleValue();
+							double diff = Math.abs(da - db);
+							if (diff > 1.0e-9 * Math.max(1.0, Math.max(Math.abs(da), Math.abs(db)))
+									|| Double.isNaN(da) != Double.isNaN(db)) {
+								nDiff++;
+								maxDiff = Math.max(maxDiff, diff);
+							}
+						}
+						else if (!String.valueOf(va).equals(String.valueOf(vb))) {
+							nDiff++;
+						}
+					}
+				}
+			}
+			if (nDiff == 0) {
+				System.out.println(engines[i].stepName + " constants identical to the single thread result");
+			}
+			else {
+				System.out.println(engines[i].stepName + " " + nDiff + " constants differ from the single thread result"
+						+ ", largest difference " + maxDiff);
+				same = false;
+			}
+		}
+		return same;
+	}
+
+	// Run the timing steps in order over the same data until the constants stop changing
+	// each step is filled and fitted on its own, then its results are used as the previous
+	// calibration values for the following steps and the next iteration
+	// the hit cache files are used if given as they are much faster to read than the input files
+	public void iterate() {
+
+		for (int iteration = 1; iteration <= iterations; iteration++) {
+
+			boolean converged = true;
+			for (int step : ITERATION_STEPS) {
+				TOFCalibrationEngine engine = engines[step];
+				if (!engine.engineOn) {
+					continue;
+				}
+				engine.resetEventListener();
+				engine.resetHitCounts();
+				if (!fillStep(engine)) {
+					return;
+				}
+				engine.analyze();
+				double change = engine.updatePrevCalib();
+				TOFConstantSnapshot.invalidate();
+				double stepTolerance = tolerance * engine.iterationTolerance;
+				System.out.println("Iteration " + iteration + " " + engine.stepName + " largest change "
+						+ new DecimalFormat("0.0000").format(change) + " tolerance "
+						+ new DecimalFormat("0.0000").format(stepTolerance) + " " + todayString());
+				if (change >= stepTolerance) {
+					converged = false;
+				}
+			}
+			if (converged) {
+				System.out.println("Converged after " + iteration + " iterations");
+				return;
+			}
+		}
+		System.out.println("Not converged after " + iterations + " iterations");
+	}
+
+	// Fill one step from the hit cache files, or from the input files if there are none
+	private boolean fillStep(TOFCalibrationEngine engine) {
+
+		final TOFCalibrationEngine[] engineSet = { engine };
+		if (!cacheFiles.isEmpty()) {
+			for (String file : cacheFiles) {
+				try {
+					TOFHitCache.replay(file, "FTOF", new TOFCounterStatus(), new TOFHitCache.EventHandler() {
+						public void processPaddleList(List<TOFPaddle> paddleList) {
+							TOFCalibrationEngine.processPaddleListFused(paddleList, engineSet);
+						}
+					});
+				} catch (IOException e) {
+					System.out.println("Could not read hit cache " + file + ": " + e.getMessage());
+					return false;
+				}
+			}
+			return true;
+		}
+
+		long nEvents = 0;
+		for (String file : inputFiles) {
+			HipoDataSource reader = new HipoDataSource();
+			reader.open(file);
+			while (reader.hasEvent() && (maxEvents < 0 || nEvents < maxEvents)) {
+				processEvent(reader.getNextEvent(), engineSet);
+				nEvents++;
+			}
+			reader.close();
+		}
+		return true;
+	}
+
+	private void putBlock(BlockingQueue<List<DataEvent>> queue, List<DataEvent> block) {
+		try {
+			queue.put(block);
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void writeCheckpoint(List<TOFCalibrationEngine[]> engineSets, long nEvents) {
+		try {
+			TOFCheckpoint.write(checkpointFile, "FTOF", nEvents, TOFCalibrationEngine.counterStatus, engineSets);
+			System.out.println("Checkpoint written to " + checkpointFile + " at " + nEvents + " events");
+		} catch (IOException e) {
+			System.out.println("Could not write checkpoint " + checkpointFile + ": " + e.getMessage());
+		}
+	}
+
+	private static void awaitBarrier(CyclicBarrier barrier) {
+		try {
+			barrier.await();
+		} catch (InterruptedException | BrokenBarrierException e) {
+			e.printStackTrace();
+		}
+	}
+
+	public static void processEvent(DataEvent event, TOFCalibrationEngine[] engineSet) {
+
+		List<TOFPaddle> paddleList = DataProvider.getPaddleList(event);
+		TOFCalibrationEngine.processPaddleListFused(paddleList, engineSet);
+	}
+
+	private static class EventWorker implements Runnable {
+
+		BlockingQueue<List<DataEvent>> queue;
+		TOFCalibrationEngine[] engineSet;
+		CyclicBarrier barrier;
+
+		EventWorker(BlockingQueue<List<DataEvent>> queue, TOFCalibrationEngine[] engineSet, CyclicBarrier barrier) {
+			this.queue = queue;
+			this.engineSet = engineSet;
+			this.barrier = barrier;
+		}
+
+		public void run() {
+			try {
+				List<DataEvent> block = queue.take();
+				while (block == CHECKPOINT_BLOCK || !block.isEmpty()) {
+					if (block == CHECKPOINT_BLOCK) {
+						// wait here until the checkpoint has been written
+						awaitBarrier(barrier);
+						awaitBarrier(barrier);
+					}
+					for (DataEvent event : block) {
+						try {
+							processEvent(event, engineSet);
+						} catch (Exception e) {
+							e.printStackTrace();
+						}
+					}
+					block = queue.take();
+				}
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	public void analyze() {
+		for (int i = 0; i < engines.length; i++) {
+			if (engines[i].engineOn) {
+				System.out.println("EVENT_STOP for " + engines[i].stepName + " " + todayString());
+				engines[i].analyze();
+			}
+		}
+	}
+
+	public void writeFiles() {
+
+		// tres
+		TofRFPadEventListener rfpadEng = (TofRFPadEventListener) engines[TOFCalibration.RFPAD];
+		rfpadEng.writeSigmaFile("FTOF_CALIB_TRES.txt");
+
+		// time offsets
+		TOFCalibration.writeTimeOffsets(engines, "FTOF_CALIB_TIME_OFFSETS.txt", stepOptions);
+	}
+
+	private String todayString() {
+		DateFormat dateFormat = new SimpleDateFormat("MMM dd yyyy HH:mm:ss");
+		return dateFormat.format(new Date());
+	}
+
+	public static void main(String[] args) {
+
+		System.setProperty("java.awt.headless", "true");
+
+		TOFCalibrationBatch batch = new TOFCalibrationBatch();
+		if (!batch.configure(args)) {
+			usage();
+			System.exit(1);
+		}
+		batch.createShards();
+		if (!batch.populatePrevCalib()) {
+			System.exit(1);
+		}
+		if (batch.iterations > 0) {
+			batch.iterate();
+		}
+		batch.run();
+		if (!batch.verified) {
+			System.exit(1);
+		}
+	}
+
+}
@@ -4,6 +4,8 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
@@ -15,7 +17,14 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import javax.imageio.ImageIO;
 import javax.swing.JButton;
@@ -30,6 +39,7 @@ import org.jlab.detector.calib.utils.CalibrationConstants;
 import org.jlab.groot.data.GraphErrors;
 import org.jlab.groot.data.H1F;
 import org.jlab.groot.data.H2F;
+import org.jlab.groot.data.IDataSet;
 import org.jlab.groot.graphics.EmbeddedCanvas;
 import org.jlab.groot.group.DataGroup;
 //import org.jlab.calib.temp.DataGroup;
@@ -48,7 +58,7 @@ import java.awt.Graphics2D;
 import java.awt.BorderLayout;
 import java.awt.Dimension;
 
-public class TOFCalibrationEngine extends CalibrationEngine implements ActionListener {
+public class TOFCalibrationEngine extends CalibrationEngine implements ActionListener, TOFCheckpoint.Step {
 
 	public final static int[] NUM_PADDLES = { 23, 62, 5 };
 	public final static int 	NUM_LAYERS = 3;
@@ -107,10 +117,37 @@ public class TOFCalibrationEngine extends CalibrationEngine implements ActionLis
 	public static CalibrationConstants twposValues;
 
 	// Calculated counter status values
-	public static IndexedList<Integer> adcLeftStatus = new IndexedList<Integer>(3);
-	public static IndexedList<Integer> adcRightStatus = new IndexedList<Integer>(3);
-	public static IndexedList<Integer> tdcLeftStatus = new IndexedList<Integer>(3);
-	public static IndexedList<Integer> tdcRightStatus = new IndexedList<Integer>(3);
+	public static TOFCounterStatus counterStatus = new TOFCounterStatus();
+
+	// the paddle fits are independent so are shared out over a pool of threads
+	public static int fitThreads = Runtime.getRuntime().availableProcessors();
+	private static ForkJoinPool fitPool = null;
+
+	// set while a thread runs a fit from the pool, so slice fits inside it don't start more threads
+	private static final ThreadLocal<Boolean> inFitPool = new ThreadLocal<Boolean>() {
+		@Override
+		protected Boolean initialValue() {
+			return false;
+		}
+	};
+
+	// refit the slice fitter steps at each timer update, only the paddles with new data are refitted
+	// set by Live slice fits in the GUIs, the batch runners have no timer updates
+	public static boolean liveSliceFits = false;
+
+	// fill the steps in a single pass over each event's paddle list
+	public static boolean fusedProcessing = true;
+
+	// minimum number of new hits in a paddle since its last fit for timerUpdate to refit it
+	public static int minNewHits = 100;
+
+	// iterate stops once updatePrevCalib returns less than this for every step
+	// in the units of updatePrevCalib, ns for the timing offsets
+	public double iterationTolerance = 0.01;
+
+	// hits passed to processPaddle for each paddle, and the number when it was last fitted
+	private int[] paddleHits = new int[TOFConstantSnapshot.MAX_PADDLES];
+	private int[] paddleHitsAtFit = new int[TOFConstantSnapshot.MAX_PADDLES];
 
 	public TOFCalibrationEngine() {
 		// controlled by calibration step class
@@ -147,18 +184,130 @@ public class TOFCalibrationEngine extends CalibrationEngine implements ActionLis
 		} else if (event.getType() == DataEventType.EVENT_ACCUMULATE) {
 			processEvent(event);
 		} else if (event.getType() == DataEventType.EVENT_STOP) {
-			System.out.println("EVENT_STOP");
+			TOFLog.info(stepName + " EVENT_STOP");
 			analyze();
 		}
 	}
 
 	public void processPaddleList(List<TOFPaddle> paddleList) {
+		// overridden in calibration step classes which don't fill from each hit on its own
+		for (TOFPaddle paddle : paddleList) {
+			if (!requiresGoodTrack() || paddle.goodTrackFound()) {
+				countHit(paddle);
+				processPaddle(paddle);
+			}
+		}
+	}
+
+	// Steps which fill from each hit on its own return true and override processPaddle
+	// so all these steps can be filled in a single pass over the paddle list
+	public boolean isFusable() {
+		return false;
+	}
+
+	// processPaddle is only called for hits with a good track
+	public boolean requiresGoodTrack() {
+		return false;
+	}
+
+	// optional banks this step needs, see TOFEventBanks.setRequiredBanks
+	// overridden in the steps which check goodTrackFound themselves
+	public String[] getRequiredBanks() {
+		return requiresGoodTrack() ? TOFEventBanks.OPTIONAL_BANKS : new String[0];
+	}
+
+	// optional banks needed by the enabled engines
+	public static Set<String> requiredBanks(TOFCalibrationEngine[] engineSet) {
+		Set<String> required = new HashSet<String>();
+		for (TOFCalibrationEngine engine : engineSet) {
+			if (engine.engineOn) {
+				required.addAll(Arrays.asList(engine.getRequiredBanks()));
+			}
+		}
+		return required;
+	}
+
+	public void processPaddle(TOFPaddle paddle) {
 		// overridden in calibration step classes
 	}
 
+	// Process the paddle list for all enabled engines
+	// the list is walked once for the fusable engines, passing each hit to each of them in turn
+	public static void processPaddleListFused(List<TOFPaddle> paddleList, TOFCalibrationEngine[] engineSet) {
+
+		boolean anyFused = false;
+		for (TOFCalibrationEngine engine : engineSet) {
+			if (engine.engineOn) {
+				if (fusedProcessing && engine.isFusable()) {
+					anyFused = true;
+				}
+				else {
+					engine.processPaddleList(paddleList);
+				}
+			}
+		}
+		if (!anyFused) {
+			return;
+		}
+
+		for (TOFPaddle paddle : paddleList) {
+			boolean goodTrack = paddle.goodTrackFound();
+			for (TOFCalibrationEngine engine : engineSet) {
+				if (engine.engineOn && engine.isFusable() && (goodTrack || !engine.requiresGoodTrack())) {
+					engine.countHit(paddle);
+					engine.processPaddle(paddle);
+				}
+			}
+		}
+	}
+
+	public void countHit(TOFPaddle paddle) {
+		paddleHits[paddle.getPaddleIndex()]++;
+	}
+
+	// called with resetEventListener when the histograms are recreated
+	public void resetHitCounts() {
+		Arrays.fill(paddleHits, 0);
+		Arrays.fill(paddleHitsAtFit, 0);
+	}
+
 	@Override
 	public void timerUpdate() {
-		analyze();
+		if (isFusable()) {
+			updateChanged();
+		}
+		else {
+			analyze();
+		}
+	}
+
+	// Refit only the paddles with at least minNewHits new hits since they were last fitted
+	// and update their rows in the table, the file is written by analyze at the end of the run
+	public void updateChanged() {
+
+		List<int[]> paddles = new ArrayList<int[]>();
+		for (int sector = 1; sector <= 6; sector++) {
+			for (int layer = 1; layer <= 3; layer++) {
+				int layer_index = layer - 1;
+				for (int paddle = 1; paddle <= NUM_PADDLES[layer_index]; paddle++) {
+					int i = TOFConstantSnapshot.index(sector, layer, paddle);
+					if (paddleHits[i] - paddleHitsAtFit[i] >= Math.max(1, minNewHits)) {
+						paddles.add(new int[] {sector, layer, paddle});
+						paddleHitsAtFit[i] = paddleHits[i];
+					}
+				}
+			}
+		}
+		// all rows are shown from the first update
+		if (calib.getRowCount() == 0) {
+			saveRows();
+		}
+		fitPaddles(paddles);
+		for (int[] p : paddles) {
+			calib.addEntry(p[0], p[1], p[2]);
+			saveRow(p[0], p[1], p[2]);
+		}
+		calib.fireTableDataChanged();
 	}
 
 	public void processEvent(DataEvent event) {
@@ -169,19 +318,209 @@ public class TOFCalibrationEngine extends CalibrationEngine implements ActionLis
 	public void analyze() {
 
 		//System.out.println(stepName+" analyze");
+		List<int[]> paddles = new ArrayList<int[]>();
 		for (int sector = 1; sector <= 6; sector++) {
 			for (int layer = 1; layer <= 3; layer++) {
 				int layer_index = layer - 1;
 				for (int paddle = 1; paddle <= NUM_PADDLES[layer_index]; paddle++) {
-					fit(sector, layer, paddle);
+					paddles.add(new int[] {sector, layer, paddle});
 				}
 			}
 		}
+		fitPaddles(paddles);
+		System.arraycopy(paddleHits, 0, paddleHitsAtFit, 0, paddleHits.length);
 		save();
 		//saveCounterStatus();
 		calib.fireTableDataChanged();
 	}
 
+	// Fit each paddle in the list of {sector, layer, paddle}
+	// each fit only uses the histograms and functions of its own paddle
+	public void fitPaddles(List<int[]> paddles) {
+
+		if (fitThreads <= 1 || paddles.size() <= 1) {
+			for (int[] p : paddles) {
+				fit(p[0], p[1], p[2]);
+			}
+			return;
+		}
+
+		List<Callable<Object>> fits = new ArrayList<Callable<Object>>();
+		for (final int[] p : paddles) {
+			fits.add(new Callable<Object>() {
+				public Object call() {
+					fit(p[0], p[1], p[2]);
+					return null;
+				}
+			});
+		}
+		invokeFits(fits);
+	}
+
+	// Run the fits on the shared pool
+	// Output is switched off for the pool threads while each fit runs
+	public static void invokeFits(List<Callable<Object>> fits) {
+
+		List<Callable<Object>> quietFits = new ArrayList<Callable<Object>>();
+		for (final Callable<Object> fit : fits) {
+			quietFits.add(new Callable<Object>() {
+				public Object call() throws Exception {
+					TOFLog.quiet(true);
+					inFitPool.set(true);
+					try {
+						return fit.call();
+					} finally {
+						inFitPool.set(false);
+						TOFLog.quiet(false);
+					}
+				}
+			});
+		}
+		for (Future<Object> f : getFitPool().invokeAll(quietFits)) {
+			try {
+				f.get();
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	// Number of threads for a slice fitter
+	// one for the fits run in parallel by paddle, all the fit threads for a paddle fitted on its own
+	// so there are never more than fitThreads fits running
+	public static int sliceFitThreads() {
+		return inFitPool.get() ? 1 : Math.max(1, fitThreads);
+	}
+
+	private static synchronized ForkJoinPool getFitPool() {
+		if (fitPool == null) {
+			fitPool = new ForkJoinPool(Math.max(1, fitThreads));
+		}
+		return fitPool;
+	}
+
+	// Copy the configuration of another engine of the same type
+	// used for the per thread copies of the engines in batch mode
+	public void copyConfig(TOFCalibrationEngine engine) {
+		engineOn = engine.engineOn;
+		fitMethod = engine.fitMethod;
+		fitMode = engine.fitMode;
+		fitMinEvents = engine.fitMinEvents;
+		maxGraphError = engine.maxGraphError;
+		fitSliceMaxError = engine.fitSliceMaxError;
+		logScale = engine.logScale;
+	}
+
+	// Add the histograms filled by another copy of this engine
+	public void merge(TOFCalibrationEngine engine) {
+		mergeDataGroups(dataGroups, engine.dataGroups);
+		for (int i = 0; i < paddleHits.length; i++) {
+			paddleHits[i] += engine.paddleHits[i];
+		}
+	}
+
+	public boolean isEngineOn() {
+		return engineOn;
+	}
+
+	// Write the histograms and hit counts for a checkpoint
+	// steps with other accumulated values override this to write them as well
+	public void writeCheckpoint(DataOutputStream out) throws IOException {
+		TOFCheckpoint.writeDataGroups(out, dataGroups);
+		TOFCheckpoint.writeCounts(out, paddleHits);
+	}
+
+	// Add the histograms and hit counts from a checkpoint, as for merge
+	public void readCheckpoint(DataInputStream in) throws IOException {
+		TOFCheckpoint.readDataGroups(in, dataGroups);
+		TOFCheckpoint.readCounts(in, paddleHits);
+	}
+
+	// Use the results of this step as the previous calibration values, as if its file had been
+	// selected as the previous calibration, returns the largest change for any paddle
+	// overridden in the steps whose values are used by other steps, see iterationTolerance for the units
+	public double updatePrevCalib() {
+		return 0.0;
+	}
+
+	// Copy a column of the results into the previous calibration values
+	// paddles with no hits keep their previous values
+	public double copyToPrev(CalibrationConstants prevValues, String column, String prevColumn) {
+
+		double maxChange = 0.0;
+		for (int sector = 1; sector <= 6; sector++) {
+			for (int layer = 1; layer <= 3; layer++) {
+				int layer_index = layer - 1;
+				for (int paddle = 1; paddle <= NUM_PADDLES[layer_index]; paddle++) {
+					if (!hasHits(sector, layer, paddle)) {
+						continue;
+					}
+					double value = calib.getDoubleValue(column, sector, layer, paddle);
+					double prev = prevValues.getDoubleValue(prevColumn, sector, layer, paddle);
+					maxChange = Math.max(maxChange, Math.abs(value - prev));
+					prevValues.setDoubleValue(value, prevColumn, sector, layer, paddle);
+				}
+			}
+		}
+		return maxChange;
+	}
+
+	public boolean hasHits(int sector, int layer, int paddle) {
+		return paddleHits[TOFConstantSnapshot.index(sector, layer, paddle)] != 0;
+	}
+
+	public static void mergeDataGroups(IndexedList<DataGroup> target, IndexedList<DataGroup> source) {
+
+		for (Map.Entry<Long, DataGroup> entry : source.getMap().entrySet()) {
+
+			DataGroup targetGroup = target.getMap().get(entry.getKey());
+			DataGroup sourceGroup = entry.getValue();
+			if (targetGroup == null) {
+				continue;
+			}
+
+			// the same histogram can be drawn in more than one pad
+			Map<IDataSet, Boolean> added = new IdentityHashMap<IDataSet, Boolean>();
+			for (int order = 0; order < sourceGroup.getColumns() * sourceGroup.getRows(); order++) {
+				List<IDataSet> dsList = sourceGroup.getData(order);
+				if (dsList == null) {
+					continue;
+				}
+				for (IDataSet ds : dsList) {
+					IDataSet targetDs = targetGroup.getData(ds.getName());
+					if (targetDs == null || added.containsKey(targetDs)) {
+						continue;
+					}
+					if (ds instanceof H2F && targetDs instanceof H2F) {
+						addHist((H2F) targetDs, (H2F) ds);
+						added.put(targetDs, true);
+					} else if (ds instanceof H1F && targetDs instanceof H1F) {
+						addHist((H1F) targetDs, (H1F) ds);
+						added.put(targetDs, true);
+					}
+				}
+			}
+		}
+	}
+
+	// the bins are added by index, the axes must be the same (see TOFCheckpoint.checkAxes)
+	public static void addHist(H1F target, H1F source) {
+		for (int i = 0; i < target.getxAxis().getNBins(); i++) {
+			double err = Math.sqrt(target.getBinError(i) * target.getBinError(i)
+					+ source.getBinError(i) * source.getBinError(i));
+			target.setBinContent(i, target.getBinContent(i) + source.getBinContent(i));
+			target.setBinError(i, err);
+		}
+	}
+
+	public static void addHist(H2F target, H2F source) {
+		for (int i = 0; i < target.getXAxis().getNBins(); i++) {
+			for (int j = 0; j < target.getYAxis().getNBins(); j++) {
+				target.setBinContent(i, j, target.getBinContent(i, j) + source.getBinContent(i, j));
+			}
+		}
+	}
+
 	public void fit(int sector, int layer, int paddle) {
 		// fit to default range
 		fit(sector, layer, paddle, UNDEFINED_OVERRIDE, UNDEFINED_OVERRIDE);
@@ -247,6 +586,16 @@ public class TOFCalibrationEngine extends CalibrationEngine implements ActionLis
 
 	public void save() {
 
+		saveRows();
+		//calib.save(filename);
+		// current CalibrationConstants object does not write file in correct format
+		// use local method for the moment
+		this.writeFile(filename);
+	}
+
+	// update the table without writing the file
+	public void saveRows() {
+
 		for (int sector = 1; sector <= 6; sector++) {
 			for (int layer = 1; layer <= 3; layer++) {
 				int layer_index = layer - 1;
@@ -256,10 +605,6 @@ public class TOFCalibrationEngine extends CalibrationEngine implements ActionLis
 				}
 			}
 		}
-		//calib.save(filename);
-		// current CalibrationConstants object does not write file in correct format
-		// use local method for the moment
-		this.writeFile(filename);
 	}
 
 	public void writeFile(String filename) {
@@ -286,9 +631,7 @@ public class TOFCalibrationEngine extends CalibrationEngine implements ActionLis
 			outputBw.close();
 		}
 		catch(IOException ex) {
-			System.out.println(
-					"Error reading file '" 
-							+ filename + "'");                   
+			TOFLog.error("Error writing file '" + filename + "'");
 			// Or we could just do this: 
 			ex.printStackTrace();
 		}
@@ -629,17 +972,9 @@ public class TOFCalibrationEngine extends CalibrationEngine implements ActionLis
 
 	}
 
+	// output is switched off for this thread only
 	public void setOutput(boolean outputOn) {
-		if (outputOn) {
-			System.setOut(TOFCalibration.oldStdout);
-		}
-		else {
-			System.setOut(new java.io.PrintStream(
-					new java.io.OutputStream() {
-						public void write(int b){}
-					}
-					));
-		}
+		TOFLog.quiet(!outputOn);
 	}
 
 }
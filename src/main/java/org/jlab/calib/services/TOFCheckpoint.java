@@ -0,0 +1,347 @@
+package org.jlab.calib.services;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.jlab.groot.data.H1F;
+import org.jlab.groot.data.H2F;
+import org.jlab.groot.data.IDataSet;
+import org.jlab.groot.group.DataGroup;
+import org.jlab.utils.groups.IndexedList;
+
+/**
+ * Binary checkpoint of the histograms filled by the calibration steps
+ *
+ * The file holds the number of events processed, the counter status hit counts and one
+ * section per step with its histograms (only the non-empty bins) and any other accumulated values.
+ * Reading a checkpoint adds its contents to the histograms already filled, so a run can be
+ * resumed from its last checkpoint and the checkpoints of split jobs can be added together.
+ * Sections for steps which are not selected are skipped.
+ * The histogram axes are stored and must match those of the current settings, a checkpoint
+ * written with other settings (e.g. another RF period or paddle lengths) is rejected.
+ */
+public class TOFCheckpoint {
+
+	private static final int MAGIC = 0x544f4643; // "TOFC"
+	private static final int VERSION = 2;
+
+	private static final byte TYPE_H1F = 1;
+	private static final byte TYPE_H2F = 2;
+
+	// implemented by the FTOF and CTOF calibration engines
+	public interface Step {
+		boolean isEngineOn();
+		void writeCheckpoint(DataOutputStream out) throws IOException;
+		void readCheckpoint(DataInputStream in) throws IOException;
+	}
+
+	// Write the checkpoint for one or more copies of the engines
+	// e.g. the engines of each processing thread, which are added together when read
+	// the file is written under a temporary name and renamed, so an interrupted write leaves the previous checkpoint
+	public static void write(String filename, String tof, long events, TOFCounterStatus status,
+			List<? extends Step[]> engineSets) throws IOException {
+
+		File file = new File(filename);
+		File tmpFile = new File(filename + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new GZIPOutputStream(new FileOutputStream(tmpFile))));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(tof);
+			out.writeLong(events);
+			status.write(out);
+
+			List<Step> steps = new ArrayList<Step>();
+			for (Step[] engineSet : engineSets) {
+				for (Step step : engineSet) {
+					if (step.isEngineOn()) {
+						steps.add(step);
+					}
+				}
+			}
+			out.writeInt(steps.size());
+			for (Step step : steps) {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				DataOutputStream section = new DataOutputStream(bytes);
+				step.writeCheckpoint(section);
+				section.flush();
+				out.writeUTF(step.getClass().getName());
+				out.writeInt(bytes.size());
+				bytes.writeTo(out);
+			}
+		} finally {
+			out.close();
+		}
+
+		if (file.exists() && !file.delete()) {
+			throw new IOException("could not replace " + filename);
+		}
+		if (!tmpFile.renameTo(file)) {
+			throw new IOException("could not rename " + tmpFile.getName() + " to " + filename);
+		}
+	}
+
+	// Add the contents of a checkpoint to the engines, returns the number of events it holds
+	// on an IOException the steps may hold part of the checkpoint, so the run must not go on
+	public static long read(String filename, String tof, TOFCounterStatus status, Step[] engines)
+			throws IOException {
+
+		Map<String, Step> steps = new HashMap<String, Step>();
+		for (Step step : engines) {
+			if (step.isEngineOn()) {
+				steps.put(step.getClass().getName(), step);
+			}
+		}
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new GZIPInputStream(new FileInputStream(filename))));
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException(filename + " is not a checkpoint file");
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException(filename + " has unknown checkpoint version " + version);
+			}
+			String fileTof = in.readUTF();
+			if (!fileTof.equals(tof)) {
+				throw new IOException(filename + " is a " + fileTof + " checkpoint");
+			}
+			long events = in.readLong();
+			status.read(in);
+
+			int nSections = in.readInt();
+			for (int i = 0; i < nSections; i++) {
+				String name = in.readUTF();
+				byte[] bytes = new byte[in.readInt()];
+				in.readFully(bytes);
+				Step step = steps.get(name);
+				if (step != null) {
+					step.readCheckpoint(new DataInputStream(new ByteArrayInputStream(bytes)));
+				}
+			}
+			return events;
+		} finally {
+			in.close();
+		}
+	}
+
+	// Write the H1F and H2F histograms of each data group
+	// a histogram drawn in more than one pad is written once
+	public static void writeDataGroups(DataOutputStream out, IndexedList<DataGroup> groups) throws IOException {
+
+		out.writeInt(groups.getMap().size());
+		for (Map.Entry<Long, DataGroup> entry : groups.getMap().entrySet()) {
+
+			DataGroup group = entry.getValue();
+			List<IDataSet> hists = new ArrayList<IDataSet>();
+			Map<IDataSet, Boolean> added = new IdentityHashMap<IDataSet, Boolean>();
+			for (int order = 0; order < group.getColumns() * group.getRows(); order++) {
+				List<IDataSet> dsList = group.getData(order);
+				if (dsList == null) {
+					continue;
+				}
+				for (IDataSet ds : dsList) {
+					if ((ds instanceof H1F || ds instanceof H2F) && !added.containsKey(ds)) {
+						hists.add(ds);
+						added.put(ds, true);
+					}
+				}
+			}
+
+			out.writeLong(entry.getKey());
+			out.writeInt(hists.size());
+			for (IDataSet ds : hists) {
+				if (ds instanceof H2F) {
+					out.writeByte(TYPE_H2F);
+					writeHist(out, (H2F) ds);
+				} else {
+					out.writeByte(TYPE_H1F);
+					writeHist(out, (H1F) ds);
+				}
+			}
+		}
+	}
+
+	// Add the histograms to those with the same name in the same data group
+	public static void readDataGroups(DataInputStream in, IndexedList<DataGroup> groups) throws IOException {
+
+		int nGroups = in.readInt();
+		for (int i = 0; i < nGroups; i++) {
+			DataGroup group = groups.getMap().get(in.readLong());
+			int nHists = in.readInt();
+			for (int j = 0; j < nHists; j++) {
+				byte type = in.readByte();
+				if (type == TYPE_H2F) {
+					H2F hist = readH2F(in);
+					IDataSet target = group == null ? null : group.getData(hist.getName());
+					if (target instanceof H2F) {
+						checkAxes((H2F) target, hist);
+						TOFCalibrationEngine.addHist((H2F) target, hist);
+					}
+				} else if (type == TYPE_H1F) {
+					H1F hist = readH1F(in);
+					IDataSet target = group == null ? null : group.getData(hist.getName());
+					if (target instanceof H1F) {
+						checkAxes((H1F) target, hist);
+						TOFCalibrationEngine.addHist((H1F) target, hist);
+					}
+				} else {
+					throw new IOException("unknown histogram type " + type);
+				}
+			}
+		}
+	}
+
+	public static void writeHist(DataOutputStream out, H1F hist) throws IOException {
+
+		int nBins = hist.getAxis().getNBins();
+		out.writeUTF(hist.getName());
+		out.writeInt(nBins);
+		out.writeDouble(hist.getAxis().min());
+		out.writeDouble(hist.getAxis().max());
+		int nFilled = 0;
+		for (int i = 0; i < nBins; i++) {
+			if (hist.getBinContent(i) != 0.0 || hist.getBinError(i) != 0.0) {
+				nFilled++;
+			}
+		}
+		out.writeInt(nFilled);
+		for (int i = 0; i < nBins; i++) {
+			if (hist.getBinContent(i) != 0.0 || hist.getBinError(i) != 0.0) {
+				out.writeInt(i);
+				out.writeDouble(hist.getBinContent(i));
+				out.writeDouble(hist.getBinError(i));
+			}
+		}
+	}
+
+	public static H1F readH1F(DataInputStream in) throws IOException {
+
+		String name = in.readUTF();
+		int nBins = in.readInt();
+		double min = in.readDouble();
+		double max = in.readDouble();
+		H1F hist = new H1F(name, nBins, min, max);
+		int nFilled = in.readInt();
+		for (int i = 0; i < nFilled; i++) {
+			int bin = in.readInt();
+			hist.setBinContent(bin, in.readDouble());
+			hist.setBinError(bin, in.readDouble());
+		}
+		return hist;
+	}
+
+	public static void writeHist(DataOutputStream out, H2F hist) throws IOException {
+
+		int nx = hist.getXAxis().getNBins();
+		int ny = hist.getYAxis().getNBins();
+		out.writeUTF(hist.getName());
+		out.writeInt(nx);
+		out.writeDouble(hist.getXAxis().min());
+		out.writeDouble(hist.getXAxis().max());
+		out.writeInt(ny);
+		out.writeDouble(hist.getYAxis().min());
+		out.writeDouble(hist.getYAxis().max());
+		int nFilled = 0;
+		for (int i = 0; i < nx; i++) {
+			for (int j = 0; j < ny; j++) {
+				if (hist.getBinContent(i, j) != 0.0) {
+					nFilled++;
+				}
+			}
+		}
+		out.writeInt(nFilled);
+		for (int i = 0; i < nx; i++) {
+			for (int j = 0; j < ny; j++) {
+				if (hist.getBinContent(i, j) != 0.0) {
+					out.writeInt(i * ny + j);
+					out.writeDouble(hist.getBinContent(i, j));
+				}
+			}
+		}
+	}
+
+	public static H2F readH2F(DataInputStream in) throws IOException {
+
+		String name = in.readUTF();
+		int nx = in.readInt();
+		double xmin = in.readDouble();
+		double xmax = in.readDouble();
+		int ny = in.readInt();
+		double ymin = in.readDouble();
+		double ymax = in.readDouble();
+		H2F hist = new H2F(name, name, nx, xmin, xmax, ny, ymin, ymax);
+		int nFilled = in.readInt();
+		for (int i = 0; i < nFilled; i++) {
+			int bin = in.readInt();
+			hist.setBinContent(bin / ny, bin % ny, in.readDouble());
+		}
+		return hist;
+	}
+
+	// Add a histogram written by writeHist to one not in a data group
+	public static void readHist(DataInputStream in, H1F target) throws IOException {
+		H1F hist = readH1F(in);
+		if (target != null) {
+			checkAxes(target, hist);
+			TOFCalibrationEngine.addHist(target, hist);
+		}
+	}
+
+	// the bins are added by index, so the axes must be the same
+	public static void checkAxes(H1F target, H1F hist) throws IOException {
+		checkAxis(hist.getName(), "x", hist.getAxis().getNBins(), hist.getAxis().min(), hist.getAxis().max(),
+				target.getAxis().getNBins(), target.getAxis().min(), target.getAxis().max());
+	}
+
+	public static void checkAxes(H2F target, H2F hist) throws IOException {
+		checkAxis(hist.getName(), "x", hist.getXAxis().getNBins(), hist.getXAxis().min(), hist.getXAxis().max(),
+				target.getXAxis().getNBins(), target.getXAxis().min(), target.getXAxis().max());
+		checkAxis(hist.getName(), "y", hist.getYAxis().getNBins(), hist.getYAxis().min(), hist.getYAxis().max(),
+				target.getYAxis().getNBins(), target.getYAxis().min(), target.getYAxis().max());
+	}
+
+	public static void checkAxis(String name, String axis, int nBins, double min, double max,
+			int targetBins, double targetMin, double targetMax) throws IOException {
+		if (nBins != targetBins || min != targetMin || max != targetMax) {
+			throw new IOException("histogram " + name + " has " + nBins + " " + axis + " bins from " + min
+					+ " to " + max + " but the current settings give " + targetBins + " bins from "
+					+ targetMin + " to " + targetMax);
+		}
+	}
+
+	public static void writeCounts(DataOutputStream out, int[] counts) throws IOException {
+		out.writeInt(counts.length);
+		for (int n : counts) {
+			out.writeInt(n);
+		}
+	}
+
+	// Add the counts to the array
+	public static void readCounts(DataInputStream in, int[] counts) throws IOException {
+		int n = in.readInt();
+		for (int i = 0; i < n; i++) {
+			int count = in.readInt();
+			if (i < counts.length) {
+				counts[i] += count;
+			}
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package org.jlab.calib.services;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.jlab.groot.data.H1F;
+
+/**
+ * Circular mean and width of a time modulo a fixed period, for every paddle
+ *
+ * Each value is treated as an angle on a circle of one period (e.g. the beam bucket),
+ * so hits either side of the wrap point average correctly without re-binning.
+ * Only the sums of the cosines and sines are kept, so the mean and sigma
+ * are available at any time during the run.
+ * The sigma is only that of the peak once the background under it is removed, see getBackground.
+ */
+public class TOFCircularStats {
+
+	// bins at least this fraction of the period from the mean are taken as background
+	private static final double SIDEBAND = 0.3;
+
+	private final double period;
+	private final double[] sumCos;
+	private final double[] sumSin;
+	private final int[] entries;
+
+	public TOFCircularStats(int nPaddles, double period) {
+		this.period = period;
+		sumCos = new double[nPaddles];
+		sumSin = new double[nPaddles];
+		entries = new int[nPaddles];
+	}
+
+	public void fill(int paddle, double value) {
+		if (paddle < 0 || paddle >= entries.length) {
+			return;
+		}
+		double phase = 2.0 * Math.PI * value / period;
+		sumCos[paddle] += Math.cos(phase);
+		sumSin[paddle] += Math.sin(phase);
+		entries[paddle]++;
+	}
+
+	public int getEntries(int paddle) {
+		return entries[paddle];
+	}
+
+	// length of the mean vector, 1 for values all the same and 0 for values spread evenly
+	public double getResultant(int paddle) {
+		if (entries[paddle] == 0) {
+			return 0.0;
+		}
+		return Math.sqrt(sumCos[paddle] * sumCos[paddle] + sumSin[paddle] * sumSin[paddle]) / entries[paddle];
+	}
+
+	// mean in the range -period/2 to period/2
+	public double getMean(int paddle) {
+		if (entries[paddle] == 0) {
+			return 0.0;
+		}
+		return Math.atan2(sumSin[paddle], sumCos[paddle]) * period / (2.0 * Math.PI);
+	}
+
+	// circular standard deviation, equal to the gaussian sigma for a peak narrow compared to the period
+	public double getSigma(int paddle) {
+		return getSigma(paddle, 0.0);
+	}
+
+	// sigma of the peak with a number of background entries removed
+	// a flat background adds nothing to the sums of the cosines and sines, only to the entries,
+	// so the resultant of the peak alone is the length of the sums over the peak entries
+	public double getSigma(int paddle, double background) {
+		double signal = entries[paddle] - background;
+		if (signal <= 0.0) {
+			return period;
+		}
+		double r = Math.min(1.0, Math.sqrt(sumCos[paddle] * sumCos[paddle] + sumSin[paddle] * sumSin[paddle]) / signal);
+		if (r <= 0.0) {
+			return period;
+		}
+		return Math.sqrt(-2.0 * Math.log(r)) * period / (2.0 * Math.PI);
+	}
+
+	// Number of background entries for a paddle, from the bins of its histogram furthest from the mean
+	// the sideband level is taken for the whole period, which holds for a flat or linear background
+	public double getBackground(int paddle, H1F hist) {
+		if (hist == null || entries[paddle] == 0) {
+			return 0.0;
+		}
+		double mean = getMean(paddle);
+		double sideSum = 0.0;
+		int nSide = 0;
+		int nPeriod = 0;
+		for (int i = 0; i < hist.getAxis().getNBins(); i++) {
+			double x = hist.getAxis().getBinCenter(i);
+			if (x < -0.5 * period || x >= 0.5 * period) {
+				continue;
+			}
+			nPeriod++;
+			double d = x - mean;
+			d -= period * Math.round(d / period);
+			if (Math.abs(d) >= SIDEBAND * period) {
+				sideSum += hist.getBinContent(i);
+				nSide++;
+			}
+		}
+		if (nSide == 0) {
+			return 0.0;
+		}
+		return Math.min(entries[paddle], sideSum * nPeriod / nSide);
+	}
+
+	public void reset() {
+		for (int i = 0; i < entries.length; i++) {
+			sumCos[i] = 0.0;
+			sumSin[i] = 0.0;
+			entries[i] = 0;
+		}
+	}
+
+	// Add the sums of another set with the same period
+	public void add(TOFCircularStats other) {
+		for (int i = 0; i < entries.length && i < other.entries.length; i++) {
+			sumCos[i] += other.sumCos[i];
+			sumSin[i] += other.sumSin[i];
+			entries[i] += other.entries[i];
+		}
+	}
+
+	public void write(DataOutputStream out) throws IOException {
+		out.writeDouble(period);
+		out.writeInt(entries.length);
+		for (int i = 0; i < entries.length; i++) {
+			out.writeDouble(sumCos[i]);
+			out.writeDouble(sumSin[i]);
+			out.writeInt(entries[i]);
+		}
+	}
+
+	// Add the sums written by write, the phases are only the same for the same period
+	public void read(DataInputStream in) throws IOException {
+		double filePeriod = in.readDouble();
+		if (filePeriod != period) {
+			throw new IOException("circular statistics for period " + filePeriod + ", expected " + period);
+		}
+		int n = in.readInt();
+		for (int i = 0; i < n; i++) {
+			double c = in.readDouble();
+			double s = in.readDouble();
+			int e = in.readInt();
+			if (i < entries.length) {
+				sumCos[i] += c;
+				sumSin[i] += s;
+				entries[i] += e;
+			}
+		}
+	}
+}
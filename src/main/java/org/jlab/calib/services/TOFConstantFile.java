@@ -0,0 +1,365 @@
+package org.jlab.calib.services;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.jlab.detector.calib.utils.CalibrationConstants;
+import org.jlab.detector.calib.utils.DatabaseConstantProvider;
+
+/**
+ * Source of the CCDB tables read by the calibration
+ *
+ * By default the tables are read from the database. If a snapshot file is set
+ * (-ccdbSnapshot in the batch runners or -Dtof.ccdbSnapshot=file) they are read from
+ * the file instead, so jobs can run without a database connection.
+ *
+ * The snapshot is written by the main method of this class, e.g.
+ * TOFConstantFile 4013-4078 ccdb_snapshot.txt
+ * A table is only written for a run when it differs from the previous run written,
+ * and a request for a run uses the latest entry at or before that run.
+ * Only the exported runs are read from the file, other runs are read from the database
+ * as their tables may differ from those of the nearest exported run.
+ */
+public class TOFConstantFile {
+
+	public static String snapshotFile = System.getProperty("tof.ccdbSnapshot");
+
+	public final static String[] CALIB_TABLES = {
+			"/calibration/ftof/time_jitter",
+			"/calibration/ftof/gain_balance",
+			"/calibration/ftof/effective_velocity",
+			"/calibration/ftof/tdc_conv",
+			"/calibration/ftof/time_offsets",
+			"/calibration/ftof/time_walk_exp",
+			"/calibration/ftof/time_walk_pos",
+			"/calibration/ctof/time_jitter",
+			"/calibration/ctof/effective_velocity",
+			"/calibration/ctof/tdc_conv",
+			"/calibration/ctof/time_offsets",
+			"/calibration/ctof/hpos",
+			"/calibration/ctof/hposbin",
+			"/geometry/ctof/ctof" };
+
+	// geometry tables without sector, layer, component index
+	public final static String[] GEOMETRY_COLUMNS = {
+			"/geometry/ftof/panel1a/paddles/Length",
+			"/geometry/ftof/panel1b/paddles/Length",
+			"/geometry/ftof/panel2/paddles/Length" };
+
+	// contents of the snapshot file
+	// table name -> run -> column names and rows
+	private static Map<String, TreeMap<Integer, String[]>> fileColumns = null;
+	private static Map<String, TreeMap<Integer, List<double[]>>> fileRows = null;
+	private static Set<Integer> fileRuns = null;
+
+	private Map<String, CalibrationConstants> constants = new HashMap<String, CalibrationConstants>();
+	private Map<String, double[]> columns = new HashMap<String, double[]>();
+
+	// Read the given tables for a run, using a single connection if from the database
+	public static TOFConstantFile read(int run, String[] tables, String[] geometryColumns) {
+
+		TOFConstantFile consts = new TOFConstantFile();
+		if (tables == null) {
+			tables = new String[0];
+		}
+		if (geometryColumns == null) {
+			geometryColumns = new String[0];
+		}
+
+		List<String> dbTables = new ArrayList<String>();
+		List<String> dbColumns = new ArrayList<String>();
+		if (snapshotFile != null) {
+			for (String table : tables) {
+				CalibrationConstants c = constantsFromFile(run, table);
+				if (c != null) {
+					consts.constants.put(table, c);
+				}
+				else {
+					dbTables.add(table);
+				}
+			}
+			for (String column : geometryColumns) {
+				double[] v = columnFromFile(run, column);
+				if (v != null) {
+					consts.columns.put(column, v);
+				}
+				else {
+					dbColumns.add(column);
+				}
+			}
+		}
+		else {
+			for (String table : tables) {
+				dbTables.add(table);
+			}
+			for (String column : geometryColumns) {
+				dbColumns.add(column);
+			}
+		}
+
+		if (!dbTables.isEmpty() || !dbColumns.isEmpty()) {
+			DatabaseConstantProvider dcp = new DatabaseConstantProvider(run, "default");
+			for (String table : dbTables) {
+				consts.constants.put(table, dcp.readConstants(table));
+			}
+			for (String column : dbColumns) {
+				consts.columns.put(column, readColumn(dcp, column));
+			}
+			dcp.disconnect();
+		}
+		return consts;
+	}
+
+	public static CalibrationConstants readConstants(int run, String table) {
+		return read(run, new String[] {table}, null).getConstants(table);
+	}
+
+	public CalibrationConstants getConstants(String table) {
+		return constants.get(table);
+	}
+
+	public double[] getColumn(String column) {
+		return columns.get(column);
+	}
+
+	private static double[] readColumn(DatabaseConstantProvider dcp, String column) {
+		dcp.loadTable(column.substring(0, column.lastIndexOf("/")));
+		double[] values = new double[dcp.length(column)];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = dcp.getDouble(column, i);
+		}
+		return values;
+	}
+
+	private static CalibrationConstants constantsFromFile(int run, String table) {
+
+		if (!inFile(run, table)) {
+			return null;
+		}
+		int fileRun = fileRows.get(table).floorKey(run);
+		String[] names = fileColumns.get(table).get(fileRun);
+
+		String format = "";
+		for (int j = 0; j < names.length; j++) {
+			format = format + names[j] + "/F";
+			if (j < names.length - 1) {
+				format = format + ":";
+			}
+		}
+		CalibrationConstants c = new CalibrationConstants(3, format);
+		for (double[] row : fileRows.get(table).get(fileRun)) {
+			int sector = (int) row[0];
+			int layer = (int) row[1];
+			int component = (int) row[2];
+			c.addEntry(sector, layer, component);
+			for (int j = 0; j < names.length; j++) {
+				c.setDoubleValue(row[j + 3], names[j], sector, layer, component);
+			}
+		}
+		return c;
+	}
+
+	private static double[] columnFromFile(int run, String column) {
+
+		if (!inFile(run, column)) {
+			return null;
+		}
+		List<double[]> rows = fileRows.get(column).get(fileRows.get(column).floorKey(run));
+		double[] values = new double[rows.size()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = rows.get(i)[0];
+		}
+		return values;
+	}
+
+	private static boolean inFile(int run, String table) {
+
+		loadFile();
+		if (!fileRuns.contains(run)) {
+			System.out.println("Run " + run + " was not exported to " + snapshotFile + ", reading " + table + " from database");
+			return false;
+		}
+		if (!fileRows.containsKey(table) || fileRows.get(table).floorKey(run) == null) {
+			System.out.println(table + " for run " + run + " not in " + snapshotFile + ", reading database");
+			return false;
+		}
+		return true;
+	}
+
+	// File format
+	// run <run> for each run exported, then the tables that changed for that run
+	// constants <run> <table> <column names>     or     column <run> <geometry column>
+	// followed by one line per row (sector layer component values) and a line "end"
+	private static synchronized void loadFile() {
+
+		if (fileRows != null) {
+			return;
+		}
+		fileColumns = new HashMap<String, TreeMap<Integer, String[]>>();
+		fileRows = new HashMap<String, TreeMap<Integer, List<double[]>>>();
+		fileRuns = new HashSet<Integer>();
+
+		try {
+			BufferedReader bufferedReader = new BufferedReader(new FileReader(snapshotFile));
+			String line = bufferedReader.readLine();
+			while (line != null) {
+
+				String[] header = line.trim().split(" ");
+				if (header[0].equals("run")) {
+					fileRuns.add(Integer.parseInt(header[1]));
+				}
+				else if (header[0].equals("constants") || header[0].equals("column")) {
+
+					int run = Integer.parseInt(header[1]);
+					String table = header[2];
+					String[] names = new String[header.length - 3];
+					System.arraycopy(header, 3, names, 0, names.length);
+
+					List<double[]> rows = new ArrayList<double[]>();
+					line = bufferedReader.readLine();
+					while (line != null && !line.trim().equals("end")) {
+						String[] lineValues = line.trim().split(" ");
+						double[] row = new double[lineValues.length];
+						for (int j = 0; j < row.length; j++) {
+							row[j] = Double.parseDouble(lineValues[j]);
+						}
+						rows.add(row);
+						line = bufferedReader.readLine();
+					}
+
+					if (!fileRows.containsKey(table)) {
+						fileRows.put(table, new TreeMap<Integer, List<double[]>>());
+						fileColumns.put(table, new TreeMap<Integer, String[]>());
+					}
+					fileRows.get(table).put(run, rows);
+					fileColumns.get(table).put(run, names);
+				}
+				line = bufferedReader.readLine();
+			}
+			bufferedReader.close();
+			System.out.println("CCDB snapshot read from " + snapshotFile);
+		}
+		catch (FileNotFoundException ex) {
+			System.out.println("Unable to open file '" + snapshotFile + "'");
+		}
+		catch (IOException ex) {
+			System.out.println("Error reading file '" + snapshotFile + "'");
+			ex.printStackTrace();
+		}
+	}
+
+	// Write the tables for each run to the snapshot file
+	public static void export(List<Integer> runs, String filename) {
+
+		Map<String, String> lastWritten = new HashMap<String, String>();
+
+		try {
+			BufferedWriter outputBw = new BufferedWriter(new FileWriter(new File(filename).getAbsoluteFile()));
+			outputBw.write("# TOF CCDB snapshot");
+			outputBw.newLine();
+
+			for (int run : runs) {
+				System.out.println("Exporting run " + run);
+				DatabaseConstantProvider dcp = new DatabaseConstantProvider(run, "default");
+				outputBw.write("run " + run);
+				outputBw.newLine();
+
+				for (String table : CALIB_TABLES) {
+					try {
+						CalibrationConstants c = dcp.readConstants(table);
+						String names = "";
+						for (int j = 3; j < c.getColumnCount(); j++) {
+							names = names + " " + c.getColumnName(j);
+						}
+						StringBuilder rows = new StringBuilder();
+						for (int i = 0; i < c.getRowCount(); i++) {
+							int sector = Integer.parseInt(String.valueOf(c.getValueAt(i, 0)).trim());
+							int layer = Integer.parseInt(String.valueOf(c.getValueAt(i, 1)).trim());
+							int component = Integer.parseInt(String.valueOf(c.getValueAt(i, 2)).trim());
+							rows.append(sector + " " + layer + " " + component);
+							for (int j = 3; j < c.getColumnCount(); j++) {
+								rows.append(" " + c.getDoubleValue(c.getColumnName(j), sector, layer, component));
+							}
+							rows.append("\n");
+						}
+						writeTable(outputBw, lastWritten, "constants", run, table, names, rows.toString());
+					}
+					catch (Exception e) {
+						System.out.println("Unable to read " + table + " for run " + run);
+					}
+				}
+
+				for (String column : GEOMETRY_COLUMNS) {
+					try {
+						StringBuilder rows = new StringBuilder();
+						for (double v : readColumn(dcp, column)) {
+							rows.append(v + "\n");
+						}
+						writeTable(outputBw, lastWritten, "column", run, column, "", rows.toString());
+					}
+					catch (Exception e) {
+						System.out.println("Unable to read " + column + " for run " + run);
+					}
+				}
+				dcp.disconnect();
+			}
+			outputBw.close();
+			System.out.println("CCDB snapshot written to " + filename);
+		}
+		catch (IOException ex) {
+			System.out.println("Error writing file '" + filename + "'");
+			ex.printStackTrace();
+		}
+	}
+
+	// only write the table when it has changed since the last run written
+	private static void writeTable(BufferedWriter outputBw, Map<String, String> lastWritten,
+			String type, int run, String table, String names, String rows) throws IOException {
+
+		String contents = names + "\n" + rows;
+		if (contents.equals(lastWritten.get(table))) {
+			return;
+		}
+		lastWritten.put(table, contents);
+		outputBw.write(type + " " + run + " " + table + names);
+		outputBw.newLine();
+		outputBw.write(rows);
+		outputBw.write("end");
+		outputBw.newLine();
+	}
+
+	public static void main(String[] args) {
+
+		if (args.length != 2) {
+			System.out.println("Usage: TOFConstantFile <run>|<first>-<last>|<run1>,<run2>,... <output file>");
+			System.exit(1);
+		}
+
+		List<Integer> runs = new ArrayList<Integer>();
+		for (String part : args[0].split(",")) {
+			if (part.contains("-")) {
+				int first = Integer.parseInt(part.split("-")[0]);
+				int last = Integer.parseInt(part.split("-")[1]);
+				for (int run = first; run <= last; run++) {
+					runs.add(run);
+				}
+			}
+			else {
+				runs.add(Integer.parseInt(part));
+			}
+		}
+		export(runs, args[1]);
+	}
+}
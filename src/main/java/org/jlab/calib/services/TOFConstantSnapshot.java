@@ -0,0 +1,181 @@
+package org.jlab.calib.services;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jlab.calib.services.ctof.CTOFCalibrationEngine;
+import org.jlab.detector.calib.utils.CalibrationConstants;
+
+/**
+ * Constants used by TOFPaddle for every hit, read once per run into arrays indexed by paddle number
+ *
+ * Built from the run dependent tables (paddle lengths and jitter) for the run
+ * and the previous calibration values of the engines.
+ * There is one snapshot per run, so hits from different runs can be processed at the same time.
+ * A snapshot is never changed once built, so can be shared by all event processing threads.
+ * invalidate() must be called when the previous calibration values change.
+ */
+public class TOFConstantSnapshot {
+
+	// FTOF paddle numbers are 1-540, CTOF uses the component 1-48
+	// index 0 is kept for hits outside the range and holds zeros
+	public final static int MAX_PADDLES = 541;
+	private final static int[] PADDLE_OFFSET = { 0, 0, 23, 85 };
+
+	private static final Map<Integer, TOFConstantSnapshot> snapshots = new ConcurrentHashMap<Integer, TOFConstantSnapshot>();
+
+	public final int run;
+	public final String tof;
+
+	public final double[] length = new double[MAX_PADDLES];
+	public final double jitterPeriod;
+	public final int jitterPhase;
+	public final int jitterCycles;
+
+	public final double[] mips = new double[MAX_PADDLES];
+	public final double[] veff = new double[MAX_PADDLES];
+	public final double[] tdcConvL = new double[MAX_PADDLES];
+	public final double[] tdcConvR = new double[MAX_PADDLES];
+	public final double[] rfpad = new double[MAX_PADDLES];
+	public final double[] tw1 = new double[MAX_PADDLES];
+	public final double[] tw2 = new double[MAX_PADDLES];
+	public final double[] tw3 = new double[MAX_PADDLES];
+	public final double[] lamL = new double[MAX_PADDLES];
+	public final double[] lamR = new double[MAX_PADDLES];
+	public final double[] tw1pos = new double[MAX_PADDLES];
+	public final double[] tw2pos = new double[MAX_PADDLES];
+	public final double[] p2p = new double[MAX_PADDLES];
+	public final double[] leftRight = new double[MAX_PADDLES];
+	public final double[] hposA = new double[MAX_PADDLES];
+	public final double[] hposB = new double[MAX_PADDLES];
+	public final double[] hposC = new double[MAX_PADDLES];
+	public final Double[][] hposBin = new Double[MAX_PADDLES][];
+
+	private TOFConstantSnapshot(int run) {
+
+		this.run = run;
+		this.tof = TOFPaddle.tof;
+
+		// from the database or the local snapshot file
+		// run 0 has no run tables so its lengths and jitter are zero
+		CalibrationConstants jit = null;
+		CalibrationConstants lgt = null;
+		double[][] ftofLengths = null;
+		if (run != 0 && tof == "FTOF") {
+			TOFConstantFile runConsts = TOFConstantFile.read(run,
+					new String[] {"/calibration/ftof/time_jitter"}, TOFConstantFile.GEOMETRY_COLUMNS);
+			jit = runConsts.getConstants("/calibration/ftof/time_jitter");
+			ftofLengths = new double[3][];
+			for (int i = 0; i < 3; i++) {
+				ftofLengths[i] = runConsts.getColumn(TOFConstantFile.GEOMETRY_COLUMNS[i]);
+			}
+		}
+		else if (run != 0) {
+			TOFConstantFile runConsts = TOFConstantFile.read(run,
+					new String[] {"/calibration/ctof/time_jitter", "/geometry/ctof/ctof"}, null);
+			jit = runConsts.getConstants("/calibration/ctof/time_jitter");
+			lgt = runConsts.getConstants("/geometry/ctof/ctof");
+		}
+
+		if (jit != null) {
+			jitterPeriod = jit.getDoubleValue("period", 0,0,0);
+			jitterPhase = jit.getIntValue("phase", 0,0,0);
+			jitterCycles = jit.getIntValue("cycles", 0,0,0);
+		}
+		else {
+			jitterPeriod = 0.0;
+			jitterPhase = 0;
+			jitterCycles = 0;
+		}
+
+		if (tof == "FTOF") {
+			for (int sector = 1; sector <= 6; sector++) {
+				for (int layer = 1; layer <= 3; layer++) {
+					for (int component = 1; component <= TOFCalibrationEngine.NUM_PADDLES[layer-1]; component++) {
+						readFTOF(sector, layer, component, ftofLengths);
+					}
+				}
+			}
+		}
+		else {
+			for (int component = 1; component <= CTOFCalibrationEngine.NUM_PADDLES[0]; component++) {
+				readCTOF(component, lgt);
+			}
+		}
+	}
+
+	private void readFTOF(int sector, int layer, int component, double[][] ftofLengths) {
+
+		int i = index(sector, layer, component);
+
+		if (ftofLengths != null && ftofLengths[layer-1] != null && component <= ftofLengths[layer-1].length) {
+			length[i] = ftofLengths[layer-1][component-1];
+		}
+		mips[i] = TOFCalibrationEngine.gainValues.getDoubleValue("mipa_left", sector, layer, component);
+		veff[i] = TOFCalibrationEngine.veffValues.getDoubleValue("veff_left", sector, layer, component);
+		tdcConvL[i] = TOFCalibrationEngine.convValues.getDoubleValue("left", sector, layer, component);
+		tdcConvR[i] = TOFCalibrationEngine.convValues.getDoubleValue("right", sector, layer, component);
+		rfpad[i] = TOFCalibrationEngine.rfpadValues.getDoubleValue("rfpad", sector, layer, component);
+		tw1[i] = TOFCalibrationEngine.timeWalkValues.getDoubleValue("tw1", sector, layer, component);
+		tw2[i] = TOFCalibrationEngine.timeWalkValues.getDoubleValue("tw2", sector, layer, component);
+		tw3[i] = TOFCalibrationEngine.timeWalkValues.getDoubleValue("tw3", sector, layer, component);
+		lamL[i] = TOFCalibrationEngine.timeWalkValues.getDoubleValue("tw0_left", sector, layer, component);
+		lamR[i] = TOFCalibrationEngine.timeWalkValues.getDoubleValue("tw0_right", sector, layer, component);
+		tw1pos[i] = TOFCalibrationEngine.twposValues.getDoubleValue("tw1pos", sector, layer, component);
+		tw2pos[i] = TOFCalibrationEngine.twposValues.getDoubleValue("tw2pos", sector, layer, component);
+		p2p[i] = TOFCalibrationEngine.p2pValues.getDoubleValue("paddle2paddle", sector, layer, component);
+		leftRight[i] = TOFCalibrationEngine.leftRightValues.getDoubleValue("left_right", sector, layer, component);
+	}
+
+	private void readCTOF(int component, CalibrationConstants lgt) {
+
+		int i = index(1, 1, component);
+
+		if (lgt != null) {
+			length[i] = lgt.getDoubleValue("length", 1, 1, component);
+		}
+		veff[i] = CTOFCalibrationEngine.veffValues.getDoubleValue("veff_upstream", 1, 1, component);
+		tdcConvL[i] = CTOFCalibrationEngine.convValues.getDoubleValue("upstream", 1, 1, component);
+		tdcConvR[i] = CTOFCalibrationEngine.convValues.getDoubleValue("downstream", 1, 1, component);
+		rfpad[i] = CTOFCalibrationEngine.rfpadValues.getDoubleValue("rfpad", 1, 1, component);
+		p2p[i] = CTOFCalibrationEngine.p2pValues.getDoubleValue("paddle2paddle", 1, 1, component);
+		leftRight[i] = CTOFCalibrationEngine.leftRightValues.getDoubleValue("upstream_downstream", 1, 1, component);
+		hposA[i] = CTOFCalibrationEngine.hposFuncValues.getDoubleValue("hposa", 1, 1, component);
+		hposB[i] = CTOFCalibrationEngine.hposFuncValues.getDoubleValue("hposb", 1, 1, component);
+		hposC[i] = CTOFCalibrationEngine.hposFuncValues.getDoubleValue("hposc", 1, 1, component);
+		hposBin[i] = CTOFCalibrationEngine.hposBinValues.getItem(1, 1, component);
+	}
+
+	public static int index(int sector, int layer, int component) {
+		if (sector < 1 || sector > 6 || layer < 1 || layer > 3) {
+			return 0;
+		}
+		int p = component + (sector - 1) * 90 + PADDLE_OFFSET[layer];
+		return (p > 0 && p < MAX_PADDLES) ? p : 0;
+	}
+
+	// Snapshot for the run, built the first time a hit from the run is seen
+	public static TOFConstantSnapshot get(int run) {
+		TOFConstantSnapshot snapshot = snapshots.get(run);
+		if (snapshot == null || snapshot.tof != TOFPaddle.tof) {
+			snapshot = build(run);
+		}
+		return snapshot;
+	}
+
+	// only one thread builds each snapshot, the others wait for it
+	private static synchronized TOFConstantSnapshot build(int run) {
+		TOFConstantSnapshot snapshot = snapshots.get(run);
+		if (snapshot == null || snapshot.tof != TOFPaddle.tof) {
+			snapshot = new TOFConstantSnapshot(run);
+			snapshots.put(run, snapshot);
+		}
+		return snapshot;
+	}
+
+	// Called when the previous calibration values have changed
+	// the snapshots are rebuilt for each run as its hits are seen
+	public static void invalidate() {
+		snapshots.clear();
+	}
+}
@@ -0,0 +1,115 @@
+package org.jlab.calib.services;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Hit counts for each ADC and TDC channel, used for the counter status file
+ *
+ * One counter per paddle and order (0 ADC left, 1 ADC right, 2 TDC left, 3 TDC right),
+ * indexed by paddle number as in TOFConstantSnapshot.
+ * The counters are atomic so can be updated by all event processing threads without locking.
+ */
+public class TOFCounterStatus {
+
+	public static final int ADC_LEFT = 0;
+	public static final int ADC_RIGHT = 1;
+	public static final int TDC_LEFT = 2;
+	public static final int TDC_RIGHT = 3;
+
+	// channels with fewer hits than this fraction of the median for their order
+	// are given the same status as channels with no hits, 0.0 to only flag empty channels
+	public static double lowRateFraction = 0.0;
+
+	private final AtomicIntegerArray[] hits = new AtomicIntegerArray[4];
+	private final int[] minHits = new int[4];
+
+	public TOFCounterStatus() {
+		for (int order = 0; order < 4; order++) {
+			hits[order] = new AtomicIntegerArray(TOFConstantSnapshot.MAX_PADDLES);
+		}
+		Arrays.fill(minHits, 1);
+	}
+
+	public void reset() {
+		for (int order = 0; order < 4; order++) {
+			for (int i = 0; i < hits[order].length(); i++) {
+				hits[order].set(i, 0);
+			}
+			minHits[order] = 1;
+		}
+	}
+
+	public void hit(int order, int sector, int layer, int component) {
+		int i = TOFConstantSnapshot.index(sector, layer, component);
+		if (i != 0 && order >= 0 && order < 4) {
+			hits[order].incrementAndGet(i);
+		}
+	}
+
+	public void write(DataOutputStream out) throws IOException {
+		out.writeInt(hits[0].length());
+		for (int order = 0; order < 4; order++) {
+			for (int i = 0; i < hits[order].length(); i++) {
+				out.writeInt(hits[order].get(i));
+			}
+		}
+	}
+
+	// Add the hit counts written by write
+	public void read(DataInputStream in) throws IOException {
+		int n = in.readInt();
+		for (int order = 0; order < 4; order++) {
+			for (int i = 0; i < n; i++) {
+				int count = in.readInt();
+				if (i < hits[order].length()) {
+					hits[order].addAndGet(i, count);
+				}
+			}
+		}
+	}
+
+	public int getHits(int order, int sector, int layer, int component) {
+		return hits[order].get(TOFConstantSnapshot.index(sector, layer, component));
+	}
+
+	// Set the minimum number of hits for a good channel, called once before getStatus
+	public void setThresholds() {
+		for (int order = 0; order < 4; order++) {
+			minHits[order] = 1;
+			if (lowRateFraction <= 0.0) {
+				continue;
+			}
+			int[] counts = new int[hits[order].length()];
+			int n = 0;
+			for (int i = 1; i < counts.length; i++) {
+				if (hits[order].get(i) > 0) {
+					counts[n++] = hits[order].get(i);
+				}
+			}
+			if (n > 0) {
+				Arrays.sort(counts, 0, n);
+				minHits[order] = Math.max(1, (int) Math.ceil(lowRateFraction * counts[n / 2]));
+			}
+		}
+	}
+
+	public boolean isGood(int order, int sector, int layer, int component) {
+		return getHits(order, sector, layer, component) >= minHits[order];
+	}
+
+	// Status for one side, 0 ok, 1 no ADC, 2 no TDC, 3 no ADC and no TDC
+	public int getStatus(int adcOrder, int tdcOrder, int sector, int layer, int component) {
+		int status = 0;
+		if (!isGood(adcOrder, sector, layer, component)) {
+			status += 1;
+		}
+		if (!isGood(tdcOrder, sector, layer, component)) {
+			status += 2;
+		}
+		return status;
+	}
+}
@@ -0,0 +1,89 @@
+package org.jlab.calib.services;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.jlab.io.base.DataBank;
+import org.jlab.io.base.DataEvent;
+
+/**
+ * Banks of the current event for the DataProvider classes
+ *
+ * Each getBank on the event unpacks the bank from the event buffer again, and each hasBank
+ * scans the event, so a bank read for every hit was unpacked once per hit.
+ * Here each bank is looked up and unpacked at most once per event, and only when first asked for,
+ * so banks not needed for the event (e.g. REC banks of a rejected event) are never unpacked.
+ * The optional banks are only read if one of the enabled steps needs them, see setRequiredBanks.
+ * One set per thread, reused for each event.
+ */
+public class TOFEventBanks {
+
+	private static final ThreadLocal<TOFEventBanks> eventBanks = new ThreadLocal<TOFEventBanks>() {
+		@Override
+		protected TOFEventBanks initialValue() {
+			return new TOFEventBanks();
+		}
+	};
+
+	// banks only some of the steps need, the REC particle banks give the particle id for goodTrackFound
+	public final static String[] OPTIONAL_BANKS = { "REC::Particle", "REC::Track", "REC::Scintillator" };
+	private static volatile Set<String> skippedBanks = Collections.emptySet();
+
+	private DataEvent event = null;
+	private Map<String, DataBank> banks = new HashMap<String, DataBank>();
+	private Map<String, Boolean> present = new HashMap<String, Boolean>();
+
+	public static TOFEventBanks get() {
+		return eventBanks.get();
+	}
+
+	// Skip the optional banks not in the list, built from the enabled steps
+	// all banks are read until this is called
+	public static void setRequiredBanks(Collection<String> required) {
+		Set<String> skipped = new HashSet<String>(Arrays.asList(OPTIONAL_BANKS));
+		skipped.removeAll(required);
+		if (!skipped.isEmpty()) {
+			TOFLog.info("Banks not needed by the selected steps are skipped: " + skipped);
+		}
+		skippedBanks = skipped;
+	}
+
+	// Start a new event, the banks of the previous event are dropped
+	public TOFEventBanks newEvent(DataEvent event) {
+		this.event = event;
+		banks.clear();
+		present.clear();
+		return this;
+	}
+
+	// End the event, so it is not held until the next one
+	public void endEvent() {
+		event = null;
+		banks.clear();
+		present.clear();
+	}
+
+	public boolean hasBank(String name) {
+		Boolean has = present.get(name);
+		if (has == null) {
+			has = !skippedBanks.contains(name) && event.hasBank(name);
+			present.put(name, has);
+		}
+		return has;
+	}
+
+	// null if the bank is not in the event
+	public DataBank getBank(String name) {
+		DataBank bank = banks.get(name);
+		if (bank == null && hasBank(name)) {
+			bank = event.getBank(name);
+			banks.put(name, bank);
+		}
+		return bank;
+	}
+}
@@ -0,0 +1,475 @@
+package org.jlab.calib.services;
+
+import org.jlab.groot.data.GraphErrors;
+import org.jlab.groot.data.H1F;
+import org.jlab.groot.fitter.DataFitter;
+import org.jlab.groot.math.F1D;
+
+/**
+ * Direct fits for the simple functions used by several steps
+ *
+ * Polynomials [p0]+[p1]*x+... are fitted to graphs by weighted least squares, solved in one step.
+ * Gaussian peaks [amp]*gaus(x,[mean],[sigma]) are fitted to histogram bins by a few
+ * damped Gauss-Newton iterations starting from the parameters already set in the function.
+ * Peaks on a background, e.g. a gaussian plus polynomial, are fitted the same way (Levenberg-Marquardt)
+ * with the derivatives of the function taken numerically, so any function with the peak
+ * position as parameter 1 can be fitted.
+ * The parameter errors are set from the inverse of the (undamped) normal matrix at the result,
+ * the covariance matrix DataFitter gives for the same chi2.
+ * If the result is not usable (too few points, outside the limits given, no convergence,
+ * singular covariance) the function is fitted with DataFitter as before.
+ */
+public class TOFFastFitter {
+
+	// false to always use DataFitter
+	public static boolean enabled = true;
+
+	private static final int MAX_ITERATIONS = 50;
+
+	// Fit a polynomial with one parameter per order to the graph points between xmin and xmax
+	// parMin and parMax are the allowed parameter ranges, null for no limits
+	public static void fitPoly(F1D func, GraphErrors graph, double xmin, double xmax,
+			double[] parMin, double[] parMax, String option) {
+
+		if (!enabled || !polyLeastSquares(func, graph, xmin, xmax, parMin, parMax)) {
+			DataFitter.fit(func, graph, option);
+		}
+	}
+
+	public static void fitPoly(F1D func, GraphErrors graph, double xmin, double xmax, String option) {
+		fitPoly(func, graph, xmin, xmax, null, null, option);
+	}
+
+	// Fit a gaussian to the histogram bins between xmin and xmax
+	// the amplitude must be between ampMin and ampMax
+	public static void fitGaus(F1D func, H1F hist, double xmin, double xmax,
+			double ampMin, double ampMax, String option) {
+
+		if (!enabled || !gausLeastSquares(func, hist, xmin, xmax, ampMin, ampMax)) {
+			DataFitter.fit(func, hist, option);
+		}
+	}
+
+	// Fit a peak with a background to the histogram bins between xmin and xmax
+	// e.g. [amp]*gaus(x,[mean],[sigma])+[b]*x+[c] or [amp]*landau(x,[mean],[sigma])+[exp_amp]*exp([p]*x)
+	// parMin and parMax are the allowed parameter ranges, null or shorter than the parameters for no limits
+	// the fitted peak position, parameter 1, must be between xmin and xmax
+	public static void fitPeak(F1D func, H1F hist, double xmin, double xmax,
+			double[] parMin, double[] parMax, String option) {
+
+		if (!enabled || !peakLeastSquares(func, hist, xmin, xmax, parMin, parMax)) {
+			DataFitter.fit(func, hist, option);
+		}
+	}
+
+	private static boolean polyLeastSquares(F1D func, GraphErrors graph, double xmin, double xmax,
+			double[] parMin, double[] parMax) {
+
+		int nPars = func.getNPars();
+		int nPoints = graph.getDataSize(0);
+
+		// weight by the y errors unless any is zero, as for a profile with single entries
+		boolean weighted = true;
+		int nUsed = 0;
+		for (int i = 0; i < nPoints; i++) {
+			double x = graph.getDataX(i);
+			if (x >= xmin && x <= xmax) {
+				nUsed++;
+				if (graph.getDataEY(i) <= 0.0) {
+					weighted = false;
+				}
+			}
+		}
+		if (nUsed <= nPars) {
+			return false;
+		}
+
+		double[][] m = new double[nPars][nPars];
+		double[] v = new double[nPars];
+		double[] pow = new double[2 * nPars];
+		for (int i = 0; i < nPoints; i++) {
+			double x = graph.getDataX(i);
+			if (x < xmin || x > xmax) {
+				continue;
+			}
+			double y = graph.getDataY(i);
+			double ey = graph.getDataEY(i);
+			double w = weighted ? 1.0 / (ey * ey) : 1.0;
+			pow[0] = 1.0;
+			for (int k = 1; k < pow.length; k++) {
+				pow[k] = pow[k - 1] * x;
+			}
+			for (int j = 0; j < nPars; j++) {
+				v[j] += w * y * pow[j];
+				for (int k = 0; k < nPars; k++) {
+					m[j][k] += w * pow[j + k];
+				}
+			}
+		}
+
+		double[] p = solve(m, v);
+		if (p == null || !withinLimits(p, parMin, parMax)) {
+			return false;
+		}
+		double[] errors = parErrors(m);
+		if (errors == null) {
+			return false;
+		}
+		setParameters(func, p);
+		setParErrors(func, errors);
+		func.setFitValid(true);
+		return true;
+	}
+
+	private static boolean gausLeastSquares(F1D func, H1F hist, double xmin, double xmax,
+			double ampMin, double ampMax) {
+
+		int nBins = hist.getAxis().getNBins();
+		int n = 0;
+		double[] x = new double[nBins];
+		double[] y = new double[nBins];
+		double[] w = new double[nBins];
+		for (int i = 0; i < nBins; i++) {
+			double xi = hist.getAxis().getBinCenter(i);
+			double yi = hist.getBinContent(i);
+			// empty bins are skipped, as for the chi2 of DataFitter
+			if (xi >= xmin && xi <= xmax && yi > 0.0) {
+				x[n] = xi;
+				y[n] = yi;
+				w[n] = 1.0 / yi;
+				n++;
+			}
+		}
+		if (n <= 3) {
+			return false;
+		}
+
+		double[] p = { func.getParameter(0), func.getParameter(1), Math.abs(func.getParameter(2)) };
+		if (p[2] <= 0.0) {
+			return false;
+		}
+		double chi2 = gausChi2(p, x, y, w, n);
+		double lambda = 0.001;
+		boolean converged = false;
+
+		for (int iter = 0; iter < MAX_ITERATIONS && !converged; iter++) {
+
+			double[][] m = new double[3][3];
+			double[] v = new double[3];
+			gausNormal(p, x, y, w, n, m, v);
+
+			// damped step, the damping is reduced while the chi2 goes down
+			while (true) {
+				double[][] md = new double[3][3];
+				for (int j = 0; j < 3; j++) {
+					md[j] = m[j].clone();
+					md[j][j] *= 1.0 + lambda;
+				}
+				double[] step = solve(md, v);
+				if (step == null) {
+					return false;
+				}
+				double[] pNew = { p[0] + step[0], p[1] + step[1], Math.abs(p[2] + step[2]) };
+				double chi2New = pNew[2] > 0.0 ? gausChi2(pNew, x, y, w, n) : Double.POSITIVE_INFINITY;
+				if (chi2New <= chi2) {
+					converged = (chi2 - chi2New) <= 1.0e-8 * Math.max(1.0, chi2);
+					p = pNew;
+					chi2 = chi2New;
+					lambda = Math.max(lambda / 10.0, 1.0e-9);
+					break;
+				}
+				lambda *= 10.0;
+				if (lambda > 1.0e9) {
+					converged = true;
+					break;
+				}
+			}
+		}
+
+		if (!converged || Double.isNaN(chi2) || p[0] < ampMin || p[0] > ampMax
+				|| p[1] < xmin || p[1] > xmax) {
+			return false;
+		}
+		double[][] m = new double[3][3];
+		gausNormal(p, x, y, w, n, m, new double[3]);
+		double[] errors = parErrors(m);
+		if (errors == null) {
+			return false;
+		}
+		setParameters(func, p);
+		setParErrors(func, errors);
+		func.setFitValid(true);
+		return true;
+	}
+
+	// normal matrix m and gradient v of the gaussian chi2 at p
+	private static void gausNormal(double[] p, double[] x, double[] y, double[] w, int n,
+			double[][] m, double[] v) {
+
+		double[] d = new double[3];
+		for (int i = 0; i < n; i++) {
+			double dx = x[i] - p[1];
+			double e = Math.exp(-0.5 * dx * dx / (p[2] * p[2]));
+			double f = p[0] * e;
+			d[0] = e;
+			d[1] = f * dx / (p[2] * p[2]);
+			d[2] = f * dx * dx / (p[2] * p[2] * p[2]);
+			for (int j = 0; j < 3; j++) {
+				v[j] += w[i] * (y[i] - f) * d[j];
+				for (int k = 0; k < 3; k++) {
+					m[j][k] += w[i] * d[j] * d[k];
+				}
+			}
+		}
+	}
+
+	// the function parameters are only changed if the fit succeeds
+	private static boolean peakLeastSquares(F1D func, H1F hist, double xmin, double xmax,
+			double[] parMin, double[] parMax) {
+
+		int nPars = func.getNPars();
+		int nBins = hist.getAxis().getNBins();
+		int n = 0;
+		double[] x = new double[nBins];
+		double[] y = new double[nBins];
+		double[] w = new double[nBins];
+		for (int i = 0; i < nBins; i++) {
+			double xi = hist.getAxis().getBinCenter(i);
+			double yi = hist.getBinContent(i);
+			// empty bins are skipped, as for the chi2 of DataFitter
+			if (xi >= xmin && xi <= xmax && yi > 0.0) {
+				x[n] = xi;
+				y[n] = yi;
+				w[n] = 1.0 / yi;
+				n++;
+			}
+		}
+		if (n <= nPars) {
+			return false;
+		}
+
+		double[] start = new double[nPars];
+		for (int j = 0; j < nPars; j++) {
+			start[j] = func.getParameter(j);
+		}
+		double[] p = start.clone();
+		applyLimits(p, parMin, parMax);
+		setParameters(func, p);
+		double chi2 = funcChi2(func, x, y, w, n);
+		if (Double.isNaN(chi2) || Double.isInfinite(chi2)) {
+			setParameters(func, start);
+			return false;
+		}
+		double lambda = 0.001;
+		boolean converged = false;
+
+		for (int iter = 0; iter < MAX_ITERATIONS && !converged; iter++) {
+
+			double[][] m = new double[nPars][nPars];
+			double[] v = new double[nPars];
+			peakNormal(func, p, x, y, w, n, m, v);
+
+			// damped step, the damping is reduced while the chi2 goes down
+			while (true) {
+				double[][] md = new double[nPars][nPars];
+				for (int j = 0; j < nPars; j++) {
+					md[j] = m[j].clone();
+					md[j][j] = md[j][j] * (1.0 + lambda) + (md[j][j] == 0.0 ? lambda : 0.0);
+				}
+				double[] step = solve(md, v);
+				if (step == null) {
+					setParameters(func, start);
+					return false;
+				}
+				double[] pNew = new double[nPars];
+				for (int j = 0; j < nPars; j++) {
+					pNew[j] = p[j] + step[j];
+				}
+				applyLimits(pNew, parMin, parMax);
+				setParameters(func, pNew);
+				double chi2New = funcChi2(func, x, y, w, n);
+				if (chi2New <= chi2) {
+					converged = (chi2 - chi2New) <= 1.0e-8 * Math.max(1.0, chi2);
+					p = pNew;
+					chi2 = chi2New;
+					lambda = Math.max(lambda / 10.0, 1.0e-9);
+					break;
+				}
+				setParameters(func, p);
+				lambda *= 10.0;
+				if (lambda > 1.0e9) {
+					converged = true;
+					break;
+				}
+			}
+		}
+
+		if (!converged || Double.isNaN(chi2) || p[1] < xmin || p[1] > xmax) {
+			setParameters(func, start);
+			return false;
+		}
+		double[][] m = new double[nPars][nPars];
+		peakNormal(func, p, x, y, w, n, m, new double[nPars]);
+		double[] errors = parErrors(m);
+		if (errors == null) {
+			setParameters(func, start);
+			return false;
+		}
+		setParameters(func, p);
+		setParErrors(func, errors);
+		func.setFitValid(true);
+		return true;
+	}
+
+	// normal matrix m and gradient v of the chi2 at p, which must be set in the function
+	// central difference derivatives, with steps relative to each parameter
+	private static void peakNormal(F1D func, double[] p, double[] x, double[] y, double[] w, int n,
+			double[][] m, double[] v) {
+
+		int nPars = p.length;
+		double[] f = new double[n];
+		double[][] d = new double[n][nPars];
+		for (int i = 0; i < n; i++) {
+			f[i] = func.evaluate(x[i]);
+		}
+		for (int k = 0; k < nPars; k++) {
+			double h = 1.0e-5 * Math.max(Math.abs(p[k]), 1.0e-3);
+			func.setParameter(k, p[k] + h);
+			for (int i = 0; i < n; i++) {
+				d[i][k] = func.evaluate(x[i]);
+			}
+			func.setParameter(k, p[k] - h);
+			for (int i = 0; i < n; i++) {
+				d[i][k] = (d[i][k] - func.evaluate(x[i])) / (2.0 * h);
+			}
+			func.setParameter(k, p[k]);
+		}
+
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < nPars; j++) {
+				v[j] += w[i] * (y[i] - f[i]) * d[i][j];
+				for (int k = 0; k < nPars; k++) {
+					m[j][k] += w[i] * d[i][j] * d[i][k];
+				}
+			}
+		}
+	}
+
+	// square roots of the diagonal of the inverse of the normal matrix, null if it is singular
+	private static double[] parErrors(double[][] m) {
+
+		int nPars = m.length;
+		double[] errors = new double[nPars];
+		for (int j = 0; j < nPars; j++) {
+			double[] unit = new double[nPars];
+			unit[j] = 1.0;
+			double[] column = solve(m, unit);
+			if (column == null || !(column[j] > 0.0) || Double.isInfinite(column[j])) {
+				return null;
+			}
+			errors[j] = Math.sqrt(column[j]);
+		}
+		return errors;
+	}
+
+	private static void setParErrors(F1D func, double[] errors) {
+		for (int j = 0; j < errors.length; j++) {
+			func.setParError(j, errors[j]);
+		}
+	}
+
+	private static double funcChi2(F1D func, double[] x, double[] y, double[] w, int n) {
+		double chi2 = 0.0;
+		for (int i = 0; i < n; i++) {
+			double r = y[i] - func.evaluate(x[i]);
+			chi2 += w[i] * r * r;
+		}
+		return chi2;
+	}
+
+	private static void setParameters(F1D func, double[] p) {
+		for (int j = 0; j < p.length; j++) {
+			func.setParameter(j, p[j]);
+		}
+	}
+
+	// move the parameters back inside their limits
+	private static void applyLimits(double[] p, double[] parMin, double[] parMax) {
+		for (int j = 0; j < p.length; j++) {
+			if (parMin != null && j < parMin.length && p[j] < parMin[j]) {
+				p[j] = parMin[j];
+			}
+			if (parMax != null && j < parMax.length && p[j] > parMax[j]) {
+				p[j] = parMax[j];
+			}
+		}
+	}
+
+	private static double gausChi2(double[] p, double[] x, double[] y, double[] w, int n) {
+		double chi2 = 0.0;
+		for (int i = 0; i < n; i++) {
+			double dx = x[i] - p[1];
+			double r = y[i] - p[0] * Math.exp(-0.5 * dx * dx / (p[2] * p[2]));
+			chi2 += w[i] * r * r;
+		}
+		return chi2;
+	}
+
+	private static boolean withinLimits(double[] p, double[] parMin, double[] parMax) {
+		for (int j = 0; j < p.length; j++) {
+			if (Double.isNaN(p[j])
+					|| (parMin != null && j < parMin.length && p[j] < parMin[j])
+					|| (parMax != null && j < parMax.length && p[j] > parMax[j])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// Solve m.p = v by gaussian elimination with partial pivoting, null if singular
+	private static double[] solve(double[][] m, double[] v) {
+
+		int n = v.length;
+		double[][] a = new double[n][];
+		double[] b = v.clone();
+		for (int i = 0; i < n; i++) {
+			a[i] = m[i].clone();
+		}
+
+		for (int col = 0; col < n; col++) {
+			int pivot = col;
+			for (int row = col + 1; row < n; row++) {
+				if (Math.abs(a[row][col]) > Math.abs(a[pivot][col])) {
+					pivot = row;
+				}
+			}
+			if (Math.abs(a[pivot][col]) < 1.0e-300) {
+				return null;
+			}
+			double[] tmpRow = a[col];
+			a[col] = a[pivot];
+			a[pivot] = tmpRow;
+			double tmp = b[col];
+			b[col] = b[pivot];
+			b[pivot] = tmp;
+
+			for (int row = col + 1; row < n; row++) {
+				double f = a[row][col] / a[col][col];
+				for (int k = col; k < n; k++) {
+					a[row][k] -= f * a[col][k];
+				}
+				b[row] -= f * b[col];
+			}
+		}
+
+		double[] p = new double[n];
+		for (int row = n - 1; row >= 0; row--) {
+			double sum = b[row];
+			for (int k = row + 1; k < n; k++) {
+				sum -= a[row][k] * p[k];
+			}
+			p[row] = sum / a[row][row];
+		}
+		return p;
+	}
+}
@@ -0,0 +1,57 @@
+package org.jlab.calib.services;
+
+import org.jlab.groot.math.F1D;
+
+/**
+ * Converged fit parameters for each paddle, used as the starting values for the next fit
+ *
+ * A fit is seeded from the last good fit of the same paddle (e.g. from the previous timer update
+ * or iteration), and the step falls back to its usual starting values if the seeded fit fails.
+ * Each paddle has its own entry so the fits can run in parallel.
+ */
+public class TOFFitSeeds {
+
+	// use the seeds, false to always start from the histogram
+	public static boolean enabled = true;
+
+	private final double[][] params = new double[TOFConstantSnapshot.MAX_PADDLES][];
+
+	// Store the parameters of a fit, or remove the seed if the fit failed
+	public void put(int sector, int layer, int component, F1D func, boolean fitValid) {
+		int i = TOFConstantSnapshot.index(sector, layer, component);
+		if (!fitValid) {
+			params[i] = null;
+			return;
+		}
+		double[] p = new double[func.getNPars()];
+		for (int j = 0; j < p.length; j++) {
+			p[j] = func.getParameter(j);
+		}
+		params[i] = p;
+	}
+
+	public boolean has(int sector, int layer, int component) {
+		return enabled && params[TOFConstantSnapshot.index(sector, layer, component)] != null;
+	}
+
+	// Set the listed parameters from the seed, e.g. only the shape and not the amplitude
+	// returns false if there is no seed for the paddle
+	public boolean apply(F1D func, int sector, int layer, int component, int... pars) {
+		if (!has(sector, layer, component)) {
+			return false;
+		}
+		double[] p = params[TOFConstantSnapshot.index(sector, layer, component)];
+		for (int j : pars) {
+			if (j < p.length) {
+				func.setParameter(j, p[j]);
+			}
+		}
+		return true;
+	}
+
+	public void clear() {
+		for (int i = 0; i < params.length; i++) {
+			params[i] = null;
+		}
+	}
+}
@@ -0,0 +1,209 @@
+package org.jlab.calib.services;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jlab.groot.data.H2F;
+import org.jlab.groot.group.DataGroup;
+
+/**
+ * 2D histograms for every paddle kept as arrays of counts
+ *
+ * Each histogram type has one int array holding the bins of all paddles, indexed by
+ * paddle number (see TOFConstantSnapshot.index) and filled directly without any lookups.
+ * The y axis is the same for all paddles, the x axis range can be set per paddle.
+ * H2F objects are only created when a paddle is drawn.
+ *
+ * Only used by the check steps, whose histograms are drawn but never fitted.
+ * The fitted steps keep their H2F/H1F objects: the slice fits, DataFitter and the refits at each
+ * timer update all work on groot histograms, so every changed paddle would be converted back at
+ * every update, costing more than the counts save on the fills.
+ */
+public class TOFHistogramBank {
+
+	private final int nPaddles;
+	private final List<Hist2D> hists = new ArrayList<Hist2D>();
+
+	private static class Hist2D {
+		String name;
+		String titleX;
+		String titleY;
+		int nx;
+		int ny;
+		double ymin;
+		double ymax;
+		double[] xmin;
+		double[] xmax;
+		int[] counts;
+	}
+
+	public TOFHistogramBank(int nPaddles) {
+		this.nPaddles = nPaddles;
+	}
+
+	// add a histogram type, returns its number for fill
+	public int add2D(String name, String titleX, String titleY,
+			int nx, double xmin, double xmax, int ny, double ymin, double ymax) {
+
+		Hist2D h = new Hist2D();
+		h.name = name;
+		h.titleX = titleX;
+		h.titleY = titleY;
+		h.nx = nx;
+		h.ny = ny;
+		h.ymin = ymin;
+		h.ymax = ymax;
+		h.xmin = new double[nPaddles];
+		h.xmax = new double[nPaddles];
+		for (int p = 0; p < nPaddles; p++) {
+			h.xmin[p] = xmin;
+			h.xmax[p] = xmax;
+		}
+		h.counts = new int[nPaddles * nx * ny];
+		hists.add(h);
+		return hists.size() - 1;
+	}
+
+	public void setXRange(int hist, int paddle, double xmin, double xmax) {
+		hists.get(hist).xmin[paddle] = xmin;
+		hists.get(hist).xmax[paddle] = xmax;
+	}
+
+	// values outside the axes are not counted, as for H2F
+	public void fill(int hist, int paddle, double x, double y) {
+		if (paddle < 0 || paddle >= nPaddles) {
+			return;
+		}
+		Hist2D h = hists.get(hist);
+		double xmin = h.xmin[paddle];
+		double xmax = h.xmax[paddle];
+		if (x < xmin || x >= xmax || y < h.ymin || y >= h.ymax) {
+			return;
+		}
+		int ix = (int) ((x - xmin) * h.nx / (xmax - xmin));
+		int iy = (int) ((y - h.ymin) * h.ny / (h.ymax - h.ymin));
+		if (ix >= h.nx || iy >= h.ny) {
+			return;
+		}
+		h.counts[(paddle * h.nx + ix) * h.ny + iy]++;
+	}
+
+	public int getBinContent(int hist, int paddle, int ix, int iy) {
+		Hist2D h = hists.get(hist);
+		return h.counts[(paddle * h.nx + ix) * h.ny + iy];
+	}
+
+	public String getName(int hist) {
+		return hists.get(hist).name;
+	}
+
+	public int getNHists() {
+		return hists.size();
+	}
+
+	// H2F with the current contents for one paddle
+	public H2F getH2F(int hist, int paddle, String title) {
+		Hist2D h = hists.get(hist);
+		H2F h2 = new H2F(h.name, title,
+				h.nx, h.xmin[paddle], h.xmax[paddle],
+				h.ny, h.ymin, h.ymax);
+		h2.setTitleX(h.titleX);
+		h2.setTitleY(h.titleY);
+		int offset = paddle * h.nx * h.ny;
+		for (int ix = 0; ix < h.nx; ix++) {
+			for (int iy = 0; iy < h.ny; iy++) {
+				int n = h.counts[offset + ix * h.ny + iy];
+				if (n != 0) {
+					h2.setBinContent(ix, iy, n);
+				}
+			}
+		}
+		return h2;
+	}
+
+	// all histograms for one paddle, one per pad in the order they were added
+	public DataGroup getDataGroup(int paddle, String title, int columns, int rows) {
+		DataGroup dg = new DataGroup(columns, rows);
+		for (int i = 0; i < hists.size(); i++) {
+			dg.addDataSet(getH2F(i, paddle, title), i);
+		}
+		return dg;
+	}
+
+	// Add the counts of a bank with the same histograms
+	public void add(TOFHistogramBank other) {
+		for (int i = 0; i < hists.size() && i < other.hists.size(); i++) {
+			int[] counts = hists.get(i).counts;
+			int[] otherCounts = other.hists.get(i).counts;
+			for (int j = 0; j < counts.length; j++) {
+				counts[j] += otherCounts[j];
+			}
+		}
+	}
+
+	// Write the axes and the non-zero counts of each histogram
+	public void write(DataOutputStream out) throws IOException {
+		out.writeInt(hists.size());
+		for (Hist2D h : hists) {
+			out.writeInt(h.nx);
+			out.writeInt(h.ny);
+			out.writeDouble(h.ymin);
+			out.writeDouble(h.ymax);
+			out.writeInt(nPaddles);
+			for (int p = 0; p < nPaddles; p++) {
+				out.writeDouble(h.xmin[p]);
+				out.writeDouble(h.xmax[p]);
+			}
+			int nFilled = 0;
+			for (int n : h.counts) {
+				if (n != 0) {
+					nFilled++;
+				}
+			}
+			out.writeInt(h.counts.length);
+			out.writeInt(nFilled);
+			for (int j = 0; j < h.counts.length; j++) {
+				if (h.counts[j] != 0) {
+					out.writeInt(j);
+					out.writeInt(h.counts[j]);
+				}
+			}
+		}
+	}
+
+	// Add the counts written by write for a bank with the same histograms and axes
+	public void read(DataInputStream in) throws IOException {
+		int nHists = in.readInt();
+		if (nHists != hists.size()) {
+			throw new IOException("histogram bank has " + nHists + " histograms, expected " + hists.size());
+		}
+		for (Hist2D h : hists) {
+			int nx = in.readInt();
+			int ny = in.readInt();
+			double ymin = in.readDouble();
+			double ymax = in.readDouble();
+			int paddles = in.readInt();
+			if (paddles != nPaddles) {
+				throw new IOException("histogram " + h.name + " has " + paddles + " paddles, expected " + nPaddles);
+			}
+			TOFCheckpoint.checkAxis(h.name, "y", ny, ymin, ymax, h.ny, h.ymin, h.ymax);
+			for (int p = 0; p < nPaddles; p++) {
+				double xmin = in.readDouble();
+				double xmax = in.readDouble();
+				TOFCheckpoint.checkAxis(h.name + " paddle " + p, "x", nx, xmin, xmax, h.nx, h.xmin[p], h.xmax[p]);
+			}
+			int length = in.readInt();
+			int nFilled = in.readInt();
+			if (length != h.counts.length) {
+				throw new IOException("histogram " + h.name + " has " + length + " bins, expected " + h.counts.length);
+			}
+			for (int k = 0; k < nFilled; k++) {
+				int j = in.readInt();
+				h.counts[j] += in.readInt();
+			}
+		}
+	}
+}
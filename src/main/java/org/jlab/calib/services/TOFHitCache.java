@@ -0,0 +1,299 @@
+package org.jlab.calib.services;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jlab.calib.services.ctof.CTOFCalibration;
+
+/**
+ * File of the raw values of each hit passed to the calibration steps
+ *
+ * The first pass over the hipo files writes the values read from the banks for each paddle
+ * in the paddle lists (ADC, TDC, times, track position, path, momentum, vertex, PID, RF time, run)
+ * in blocks of columns. Replaying the file sets the same values in new paddles,
+ * so all the derived times are calculated again with the current constants,
+ * and the steps can be run again without reading the hipo files.
+ * The file is memory mapped when read, one block at a time.
+ *
+ * Hits are only cached if they were included in the paddle list,
+ * so the minimum energy deposit cut is applied when the file is written.
+ */
+public class TOFHitCache {
+
+	private static final int MAGIC = 0x544f4648; // "TOFH"
+	private static final int VERSION = 1;
+	private static final int BLOCK_HITS = 65536;
+
+	// columns of each type in a block
+	private static final int SECTOR = 0, LAYER = 1, COMPONENT = 2, EVENT = 3, RUN = 4,
+			ADCL = 5, ADCR = 6, TDCL = 7, TDCR = 8, TRACK_ID = 9, CHARGE = 10, PID = 11;
+	private static final int N_INT = 12;
+	private static final int TRIGGER = 0, TIMESTAMP = 1;
+	private static final int N_LONG = 2;
+	private static final int ADC_TIMEL = 0, ADC_TIMER = 1, XPOS = 2, YPOS = 3, ZPOS = 4,
+			RECON_TIME = 5, ENERGY = 6, PATH = 7, PATH_BAR = 8, RF_TIME = 9, P = 10,
+			VERTEX_Z = 11, REDCHI2 = 12, ST_TIME = 13;
+	private static final int N_FLOAT = 14;
+	private static final int HIT_BYTES = 4 * N_INT + 8 * N_LONG + 4 * N_FLOAT;
+
+	// set while the first pass writes the cache, the DataProvider classes add each paddle list
+	public static Writer writer = null;
+
+	// called with the paddles of each event when the file is replayed
+	public interface EventHandler {
+		void processPaddleList(List<TOFPaddle> paddleList);
+	}
+
+	public static class Writer {
+
+		private final RandomAccessFile file;
+		private final FileChannel channel;
+		private final int[][] ints = new int[N_INT][BLOCK_HITS];
+		private final long[][] longs = new long[N_LONG][BLOCK_HITS];
+		private final float[][] floats = new float[N_FLOAT][BLOCK_HITS];
+		private int nHits = 0;
+		private int nEvents = 0;
+		private long totalHits = 0;
+		private boolean failed = false;
+
+		public Writer(String filename, String tof) throws IOException {
+			file = new RandomAccessFile(filename, "rw");
+			file.setLength(0);
+			channel = file.getChannel();
+			byte[] tofBytes = tof.getBytes(StandardCharsets.US_ASCII);
+			ByteBuffer header = ByteBuffer.allocate(12 + tofBytes.length);
+			header.putInt(MAGIC).putInt(VERSION).putInt(tofBytes.length).put(tofBytes);
+			header.flip();
+			writeFully(header);
+		}
+
+		// Add the paddles of one event, called by all the event processing threads
+		// the paddles of an event are kept together so steps using pairs of hits see the same events
+		public synchronized void addEvent(List<TOFPaddle> paddleList) {
+			if (failed || paddleList.isEmpty()) {
+				return;
+			}
+			if (nHits + paddleList.size() > BLOCK_HITS) {
+				flush();
+			}
+			for (TOFPaddle paddle : paddleList) {
+				if (nHits == BLOCK_HITS) {
+					flush();
+				}
+				int i = nHits++;
+				ints[SECTOR][i] = paddle.getDescriptor().getSector();
+				ints[LAYER][i] = paddle.getDescriptor().getLayer();
+				ints[COMPONENT][i] = paddle.getDescriptor().getComponent();
+				ints[EVENT][i] = nEvents;
+				ints[RUN][i] = paddle.getRUN();
+				ints[ADCL][i] = paddle.getADCL();
+				ints[ADCR][i] = paddle.getADCR();
+				ints[TDCL][i] = paddle.getTDCL();
+				ints[TDCR][i] = paddle.getTDCR();
+				ints[TRACK_ID][i] = paddle.getTRACK_ID();
+				ints[CHARGE][i] = paddle.getCHARGE();
+				ints[PID][i] = paddle.getPARTICLE_ID();
+				longs[TRIGGER][i] = paddle.getTRIGGER_BIT();
+				longs[TIMESTAMP][i] = paddle.getTIMESTAMP();
+				floats[ADC_TIMEL][i] = paddle.getADC_TIMEL();
+				floats[ADC_TIMER][i] = paddle.getADC_TIMER();
+				floats[XPOS][i] = (float) paddle.getXPOS();
+				floats[YPOS][i] = (float) paddle.getYPOS();
+				floats[ZPOS][i] = (float) paddle.getZPOS();
+				floats[RECON_TIME][i] = (float) paddle.getRECON_TIME();
+				floats[ENERGY][i] = (float) paddle.getENERGY();
+				floats[PATH][i] = (float) paddle.getPATH_LENGTH();
+				floats[PATH_BAR][i] = (float) paddle.getPATH_LENGTH_BAR();
+				floats[RF_TIME][i] = (float) paddle.getRF_TIME();
+				floats[P][i] = (float) paddle.getP();
+				floats[VERTEX_Z][i] = (float) paddle.getVERTEX_Z();
+				floats[REDCHI2][i] = (float) paddle.getTRACK_REDCHI2();
+				floats[ST_TIME][i] = (float) paddle.getST_TIME();
+			}
+			nEvents++;
+		}
+
+		// Write the last block and the hit counts for the counter status
+		public synchronized void close(TOFCounterStatus status) throws IOException {
+			flush();
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(0);
+			status.write(out);
+			out.flush();
+			writeFully(ByteBuffer.wrap(bytes.toByteArray()));
+			channel.close();
+			file.close();
+			if (failed) {
+				throw new IOException("hit cache is incomplete");
+			}
+			System.out.println("Hit cache written with " + totalHits + " hits from " + nEvents + " events");
+		}
+
+		private void flush() {
+			if (nHits == 0 || failed) {
+				return;
+			}
+			ByteBuffer block = ByteBuffer.allocateDirect(4 + nHits * HIT_BYTES);
+			block.putInt(nHits);
+			for (int c = 0; c < N_INT; c++) {
+				block.asIntBuffer().put(ints[c], 0, nHits);
+				block.position(block.position() + 4 * nHits);
+			}
+			for (int c = 0; c < N_LONG; c++) {
+				block.asLongBuffer().put(longs[c], 0, nHits);
+				block.position(block.position() + 8 * nHits);
+			}
+			for (int c = 0; c < N_FLOAT; c++) {
+				block.asFloatBuffer().put(floats[c], 0, nHits);
+				block.position(block.position() + 4 * nHits);
+			}
+			block.flip();
+			try {
+				writeFully(block);
+			} catch (IOException e) {
+				e.printStackTrace();
+				failed = true;
+			}
+			totalHits += nHits;
+			nHits = 0;
+		}
+
+		private void writeFully(ByteBuffer buffer) throws IOException {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+	}
+
+	// Replay the hits in the file, one paddle list per event
+	// the counter status hit counts are added to status, returns the number of events
+	public static long replay(String filename, String tof, TOFCounterStatus status, EventHandler handler)
+			throws IOException {
+
+		RandomAccessFile file = new RandomAccessFile(filename, "r");
+		FileChannel channel = file.getChannel();
+		try {
+			long pos = 0;
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(channel.size(), 64));
+			if (header.remaining() < 12 || header.getInt() != MAGIC) {
+				throw new IOException(filename + " is not a hit cache file");
+			}
+			int version = header.getInt();
+			if (version != VERSION) {
+				throw new IOException(filename + " has unknown hit cache version " + version);
+			}
+			byte[] tofBytes = new byte[header.getInt()];
+			header.get(tofBytes);
+			String fileTof = new String(tofBytes, StandardCharsets.US_ASCII);
+			if (!fileTof.equals(tof)) {
+				throw new IOException(filename + " is a " + fileTof + " hit cache");
+			}
+			pos = header.position();
+
+			// the trigger selection is applied again as it may have changed since the file was written
+			long triggerMask = tof.equals("CTOF") ? CTOFCalibration.triggerBit : TOFCalibration.triggerBit;
+
+			TOFPaddlePool pool = TOFPaddlePool.get();
+			List<TOFPaddle> paddleList = new ArrayList<TOFPaddle>();
+			long nEvents = 0;
+			while (true) {
+				int nHits = channel.map(FileChannel.MapMode.READ_ONLY, pos, 4).getInt();
+				pos += 4;
+				if (nHits == 0) {
+					break;
+				}
+				MappedByteBuffer block = channel.map(FileChannel.MapMode.READ_ONLY, pos, (long) nHits * HIT_BYTES);
+				pos += (long) nHits * HIT_BYTES;
+
+				int lastEvent = -1;
+				for (int i = 0; i < nHits; i++) {
+					int event = intValue(block, nHits, EVENT, i);
+					if (event != lastEvent) {
+						// the paddles of an event are always in the same block
+						if (lastEvent != -1) {
+							handler.processPaddleList(paddleList);
+							nEvents++;
+						}
+						pool.newEvent();
+						paddleList.clear();
+						lastEvent = event;
+					}
+					if (triggerMask != 0 && (longValue(block, nHits, TRIGGER, i) & triggerMask) == 0) {
+						continue;
+					}
+					TOFPaddle paddle = pool.getPaddle(
+							intValue(block, nHits, SECTOR, i),
+							intValue(block, nHits, LAYER, i),
+							intValue(block, nHits, COMPONENT, i));
+					paddle.setRun(intValue(block, nHits, RUN, i),
+							longValue(block, nHits, TRIGGER, i),
+							longValue(block, nHits, TIMESTAMP, i));
+					paddle.setAdcTdc(
+							intValue(block, nHits, ADCL, i),
+							intValue(block, nHits, ADCR, i),
+							intValue(block, nHits, TDCL, i),
+							intValue(block, nHits, TDCR, i));
+					paddle.setPos(
+							floatValue(block, nHits, XPOS, i),
+							floatValue(block, nHits, YPOS, i),
+							floatValue(block, nHits, ZPOS, i));
+					paddle.setADC_TIMEL(floatValue(block, nHits, ADC_TIMEL, i));
+					paddle.setADC_TIMER(floatValue(block, nHits, ADC_TIMER, i));
+					paddle.setRECON_TIME(floatValue(block, nHits, RECON_TIME, i));
+					paddle.setENERGY(floatValue(block, nHits, ENERGY, i));
+					paddle.setPATH_LENGTH(floatValue(block, nHits, PATH, i));
+					paddle.setPATH_LENGTH_BAR(floatValue(block, nHits, PATH_BAR, i));
+					paddle.setRF_TIME(floatValue(block, nHits, RF_TIME, i));
+					paddle.setP(floatValue(block, nHits, P, i));
+					paddle.setTRACK_ID(intValue(block, nHits, TRACK_ID, i));
+					paddle.setVERTEX_Z(floatValue(block, nHits, VERTEX_Z, i));
+					paddle.setCHARGE(intValue(block, nHits, CHARGE, i));
+					paddle.setTRACK_REDCHI2(floatValue(block, nHits, REDCHI2, i));
+					paddle.setPARTICLE_ID(intValue(block, nHits, PID, i));
+					paddle.setST_TIME(floatValue(block, nHits, ST_TIME, i));
+					if (paddle.includeInCalib()) {
+						paddle.Init();
+						paddleList.add(paddle);
+					}
+				}
+				if (lastEvent != -1) {
+					handler.processPaddleList(paddleList);
+					nEvents++;
+				}
+			}
+
+			ByteBuffer trailer = channel.map(FileChannel.MapMode.READ_ONLY, pos, channel.size() - pos);
+			byte[] bytes = new byte[trailer.remaining()];
+			trailer.get(bytes);
+			status.read(new DataInputStream(new ByteArrayInputStream(bytes)));
+			return nEvents;
+		} finally {
+			channel.close();
+			file.close();
+		}
+	}
+
+	// offset of a column in the block, the int columns come first then the long and float columns
+	private static int intValue(ByteBuffer block, int nHits, int column, int i) {
+		return block.getInt((column * nHits + i) * 4);
+	}
+
+	private static long longValue(ByteBuffer block, int nHits, int column, int i) {
+		return block.getLong(N_INT * nHits * 4 + (column * nHits + i) * 8);
+	}
+
+	private static float floatValue(ByteBuffer block, int nHits, int column, int i) {
+		return block.getFloat(N_INT * nHits * 4 + N_LONG * nHits * 8 + (column * nHits + i) * 4);
+	}
+}
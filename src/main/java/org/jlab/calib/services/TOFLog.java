@@ -0,0 +1,109 @@
+package org.jlab.calib.services;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Logging and output control for the calibration
+ *
+ * Messages are printed when their level is at or below TOFLog.level, set by -log in the batch runners.
+ * Output can be switched off for the current thread only, e.g. around the
+ * slice fits and the REC bank reads, which print to System.out.
+ * System.out is replaced once by a stream which drops output from quiet threads,
+ * rather than being swapped for every call.
+ */
+public class TOFLog {
+
+	public static final int ERROR = 0;
+	public static final int WARN = 1;
+	public static final int INFO = 2;
+	public static final int DEBUG = 3;
+
+	public static int level = INFO;
+
+	// original stdout, used for the messages from this class
+	public static final PrintStream stdout = System.out;
+
+	// number of open quiet sections for each thread
+	// not inherited, so pool threads don't keep the state of the thread which started them
+	private static final ThreadLocal<int[]> quietDepth = new ThreadLocal<int[]>() {
+		@Override
+		protected int[] initialValue() {
+			return new int[1];
+		}
+	};
+
+	static {
+		System.setOut(new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				if (!isQuiet()) {
+					stdout.write(b);
+				}
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				if (!isQuiet()) {
+					stdout.write(b, off, len);
+				}
+			}
+
+			@Override
+			public void flush() throws IOException {
+				stdout.flush();
+			}
+		}, true));
+	}
+
+	public static final String[] LEVEL_NAMES = { "error", "warn", "info", "debug" };
+
+	public static boolean isEnabled(int msgLevel) {
+		return msgLevel <= level;
+	}
+
+	public static void error(String msg) {
+		if (isEnabled(ERROR)) {
+			stdout.println(msg);
+		}
+	}
+
+	public static void warn(String msg) {
+		if (isEnabled(WARN)) {
+			stdout.println(msg);
+		}
+	}
+
+	public static void info(String msg) {
+		if (isEnabled(INFO)) {
+			stdout.println(msg);
+		}
+	}
+
+	public static void debug(String msg) {
+		if (isEnabled(DEBUG)) {
+			stdout.println(msg);
+		}
+	}
+
+	// quiet(true) and quiet(false) are used in pairs and can be nested
+	public static void quiet(boolean quietOn) {
+		int[] depth = quietDepth.get();
+		if (quietOn) {
+			depth[0]++;
+		}
+		else if (depth[0] > 0) {
+			depth[0]--;
+		}
+	}
+
+	// switch output back on for this thread whatever the nesting
+	public static void reset() {
+		quietDepth.get()[0] = 0;
+	}
+
+	public static boolean isQuiet() {
+		return quietDepth.get()[0] > 0;
+	}
+}
@@ -1,11 +1,8 @@
 package org.jlab.calib.services;
 
 import org.jlab.calib.services.ctof.CTOFCalibration;
-import org.jlab.calib.services.ctof.CTOFCalibrationEngine;
 import org.jlab.calib.services.ctof.CtofHposBinEventListener;
 import org.jlab.detector.base.DetectorDescriptor;
-import org.jlab.detector.calib.utils.CalibrationConstants;
-import org.jlab.detector.calib.utils.DatabaseConstantProvider;
  
 /**
  *
@@ -16,12 +13,11 @@ public class TOFPaddle {
 	private static final int LEFT = 0;
 	private static final int RIGHT = 1;
 	public static String tof = "FTOF";
-	public static CalibrationConstants jitConsts = null;   
-	public static CalibrationConstants lgtConsts = null;   
-        public static DatabaseConstantProvider dcp = null;
-        public static int currentRun = 0;
 
 	private DetectorDescriptor desc = new DetectorDescriptor();
+	// constants for the current run, and the index of this paddle in them
+	private TOFConstantSnapshot consts = null;
+	private int constIdx = 0;
 
 	private int ADCL = 0;
 	private int ADCR = 0;
@@ -232,10 +228,18 @@ public class TOFPaddle {
 		CHARGE = cHARGE;
 	}
 
+	public int getCHARGE() {
+		return CHARGE;
+	}
+
 	public void setRF_TIME(double rF_TIME) {
 		RF_TIME = rF_TIME;
 	}
 
+	public double getRF_TIME() {
+		return RF_TIME;
+	}
+
 	public void setST_TIME(double sT_TIME) {
 		ST_TIME = sT_TIME;
 	}
@@ -248,6 +252,10 @@ public class TOFPaddle {
 		RECON_TIME = rECON_TIME;
 	}
 
+	public double getRECON_TIME() {
+		return RECON_TIME;
+	}
+
 	public void setJITTER(double jITTER) {
 		JITTER = jITTER;
 	}
@@ -256,14 +264,30 @@ public class TOFPaddle {
 		PARTICLE_ID = pARTICLE_ID;
 	}
 
+	public int getPARTICLE_ID() {
+		return PARTICLE_ID;
+	}
+
 	public void setRUN(int rUN) {
 		RUN = rUN;
 	}
 
+	public int getRUN() {
+		return RUN;
+	}
+
 	public void setTIMESTAMP(long tIMESTAMP) {
 		TIMESTAMP = tIMESTAMP;
 	}
 
+	public long getTIMESTAMP() {
+		return TIMESTAMP;
+	}
+
+	public long getTRIGGER_BIT() {
+		return TRIGGER_BIT;
+	}
+
 	private void set_paddleNumber() { //no dependence
 		final int[] paddleOffset = { 0, 0, 23, 85 };
 		final int sector = this.getDescriptor().getSector();
@@ -323,43 +347,43 @@ public class TOFPaddle {
 	private void set_mips() { //no dependence
 		// take from target MIP channel for CTOF
 
-		mips = (tof == "FTOF")?(TOFCalibrationEngine.gainValues.getDoubleValue("mipa_left", desc.getSector(), desc.getLayer(), desc.getComponent())):(CTOFCalibration.expectedMipChannel);
+		mips = (tof == "FTOF")?(consts.mips[constIdx]):(CTOFCalibration.expectedMipChannel);
 }
 	private void set_veff() { //no dependence
-		veff = (tof == "FTOF")?(TOFCalibrationEngine.veffValues.getDoubleValue("veff_left", desc.getSector(), desc.getLayer(), desc.getComponent())):(CTOFCalibrationEngine.veffValues.getDoubleValue("veff_upstream", desc.getSector(), desc.getLayer(), desc.getComponent()));
+		veff = consts.veff[constIdx];
 }
 	private void set_tdcConvL() { //no dependence
-		tdcConvL = (tof == "FTOF")?(TOFCalibrationEngine.convValues.getDoubleValue("left", desc.getSector(), desc.getLayer(), desc.getComponent())):(CTOFCalibrationEngine.convValues.getDoubleValue("upstream", desc.getSector(), desc.getLayer(), desc.getComponent()));
+		tdcConvL = consts.tdcConvL[constIdx];
 }
 	private void set_tdcConvR() { //no dependence
-		tdcConvR = (tof == "FTOF")?(TOFCalibrationEngine.convValues.getDoubleValue("right", desc.getSector(), desc.getLayer(), desc.getComponent())):(CTOFCalibrationEngine.convValues.getDoubleValue("downstream", desc.getSector(), desc.getLayer(), desc.getComponent()));
+		tdcConvR = consts.tdcConvR[constIdx];
 }
 	private void set_rfpad() { //no dependence
-		rfpad = (tof == "FTOF")?(TOFCalibrationEngine.rfpadValues.getDoubleValue("rfpad", desc.getSector(), desc.getLayer(), desc.getComponent())):(CTOFCalibrationEngine.rfpadValues.getDoubleValue("rfpad", desc.getSector(), desc.getLayer(), desc.getComponent()));
+		rfpad = consts.rfpad[constIdx];
 }
 	private void set_tw1() { //no dependence
-		tw1 = (tof == "FTOF")?(TOFCalibrationEngine.timeWalkValues.getDoubleValue("tw1", desc.getSector(), desc.getLayer(), desc.getComponent())):0.0;
+		tw1 = (tof == "FTOF")?(consts.tw1[constIdx]):0.0;
 }
 	private void set_tw2() { //no dependence
-		tw2 = (tof == "FTOF")?(TOFCalibrationEngine.timeWalkValues.getDoubleValue("tw2", desc.getSector(), desc.getLayer(), desc.getComponent())):0.0;
+		tw2 = (tof == "FTOF")?(consts.tw2[constIdx]):0.0;
 }
 	private void set_tw3() { //no dependence
-		tw3 = (tof == "FTOF")?(TOFCalibrationEngine.timeWalkValues.getDoubleValue("tw3", desc.getSector(), desc.getLayer(), desc.getComponent())):0.0;
+		tw3 = (tof == "FTOF")?(consts.tw3[constIdx]):0.0;
 }
 	private void set_lamL() { //no dependence
-		lamL = (tof == "FTOF")?(TOFCalibrationEngine.timeWalkValues.getDoubleValue("tw0_left", desc.getSector(), desc.getLayer(), desc.getComponent())):0.0;
+		lamL = (tof == "FTOF")?(consts.lamL[constIdx]):0.0;
 }
 	private void set_tw1pos() { //no dependence
-		tw1pos = (tof == "FTOF")?(TOFCalibrationEngine.twposValues.getDoubleValue("tw1pos", desc.getSector(), desc.getLayer(), desc.getComponent())):0.0;
+		tw1pos = (tof == "FTOF")?(consts.tw1pos[constIdx]):0.0;
 }
 	private void set_tw2pos() { //no dependence
-		tw2pos = (tof == "FTOF")?(TOFCalibrationEngine.twposValues.getDoubleValue("tw2pos", desc.getSector(), desc.getLayer(), desc.getComponent())):0.0;
+		tw2pos = (tof == "FTOF")?(consts.tw2pos[constIdx]):0.0;
 }
 	private void set_lamR() { //no dependence
-		lamR = (tof == "FTOF")?(TOFCalibrationEngine.timeWalkValues.getDoubleValue("tw0_right", desc.getSector(), desc.getLayer(), desc.getComponent())):0.0;
+		lamR = (tof == "FTOF")?(consts.lamR[constIdx]):0.0;
 }
 	private void set_p2p() { //no dependence
-		p2p = (tof == "FTOF")?(TOFCalibrationEngine.p2pValues.getDoubleValue("paddle2paddle", desc.getSector(), desc.getLayer(), desc.getComponent())):(CTOFCalibrationEngine.p2pValues.getDoubleValue("paddle2paddle", desc.getSector(), desc.getLayer(), desc.getComponent()));
+		p2p = consts.p2p[constIdx];
 }
 	private void set_mass() { //Particle_id
 		double mass = 0.0;
@@ -470,19 +494,16 @@ public class TOFPaddle {
 		HPosCorrFunc = (tof=="CTOF")?(hposA*paddleY*paddleY+hposB*paddleY+hposC):0.0;
 }
 	private void set_HPosCorrBin() { //paddley
-		HPosCorrBin = (tof=="CTOF")?CTOFCalibrationEngine.hposBinValues.getItem(desc.getSector(), desc.getLayer(), desc.getComponent())[CtofHposBinEventListener.sliceNumber(paddleY)]:0.0;
+		HPosCorrBin = (tof=="CTOF" && consts.hposBin[constIdx]!=null)?consts.hposBin[constIdx][CtofHposBinEventListener.sliceNumber(paddleY)]:0.0;
 }
 	private void set_hposA() { //no dependence
-		hposA = (tof=="CTOF")?CTOFCalibrationEngine.hposFuncValues.getDoubleValue("hposa", desc.getSector(), desc.getLayer(),
-		desc.getComponent()):0.0;
+		hposA = (tof=="CTOF")?consts.hposA[constIdx]:0.0;
 }
 	private void set_hposB() { //no dependence
-		hposB = (tof=="CTOF")?CTOFCalibrationEngine.hposFuncValues.getDoubleValue("hposb", desc.getSector(), desc.getLayer(),
-		desc.getComponent()):0.0;
+		hposB = (tof=="CTOF")?consts.hposB[constIdx]:0.0;
 }
 	private void set_hposC() { //no dependence
-		hposC = (tof=="CTOF")?CTOFCalibrationEngine.hposFuncValues.getDoubleValue("hposc", desc.getSector(), desc.getLayer(),
-		desc.getComponent()):0.0;
+		hposC = (tof=="CTOF")?consts.hposC[constIdx]:0.0;
 }
 	private void set_TWPosCorr() { //paddley & tw1pos & tw2pos
 		TWPosCorr = (tof=="FTOF")?(tw1pos*paddleY*paddleY + tw2pos*paddleY):0.0;
@@ -535,7 +556,7 @@ public class TOFPaddle {
 		halfTimeDiff = (timeLeftAfterTW - timeRightAfterTW - leftRightAdjustment) / 2;
 }
 	private void set_leftRightAdjustment() { //no dependence
-		leftRightAdjustment = ((tof == "FTOF")?(TOFCalibrationEngine.leftRightValues.getDoubleValue("left_right", desc.getSector(), desc.getLayer(), 		desc.getComponent())):(CTOFCalibrationEngine.leftRightValues.getDoubleValue("upstream_downstream", desc.getSector(), desc.getLayer(), desc.getComponent())));
+		leftRightAdjustment = consts.leftRight[constIdx];
 }
 	private void set_position() { //halftimediff & veff & ctofcenter
 		position = halfTimeDiff * veff + ((tof == "CTOF")?ctofCenter:0.0);
@@ -613,6 +634,9 @@ public class TOFPaddle {
 
 	public void Init(){
 		if(isInit) return;
+		if(consts == null) {
+			setConstants();
+		}
 		set_paddleNumber();
 		set_geometricMean();
 		set_thickness();
@@ -690,6 +714,50 @@ public class TOFPaddle {
 		this.desc.setSectorLayerComponent(sector, layer, paddle);
 		isInit = false;
         }
+
+	// Set back to the values of a new paddle so the object can be reused for another hit
+	// derived values are all recalculated by Init()
+	public void reset(int sector, int layer, int paddle) {
+		this.desc.setSectorLayerComponent(sector, layer, paddle);
+		ADCL = 0;
+		ADCR = 0;
+		TDCL = 0;
+		TDCR = 0;
+		ENERGY = 0;
+		ADC_TIMEL = 0;
+		ADC_TIMER = 0;
+		LENGTH = 0;
+		XPOS = 0.0;
+		YPOS = 0.0;
+		ZPOS = 0.0;
+		PATH_LENGTH = 0.0;
+		PATH_LENGTH_BAR = 0.0;
+		P = 0.0;
+		TRACK_ID = -1;
+		VERTEX_Z = 0.0;
+		TRACK_REDCHI2 = 0.0;
+		CHARGE = 0;
+		RF_TIME = 124.25;
+		ST_TIME = -1000.0;
+		TRIGGER_BIT = 0;
+		RECON_TIME = 0.0;
+		JITTER = 0.0;
+		PARTICLE_ID = 0;
+		RUN = 0;
+		TIMESTAMP = 0;
+		consts = null;
+		isInit = false;
+	}
+
+	// paddle number used to index the constants and the engines' histogram arrays
+	public int getPaddleIndex() {
+		return TOFConstantSnapshot.index(desc.getSector(), desc.getLayer(), desc.getComponent());
+	}
+
+	private void setConstants() {
+		consts = TOFConstantSnapshot.get(RUN);
+		constIdx = TOFConstantSnapshot.index(desc.getSector(), desc.getLayer(), desc.getComponent());
+	}
         
         public void setRun(int run, long triggerbit, long timestamp) {
             // Get the TDC jitter parameters when runNo changes
@@ -698,48 +766,11 @@ public class TOFPaddle {
             this.TRIGGER_BIT = triggerbit;
             this.TIMESTAMP = timestamp;
             
-            if (RUN != currentRun && RUN!=0) {
-                dcp = new DatabaseConstantProvider(RUN, "default");
-                if (tof == "FTOF") {
-                    jitConsts = dcp.readConstants("/calibration/ftof/time_jitter");
-                    dcp.loadTable("/geometry/ftof/panel1a/paddles");        
-                    dcp.loadTable("/geometry/ftof/panel1b/paddles");
-                    dcp.loadTable("/geometry/ftof/panel2/paddles");
-                }
-                else {
-                    jitConsts = dcp.readConstants("/calibration/ctof/time_jitter");
-                    lgtConsts = dcp.readConstants("/geometry/ctof/ctof");
-                }
-                dcp.disconnect();
-                currentRun = RUN;
-                System.out.println("RUN = "+RUN);
-            }
-            
-            
-            if (tof == "FTOF") {
-                if(dcp != null) {
-                    if(this.getDescriptor().getLayer() == 1) {
-                       this.LENGTH = dcp.getDouble("/geometry/ftof/panel1a/paddles/Length", this.getDescriptor().getComponent()-1);
-                    }
-                    else if(this.getDescriptor().getLayer() == 2) {
-                       this.LENGTH = dcp.getDouble("/geometry/ftof/panel1b/paddles/Length", this.getDescriptor().getComponent()-1);
-                    }
-                    else if(this.getDescriptor().getLayer() == 3) {
-                       this.LENGTH = dcp.getDouble("/geometry/ftof/panel2/paddles/Length", this.getDescriptor().getComponent()-1);
-                    }
-                }
-            }
-            else {
-               if(lgtConsts!=null) {
-                    this.LENGTH = lgtConsts.getDoubleValue("length", this.getDescriptor().getSector(),this.getDescriptor().getLayer(),this.getDescriptor().getComponent());
-                }
-            }
-            
-            if(jitConsts!=null) {
-                double period = jitConsts.getDoubleValue("period", 0,0,0);
-                int    phase  = jitConsts.getIntValue("phase", 0,0,0);
-                int cycles = jitConsts.getIntValue("cycles", 0,0,0);
-                if(cycles > 0) this.JITTER=period*((TIMESTAMP+phase)%cycles);
+            // lengths and jitter parameters from the constants for this run
+            setConstants();
+            this.LENGTH = consts.length[constIdx];
+            if(consts.jitterCycles > 0) {
+                this.JITTER=consts.jitterPeriod*((TIMESTAMP+consts.jitterPhase)%consts.jitterCycles);
             }
         }
 
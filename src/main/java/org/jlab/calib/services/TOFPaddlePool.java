@@ -0,0 +1,51 @@
+package org.jlab.calib.services;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reusable TOFPaddle objects for the DataProvider classes
+ *
+ * One pool per thread, so each event processing thread has its own paddles.
+ * The paddle list returned for an event is only valid until the next event
+ * is read on the same thread.
+ */
+public class TOFPaddlePool {
+
+	private static final ThreadLocal<TOFPaddlePool> pools = new ThreadLocal<TOFPaddlePool>() {
+		@Override
+		protected TOFPaddlePool initialValue() {
+			return new TOFPaddlePool();
+		}
+	};
+
+	private List<TOFPaddle> paddles = new ArrayList<TOFPaddle>();
+	private ArrayList<TOFPaddle> paddleList = new ArrayList<TOFPaddle>();
+	private int used = 0;
+
+	public static TOFPaddlePool get() {
+		return pools.get();
+	}
+
+	// Start a new event, all paddles from the previous event are reused
+	public ArrayList<TOFPaddle> newEvent() {
+		used = 0;
+		paddleList.clear();
+		return paddleList;
+	}
+
+	public TOFPaddle getPaddle(int sector, int layer, int component) {
+
+		TOFPaddle paddle;
+		if (used < paddles.size()) {
+			paddle = paddles.get(used);
+			paddle.reset(sector, layer, component);
+		}
+		else {
+			paddle = new TOFPaddle(sector, layer, component);
+			paddles.add(paddle);
+		}
+		used++;
+		return paddle;
+	}
+}
@@ -157,38 +157,26 @@ public class TofAttenEventListener extends TOFCalibrationEngine {
 	}
 
 	@Override
-	public void processPaddleList(List<TOFPaddle> paddleList) {
-
-		for (TOFPaddle paddle : paddleList) {
-
-			int sector = paddle.getDescriptor().getSector();
-			int layer = paddle.getDescriptor().getLayer();
-			int component = paddle.getDescriptor().getComponent();
-
-
-
-			// dgtz data only
-			dataGroups.getItem(sector,layer,component).getH2F("atten").fill(
-					paddle.position(), paddle.logRatio());
-
-			// cooked data - position from timing and veff
-			//			if (paddle.recPosition()!=0) {
-			//				dataGroups.getItem(sector,layer,component).getH2F("atten").fill(
-			//						paddle.recPosition(), paddle.logRatio());
-			//			}
+	public boolean isFusable() {
+		return true;
+	}
 
+	@Override
+	public void processPaddle(TOFPaddle paddle) {
+		int sector = paddle.getDescriptor().getSector();
+		int layer = paddle.getDescriptor().getLayer();
+		int component = paddle.getDescriptor().getComponent();
 
-		}
+		dataGroups.getItem(sector,layer,component).getH2F("atten").fill(
+				paddle.position(), paddle.logRatio());
 	}
 	
 	@Override
 	public void timerUpdate() {
-		if (fitMethod!=FIT_METHOD_SF) {
-			// only analyze at end of file for slice fitter - takes too long
-			analyze();
+		if (fitMethod!=FIT_METHOD_SF || liveSliceFits) {
+			// only analyze at end of file for slice fitter unless live slice fits are on - takes too long
+			updateChanged();
 		}
-		save();
-		calib.fireTableDataChanged();
 	}	
 
 	@Override
@@ -227,7 +215,7 @@ public class TofAttenEventListener extends TOFCalibrationEngine {
 			psf.setFitMode(fitMode);
 			psf.setMinEvents(fitMinEvents);
 			psf.setBackgroundOrder(backgroundSF);
-			psf.setNthreads(1);
+			psf.setNthreads(sliceFitThreads());
 			setOutput(false);
 			psf.fitSlicesX();
 			setOutput(true);
@@ -253,11 +241,13 @@ public class TofAttenEventListener extends TOFCalibrationEngine {
 		attenFunc.setParLimits(0, -5.0, 5.0);
 		attenFunc.setParLimits(1, 2.0/500.0, 2.0/10.0);
 		if (sector==1 && layer==1 &&paddle==8) {
-			DataFitter.fit(attenFunc, meanGraph, "RNQ");
+			TOFFastFitter.fitPoly(attenFunc, meanGraph, lowLimit, highLimit,
+					new double[] {-5.0, 2.0/500.0}, new double[] {5.0, 2.0/10.0}, "RNQ");
 			this.isFitValid[sector-1][layer-1][paddle-1] = attenFunc.isFitValid();
 		}
 		else {
-			DataFitter.fit(attenFunc, meanGraph, "RNQ");
+			TOFFastFitter.fitPoly(attenFunc, meanGraph, lowLimit, highLimit,
+					new double[] {-5.0, 2.0/500.0}, new double[] {5.0, 2.0/10.0}, "RNQ");
 			this.isFitValid[sector-1][layer-1][paddle-1] = attenFunc.isFitValid();
 		}
 		
@@ -3,6 +3,8 @@ package org.jlab.calib.services;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
@@ -37,6 +39,14 @@ public class TofCheckEventListener extends TOFCalibrationEngine {
 	private final double[]        ADC_MAX = {0.0, 4000.0, 7000.0, 4000.0};
 	private final double[]        PATH_MIN = {0.0, 690.0,  670.0,  630.0};
 	private final double[]        PATH_MAX = {0.0, 760.0, 760.0, 760.0};
+
+	private TOFHistogramBank hists;
+	private int momHist;
+	private int vzHist;
+	private int hitHist;
+	private int pathHist;
+	private int adcLHist;
+	private int energyHist;
 	
 	public TofCheckEventListener() {
 
@@ -73,77 +83,51 @@ public class TofCheckEventListener extends TOFCalibrationEngine {
 		double bb = TOFCalibrationEngine.BEAM_BUCKET;
 		int bins = (int) (bb/2.004)*88;
 
+		// the histograms are filled for every paddle so kept in a bank rather than as H2F
+		hists = new TOFHistogramBank(TOFConstantSnapshot.MAX_PADDLES);
+		momHist = hists.add2D("momHist", "p (GeV)", "delta T (ns)",
+				100, TOFCalibration.minP, TOFCalibration.maxP, bins, -bb*0.5, bb*0.5);
+		vzHist = hists.add2D("vzHist", "vz (cm)", "delta T (ns)",
+				100, -20.0, 20.0, bins, -bb*0.5, bb*0.5);
+		hitHist = hists.add2D("hitHist", "hit position (cm)", "delta T (ns)",
+				100, -1.0, 1.0, bins, -bb*0.5, bb*0.5);
+		pathHist = hists.add2D("pathHist", "path (cm)", "delta T (ns)",
+				100, 0.0, 1.0, bins, -bb*0.5, bb*0.5);
+		adcLHist = hists.add2D("adcLHist", "ADC Left", "delta T (ns)",
+				100, 0.0, 1.0, bins, -bb*0.5, bb*0.5);
+		energyHist = hists.add2D("energyHist", "Energy", "delta T (ns)",
+				100, 0.0, 50.0, bins, -bb*0.5, bb*0.5);
+
 		for (int sector = 1; sector <= 6; sector++) {
 			for (int layer = 1; layer <= 3; layer++) {
 				int layer_index = layer - 1;
 				for (int paddle = 1; paddle <= NUM_PADDLES[layer_index]; paddle++) {
 
-					DataGroup dg = new DataGroup(3,2);
-
-					// create all the histograms and functions
-					H2F momHist = 
-							new H2F("momHist",histTitle(sector,layer,paddle),
-									100, TOFCalibration.minP, TOFCalibration.maxP,
-									bins, -bb*0.5, bb*0.5);
-					momHist.setTitleX("p (GeV)");
-					momHist.setTitleY("delta T (ns)");
-					dg.addDataSet(momHist, 0);
-
-					H2F vzHist = 
-							new H2F("vzHist",histTitle(sector,layer,paddle),
-									100, -20.0, 20.0,
-									bins, -bb*0.5, bb*0.5);
-					vzHist.setTitleX("vz (cm)");
-					vzHist.setTitleY("delta T (ns)");
-					dg.addDataSet(vzHist, 1);
-					
-					H2F hitHist = 
-							new H2F("hitHist",histTitle(sector,layer,paddle),
-									100, -paddleLength(sector,layer,paddle)*0.55, paddleLength(sector,layer,paddle)*0.55,
-									bins, -bb*0.5, bb*0.5);
-					hitHist.setTitleX("hit position (cm)");
-					hitHist.setTitleY("delta T (ns)");
-					dg.addDataSet(hitHist, 2);
-
-					H2F pathHist = 
-							new H2F("pathHist",histTitle(sector,layer,paddle),
-									100, PATH_MIN[layer], PATH_MAX[layer],
-									bins, -bb*0.5, bb*0.5);
-					pathHist.setTitleX("path (cm)");
-					pathHist.setTitleY("delta T (ns)");
-					dg.addDataSet(pathHist, 3);
-
-					H2F adcLHist = 
-							new H2F("adcLHist",histTitle(sector,layer,paddle),
-									100, ADC_MIN[layer], ADC_MAX[layer],
-									bins, -bb*0.5, bb*0.5);
-					adcLHist.setTitleX("ADC Left");
-					adcLHist.setTitleY("delta T (ns)");
-					dg.addDataSet(adcLHist, 4);
-
-//					H2F adcRHist = 
-//							new H2F("adcRHist",histTitle(sector,layer,paddle),
-//									100, ADC_MIN[layer], ADC_MAX[layer],
-//									bins, -bb*0.5, bb*0.5);
-//					adcRHist.setTitleX("ADC Right");
-//					adcRHist.setTitleY("delta T (ns)");
-//					dg.addDataSet(adcRHist, 5);
-					
-					H2F energyHist = 
-							new H2F("energyHist",histTitle(sector,layer,paddle),
-									100, 0.0, 50.0,
-									bins, -bb*0.5, bb*0.5);
-					energyHist.setTitleX("Energy");
-					energyHist.setTitleY("delta T (ns)");
-					dg.addDataSet(energyHist, 5);					
-					
-					dataGroups.add(dg,sector,layer,paddle);    
-
+					int idx = TOFConstantSnapshot.index(sector, layer, paddle);
+					hists.setXRange(hitHist, idx,
+							-paddleLength(sector,layer,paddle)*0.55, paddleLength(sector,layer,paddle)*0.55);
+					hists.setXRange(pathHist, idx, PATH_MIN[layer], PATH_MAX[layer]);
+					hists.setXRange(adcLHist, idx, ADC_MIN[layer], ADC_MAX[layer]);
 				}
 			}
 		}
 	}
 
+	@Override
+	public void merge(TOFCalibrationEngine engine) {
+		hists.add(((TofCheckEventListener) engine).hists);
+	}
+
+	@Override
+	public void writeCheckpoint(DataOutputStream out) throws IOException {
+		hists.write(out);
+	}
+
+	@Override
+	public void readCheckpoint(DataInputStream in) throws IOException {
+		hists.read(in);
+	}
+
 	@Override
 	public void processEvent(DataEvent event) {
 
@@ -153,45 +137,26 @@ public class TofCheckEventListener extends TOFCalibrationEngine {
 	}
 
 	@Override
-	public void processPaddleList(List<TOFPaddle> paddleList) {
-
-		for (TOFPaddle pad : paddleList) {
-
-			int sector = pad.getDescriptor().getSector();
-			int layer = pad.getDescriptor().getLayer();
-			int component = pad.getDescriptor().getComponent();
-			
-			if (pad.goodTrackFound()) {
-				
-				dataGroups.getItem(sector,layer,component).getH2F("momHist").fill(
-						 pad.getP(),
-						(pad.refTimeCorr()+(1000*BEAM_BUCKET) + (0.5*BEAM_BUCKET))%BEAM_BUCKET - 0.5*BEAM_BUCKET);
-
-				dataGroups.getItem(sector,layer,component).getH2F("vzHist").fill(
-						 pad.getVERTEX_Z(),
-						(pad.refTimeCorr()+(1000*BEAM_BUCKET) + (0.5*BEAM_BUCKET))%BEAM_BUCKET - 0.5*BEAM_BUCKET);
-							
-				dataGroups.getItem(sector,layer,component).getH2F("hitHist").fill(
-						 pad.paddleY(),
-						(pad.refTimeCorr()+(1000*BEAM_BUCKET) + (0.5*BEAM_BUCKET))%BEAM_BUCKET - 0.5*BEAM_BUCKET);
-
-				dataGroups.getItem(sector,layer,component).getH2F("pathHist").fill(
-						 pad.getPATH_LENGTH(),
-						(pad.refTimeCorr()+(1000*BEAM_BUCKET) + (0.5*BEAM_BUCKET))%BEAM_BUCKET - 0.5*BEAM_BUCKET);
-				
-				dataGroups.getItem(sector,layer,component).getH2F("adcLHist").fill(
-						 pad.getADCL(),
-						(pad.refTimeCorr()+(1000*BEAM_BUCKET) + (0.5*BEAM_BUCKET))%BEAM_BUCKET - 0.5*BEAM_BUCKET);
-
-//				dataGroups.getItem(sector,layer,component).getH2F("adcRHist").fill(
-//						 pad.ADCR,
-//						(pad.refTimeCorr()+(1000*BEAM_BUCKET) + (0.5*BEAM_BUCKET))%BEAM_BUCKET - 0.5*BEAM_BUCKET);
-				dataGroups.getItem(sector,layer,component).getH2F("energyHist").fill(
-						 pad.energy(),
-						(pad.refTimeCorr()+(1000*BEAM_BUCKET) + (0.5*BEAM_BUCKET))%BEAM_BUCKET - 0.5*BEAM_BUCKET);
-				
-			}
-		}
+	public boolean isFusable() {
+		return true;
+	}
+
+	@Override
+	public boolean requiresGoodTrack() {
+		return true;
+	}
+
+	@Override
+	public void processPaddle(TOFPaddle pad) {
+		int idx = pad.getPaddleIndex();
+		double dt = (pad.refTimeCorr()+(1000*BEAM_BUCKET) + (0.5*BEAM_BUCKET))%BEAM_BUCKET - 0.5*BEAM_BUCKET;
+
+		hists.fill(momHist, idx, pad.getP(), dt);
+		hists.fill(vzHist, idx, pad.getVERTEX_Z(), dt);
+		hists.fill(hitHist, idx, pad.paddleY(), dt);
+		hists.fill(pathHist, idx, pad.getPATH_LENGTH(), dt);
+		hists.fill(adcLHist, idx, pad.getADCL(), dt);
+		hists.fill(energyHist, idx, pad.energy(), dt);
 	}    
 
 	@Override
@@ -225,51 +190,37 @@ public class TofCheckEventListener extends TOFCalibrationEngine {
 	@Override
 	public void drawPlots(int sector, int layer, int paddle, EmbeddedCanvas canvas) {
 
-		H2F hist = new H2F();
+		int hist = momHist;
 		if (showPlotType == "CHECK_MOM") { 
-			hist = dataGroups.getItem(sector,layer,paddle).getH2F("momHist");
+			hist = momHist;
 		}
 		else if (showPlotType == "CHECK_VZ") { 
-			hist = dataGroups.getItem(sector,layer,paddle).getH2F("vzHist");
+			hist = vzHist;
 		}
 		else if (showPlotType == "CHECK_HIT") { 
-			hist = dataGroups.getItem(sector,layer,paddle).getH2F("hitHist");
+			hist = hitHist;
 		}
 		else if (showPlotType == "CHECK_PATH") { 
-			hist = dataGroups.getItem(sector,layer,paddle).getH2F("pathHist");
+			hist = pathHist;
 		}
 		else if (showPlotType == "CHECK_ADCL") { 
-			hist = dataGroups.getItem(sector,layer,paddle).getH2F("adcLHist");
+			hist = adcLHist;
 		}
-//		else if (showPlotType == "CHECK_ADCR") {
-//			hist = dataGroups.getItem(sector,layer,paddle).getH2F("adcRHist");
-//		}
 		else if (showPlotType == "CHECK_ENERGY") {
-			hist = dataGroups.getItem(sector,layer,paddle).getH2F("energyHist");
+			hist = energyHist;
 		}
 		
-		hist.setTitleX("");
-		hist.setTitleY("");
-		canvas.draw(hist);    
+		H2F h2 = hists.getH2F(hist, TOFConstantSnapshot.index(sector, layer, paddle), histTitle(sector,layer,paddle));
+		h2.setTitleX("");
+		h2.setTitleY("");
+		canvas.draw(h2);    
 	}
 	
 	@Override
 	public void setPlotTitle(int sector, int layer, int paddle) {
-		// reset hist title as may have been set to null by show all 
-		dataGroups.getItem(sector,layer,paddle).getH2F("momHist").setTitleX("p (GeV)");
-		dataGroups.getItem(sector,layer,paddle).getH2F("momHist").setTitleY("delta T (ns)");
-		dataGroups.getItem(sector,layer,paddle).getH2F("vzHist").setTitleX("vz (cm)");
-		dataGroups.getItem(sector,layer,paddle).getH2F("vzHist").setTitleY("delta T (ns)");
-		dataGroups.getItem(sector,layer,paddle).getH2F("hitHist").setTitleX("hit position (cm)");
-		dataGroups.getItem(sector,layer,paddle).getH2F("hitHist").setTitleY("delta T (ns)");
-		dataGroups.getItem(sector,layer,paddle).getH2F("pathHist").setTitleX("path (cm)");
-		dataGroups.getItem(sector,layer,paddle).getH2F("pathHist").setTitleY("delta T (ns)");
-		dataGroups.getItem(sector,layer,paddle).getH2F("adcLHist").setTitleX("ADC Left");
-		dataGroups.getItem(sector,layer,paddle).getH2F("adcLHist").setTitleY("delta T (ns)");
-//		dataGroups.getItem(sector,layer,paddle).getH2F("adcRHist").setTitleX("ADC Right");
-//		dataGroups.getItem(sector,layer,paddle).getH2F("adcRHist").setTitleY("delta T (ns)");
-		dataGroups.getItem(sector,layer,paddle).getH2F("energyHist").setTitleX("Energy");
-		dataGroups.getItem(sector,layer,paddle).getH2F("energyHist").setTitleY("delta T (ns)");
+		// called before the paddle is drawn, so create the histograms for it from the bank
+		dataGroups.add(hists.getDataGroup(TOFConstantSnapshot.index(sector, layer, paddle),
+				histTitle(sector,layer,paddle), 3, 2), sector, layer, paddle);
 	}	
 
 	@Override
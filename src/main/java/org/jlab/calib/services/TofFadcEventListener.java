@@ -121,6 +121,15 @@ public class TofFadcEventListener extends TOFCalibrationEngine {
 		}
 	}
 
+	@Override
+	public void copyConfig(TOFCalibrationEngine engine) {
+		super.copyConfig(engine);
+		TofFadcEventListener fadcEngine = (TofFadcEventListener) engine;
+		MIN_X = fadcEngine.MIN_X;
+		MAX_X = fadcEngine.MAX_X;
+		WIDTH = fadcEngine.WIDTH;
+	}
+
 	@Override
 	public void processEvent(DataEvent event) {
 
@@ -130,23 +139,24 @@ public class TofFadcEventListener extends TOFCalibrationEngine {
 	}
 
 	@Override
-	public void processPaddleList(List<TOFPaddle> paddleList) {
+	public boolean isFusable() {
+		return true;
+	}
 
-		for (TOFPaddle pad : paddleList) {
+	@Override
+	public void processPaddle(TOFPaddle pad) {
+		int sector = pad.getDescriptor().getSector();
+		int layer = pad.getDescriptor().getLayer();
+		int component = pad.getDescriptor().getComponent();
+
+		if (pad.getADC_TIMEL()>0 && pad.getTDCL()>0) {
+			dataGroups.getItem(sector,layer,component).getH1F("fadcHistLeft").fill(
+			pad.tdcToTimeL() - pad.getADC_TIMEL());
+		}
 
-			int sector = pad.getDescriptor().getSector();
-			int layer = pad.getDescriptor().getLayer();
-			int component = pad.getDescriptor().getComponent();
-			
-			if (pad.getADC_TIMEL()>0 && pad.getTDCL()>0) {
-				dataGroups.getItem(sector,layer,component).getH1F("fadcHistLeft").fill(
-				pad.tdcToTimeL() - pad.getADC_TIMEL());
-			}
-			
-			if (pad.getADC_TIMER()>0 && pad.getTDCR()>0) {
-				dataGroups.getItem(sector,layer,component).getH1F("fadcHistRight").fill(
-				pad.tdcToTimeR() - pad.getADC_TIMER());
-			}
+		if (pad.getADC_TIMER()>0 && pad.getTDCR()>0) {
+			dataGroups.getItem(sector,layer,component).getH1F("fadcHistRight").fill(
+			pad.tdcToTimeR() - pad.getADC_TIMER());
 		}
 	}  
 	
@@ -3,6 +3,8 @@ package org.jlab.calib.services;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
@@ -24,7 +26,6 @@ import static org.jlab.calib.services.TOFCalibrationEngine.NUM_PADDLES;
 
 import org.jlab.detector.calib.tasks.CalibrationEngine;
 import org.jlab.detector.calib.utils.CalibrationConstants;
-import org.jlab.detector.calib.utils.DatabaseConstantProvider;
 import org.jlab.groot.data.GraphErrors;
 import org.jlab.groot.data.H1F;
 import org.jlab.groot.fitter.DataFitter;
@@ -77,6 +78,13 @@ public class TofHVEventListener extends TOFCalibrationEngine {
 
 	private boolean[][][] isFitValid = new boolean[6][3][62];
 
+	// histograms filled for each hit, indexed by paddle number
+	private H1F[] geoMeanHists = new H1F[TOFConstantSnapshot.MAX_PADDLES];
+	private H1F[] logRatioHists = new H1F[TOFConstantSnapshot.MAX_PADDLES];
+
+	// geometric mean fit parameters kept between fits
+	private TOFFitSeeds gmSeeds = new TOFFitSeeds();
+
 	public TofHVEventListener() {
 
 		stepName = "HV";
@@ -92,17 +100,7 @@ public class TofHVEventListener extends TOFCalibrationEngine {
 		calib.setPrecision(3); // record calibration constants to 3 dp
 
 		// initialize the counter status
-		for (int sector=1; sector<=6; sector++) {
-			for (int layer=1; layer<=3; layer++) {
-				int layer_index = layer - 1;
-				for (int paddle = 1; paddle <= NUM_PADDLES[layer_index]; paddle++) {
-					adcLeftStatus.add(1, sector, layer, paddle);
-					adcRightStatus.add(1, sector, layer, paddle);
-					tdcLeftStatus.add(1, sector, layer, paddle);
-					tdcRightStatus.add(1, sector, layer, paddle);
-				}
-			}
-		}
+		counterStatus.reset();
 	}
 	
 	public void setConstraints() {
@@ -188,9 +186,7 @@ public class TofHVEventListener extends TOFCalibrationEngine {
 		}
 		else if (calDBSource==CAL_DB) {
 			System.out.println("Database Run No: "+prevCalRunNo);
-			DatabaseConstantProvider dcp = new DatabaseConstantProvider(prevCalRunNo, "default");
-			gainValues = dcp.readConstants("/calibration/ftof/gain_balance");
-			dcp.disconnect();
+			gainValues = TOFConstantFile.readConstants(prevCalRunNo, "/calibration/ftof/gain_balance");
 		}
 		prevCalRead = true;
 		System.out.println(stepName+" previous calibration values populated successfully");
@@ -220,6 +216,8 @@ public class TofHVEventListener extends TOFCalibrationEngine {
 							histTitle(sector,layer,paddle), 
 							300,-6.0,6.0);
 					logRatioHist.setName("logratio");
+					geoMeanHists[TOFConstantSnapshot.index(sector, layer, paddle)] = geoMeanHist;
+					logRatioHists[TOFConstantSnapshot.index(sector, layer, paddle)] = logRatioHist;
 
 					// create all the functions
 					F1D gmFunc = new F1D("gmFunc", "[amp]*landau(x,[mean],[sigma]) +[exp_amp]*exp([p]*x)",
@@ -248,6 +246,32 @@ public class TofHVEventListener extends TOFCalibrationEngine {
 		}
 	}
 
+	@Override
+	public void copyConfig(TOFCalibrationEngine engine) {
+		super.copyConfig(engine);
+		TofHVEventListener hvEngine = (TofHVEventListener) engine;
+		EXPECTED_MIP_CHANNEL = hvEngine.EXPECTED_MIP_CHANNEL.clone();
+		NEWHV_MIP_CHANNEL = hvEngine.NEWHV_MIP_CHANNEL.clone();
+	}
+
+	@Override
+	public void merge(TOFCalibrationEngine engine) {
+		super.merge(engine);
+		addHist(hvStatHist, ((TofHVEventListener) engine).hvStatHist);
+	}
+
+	@Override
+	public void writeCheckpoint(DataOutputStream out) throws IOException {
+		super.writeCheckpoint(out);
+		TOFCheckpoint.writeHist(out, hvStatHist);
+	}
+
+	@Override
+	public void readCheckpoint(DataInputStream in) throws IOException {
+		super.readCheckpoint(in);
+		TOFCheckpoint.readHist(in, hvStatHist);
+	}
+
 	@Override
 	public void processEvent(DataEvent event) {
 
@@ -258,39 +282,37 @@ public class TofHVEventListener extends TOFCalibrationEngine {
 	}
 
 	@Override
-	public void processPaddleList(List<TOFPaddle> paddleList) {
-
-		//System.out.println("HV Process paddle list");
-
-		for (TOFPaddle paddle : paddleList) {
+	public boolean isFusable() {
+		return true;
+	}
 
-			int sector = paddle.getDescriptor().getSector();
-			int layer = paddle.getDescriptor().getLayer();
-			int component = paddle.getDescriptor().getComponent();
+	// goodTrackFound is checked for each hit, which needs the REC particle banks
+	@Override
+	public String[] getRequiredBanks() {
+		return TOFEventBanks.OPTIONAL_BANKS;
+	}
 
-			//System.out.println("HV paddle "+sector+layer+component+" geoMean "+paddle.geometricMean());
+	@Override
+	public void processPaddle(TOFPaddle paddle) {
+		int sector = paddle.getDescriptor().getSector();
+		int layer = paddle.getDescriptor().getLayer();
+		int idx = paddle.getPaddleIndex();
 
-			if (paddle.isValidGeoMean() && paddle.geometricMean() > EXPECTED_MIP_CHANNEL[layer-1] * 0.25) {
+		if (paddle.isValidGeoMean() && paddle.geometricMean() > EXPECTED_MIP_CHANNEL[layer-1] * 0.25) {
 
-				if (TOFCalibration.pathNorm == TOFCalibration.PATH_NORM_NO) {
-					dataGroups.getItem(sector,layer,component).getH1F("geomean").fill(paddle.geometricMean());
-					hvStatHist.fill(((layer-1)*10)+sector);
-					//System.out.println("Filling with geometricMean "+paddle.geometricMean());
-					//paddle.show();
-				}
-				else {
-					if (paddle.goodTrackFound()) {
-						dataGroups.getItem(sector,layer,component).getH1F("geomean").fill(paddle.geometricMeanNorm());
-						//System.out.println("Filling with geometricMeanNorm "+paddle.geometricMeanNorm());
-						//paddle.show();
-					}
-				}
+			if (TOFCalibration.pathNorm == TOFCalibration.PATH_NORM_NO) {
+				geoMeanHists[idx].fill(paddle.geometricMean());
+				hvStatHist.fill(((layer-1)*10)+sector);
 			}
-
-			if (paddle.isValidLogRatio()) {
-				dataGroups.getItem(sector,layer,component).getH1F("logratio").fill(paddle.logRatio());
+			else {
+				if (paddle.goodTrackFound()) {
+					geoMeanHists[idx].fill(paddle.geometricMeanNorm());
+				}
 			}
+		}
 
+		if (paddle.isValidLogRatio()) {
+			logRatioHists[idx].fill(paddle.logRatio());
 		}
 	}	
 
@@ -390,17 +412,31 @@ public class TofHVEventListener extends TOFCalibrationEngine {
 		F1D gmFunc = dataGroups.getItem(sector,layer,paddle).getF1D("gmFunc");
 		gmFunc.setRange(startChannelForFit, endChannelForFit);
 
-		gmFunc.setParameter(0, maxCounts*0.8);
 		gmFunc.setParLimits(0, maxCounts*0.5, maxCounts*1.2);
-		gmFunc.setParameter(1, maxPos);
-		gmFunc.setParameter(2, 200.0);
 		gmFunc.setParLimits(2, 0.0,400.0);
-		gmFunc.setParameter(3, maxCounts*0.5);
-		gmFunc.setParameter(4, -0.001);
+		double[] gmMin = {maxCounts*0.5, Double.NEGATIVE_INFINITY, 0.0};
+		double[] gmMax = {maxCounts*1.2, Double.POSITIVE_INFINITY, 400.0};
+		setGeoMeanStart(gmFunc, maxCounts, maxPos);
+
+		// start the peak shape from the last fit of this paddle, or the peak from the previous calibration
+		boolean seeded = gmSeeds.apply(gmFunc, sector, layer, paddle, 1, 2, 4);
+		if (!seeded && TOFFitSeeds.enabled) {
+			double prevMip = gainValues.getDoubleValue("mipa_left", sector, layer, paddle);
+			if (prevMip > startChannelForFit && prevMip < endChannelForFit) {
+				gmFunc.setParameter(1, prevMip);
+				seeded = true;
+			}
+		}
 
 		try {	
-			DataFitter.fit(gmFunc, h, "RQ");
+			TOFFastFitter.fitPeak(gmFunc, h, startChannelForFit, endChannelForFit, gmMin, gmMax, "RQ");
+			if (seeded && !gmFunc.isFitValid()) {
+				// start again from the histogram maximum
+				setGeoMeanStart(gmFunc, maxCounts, maxPos);
+				TOFFastFitter.fitPeak(gmFunc, h, startChannelForFit, endChannelForFit, gmMin, gmMax, "RQ");
+			}
 			this.isFitValid[sector-1][layer-1][paddle-1] = gmFunc.isFitValid();
+			gmSeeds.put(sector, layer, paddle, gmFunc, gmFunc.isFitValid());
 
 		} catch (Exception e) {
 			System.out.println("Fit error with sector "+sector+" layer "+layer+" paddle "+paddle);
@@ -415,6 +451,14 @@ public class TofHVEventListener extends TOFCalibrationEngine {
 
 	}
 
+	private void setGeoMeanStart(F1D gmFunc, double maxCounts, double maxPos) {
+		gmFunc.setParameter(0, maxCounts*0.8);
+		gmFunc.setParameter(1, maxPos);
+		gmFunc.setParameter(2, 200.0);
+		gmFunc.setParameter(3, maxCounts*0.5);
+		gmFunc.setParameter(4, -0.001);
+	}
+
 	public void fitLogRatio(int sector, int layer, int paddle,
 			double minRange, double maxRange){
 
@@ -951,37 +995,16 @@ public class TofHVEventListener extends TOFCalibrationEngine {
 			FileWriter outputFw = new FileWriter(outputFile.getAbsoluteFile());
 			BufferedWriter outputBw = new BufferedWriter(outputFw);
 
+			counterStatus.setThresholds();
 			for (int sector = 1; sector <= 6; sector++) {
 				for (int layer = 1; layer <= 3; layer++) {
 					int layer_index = layer - 1;
 					for (int paddle = 1; paddle <= NUM_PADDLES[layer_index]; paddle++) {
 
-						int adcLStat = adcLeftStatus.getItem(sector,layer,paddle);
-						int adcRStat = adcRightStatus.getItem(sector,layer,paddle);
-						int tdcLStat = tdcLeftStatus.getItem(sector,layer,paddle);
-						int tdcRStat = tdcRightStatus.getItem(sector,layer,paddle);                    
-						int counterStatusLeft = 0;
-						int counterStatusRight = 0;
-
-						if (adcLStat==1 && tdcLStat==1) {
-							counterStatusLeft = 3;
-						}
-						else if (adcLStat==1) {
-							counterStatusLeft = 1;
-						}
-						else if (tdcLStat==1) {
-							counterStatusLeft = 2;
-						}
-
-						if (adcRStat==1 && tdcRStat==1) {
-							counterStatusRight = 3;
-						}
-						else if (adcRStat==1) {
-							counterStatusRight = 1;
-						}
-						else if (tdcRStat==1) {
-							counterStatusRight = 2;
-						}
+						int counterStatusLeft = counterStatus.getStatus(TOFCounterStatus.ADC_LEFT,
+								TOFCounterStatus.TDC_LEFT, sector, layer, paddle);
+						int counterStatusRight = counterStatus.getStatus(TOFCounterStatus.ADC_RIGHT,
+								TOFCounterStatus.TDC_RIGHT, sector, layer, paddle);
 
 						String line = sector+" "+layer+" "+paddle+" "+
 								counterStatusLeft+" "+counterStatusRight+" ";
@@ -25,7 +25,6 @@ import org.jlab.detector.calib.tasks.CalibrationEngine;
 import org.jlab.detector.calib.utils.CalibrationConstants;
 import org.jlab.detector.calib.utils.CalibrationConstantsListener;
 import org.jlab.detector.calib.utils.CalibrationConstantsView;
-import org.jlab.detector.calib.utils.DatabaseConstantProvider;
 import org.jlab.detector.decode.CodaEventDecoder;
 import org.jlab.detector.decode.DetectorDataDgtz;
 import org.jlab.detector.decode.DetectorDecoderView;
@@ -146,9 +145,7 @@ public class TofLeftRightEventListener extends TOFCalibrationEngine {
 		}
 		else if (calDBSource==CAL_DB) {
 			System.out.println("Database Run No: "+prevCalRunNo);
-			DatabaseConstantProvider dcp = new DatabaseConstantProvider(prevCalRunNo, "default");
-			leftRightValues = dcp.readConstants("/calibration/ftof/time_offsets");
-			dcp.disconnect();
+			leftRightValues = TOFConstantFile.readConstants(prevCalRunNo, "/calibration/ftof/time_offsets");
 		}
 		prevCalRead = true;
 		System.out.println(stepName+" previous calibration values populated successfully");
@@ -214,22 +211,28 @@ public class TofLeftRightEventListener extends TOFCalibrationEngine {
 	}
 
 	@Override
-	public void processPaddleList(List<TOFPaddle> paddleList) {
+	public boolean isFusable() {
+		return true;
+	}
 
-		for (TOFPaddle paddle : paddleList) {
+	// goodTrackFound is checked for each hit, which needs the REC particle banks
+	@Override
+	public String[] getRequiredBanks() {
+		return TOFEventBanks.OPTIONAL_BANKS;
+	}
 
-			int sector = paddle.getDescriptor().getSector();
-			int layer = paddle.getDescriptor().getLayer();
-			int component = paddle.getDescriptor().getComponent();
+	@Override
+	public void processPaddle(TOFPaddle paddle) {
+		int sector = paddle.getDescriptor().getSector();
+		int layer = paddle.getDescriptor().getLayer();
+		int component = paddle.getDescriptor().getComponent();
 
-			dataGroups.getItem(sector,layer,component).getH1F("tdc_left_right").fill(
-					paddle.leftRight());
-		
-			if (paddle.goodTrackFound()) {
-				dataGroups.getItem(sector,layer,component).getH1F("left_right").fill(
-						2.0*(paddle.veffHalfTimeDiff() - paddle.paddleY()/paddle.veff()));
-			}
-		
+		dataGroups.getItem(sector,layer,component).getH1F("tdc_left_right").fill(
+				paddle.leftRight());
+
+		if (paddle.goodTrackFound()) {
+			dataGroups.getItem(sector,layer,component).getH1F("left_right").fill(
+					2.0*(paddle.veffHalfTimeDiff() - paddle.paddleY()/paddle.veff()));
 		}
 	}
 	
@@ -271,7 +274,8 @@ public class TofLeftRightEventListener extends TOFCalibrationEngine {
 		
 		if (lrHist.getEntries() > 50) {
 			try {
-				DataFitter.fit(lrFunc, lrHist, fitOption);
+				TOFFastFitter.fitGaus(lrFunc, lrHist, lowLimit, highLimit,
+						lrHist.getBinContent(maxBin)*0.7, lrHist.getBinContent(maxBin)*1.2, fitOption);
 				this.isFitValid[sector-1][layer-1][paddle-1] = lrFunc.isFitValid();
 			}
 			catch(Exception ex) {
@@ -432,6 +436,11 @@ public class TofLeftRightEventListener extends TOFCalibrationEngine {
 		
 	}
 
+	@Override
+	public double updatePrevCalib() {
+		return copyToPrev(leftRightValues, "left_right", "left_right");
+	}
+
 	@Override
 	public void saveRow(int sector, int layer, int paddle) {
 		calib.setDoubleValue(getCentroid(sector,layer,paddle),
@@ -7,12 +7,12 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import javax.swing.JOptionPane;
 
 import org.jlab.detector.calib.utils.CalibrationConstants;
-import org.jlab.detector.calib.utils.DatabaseConstantProvider;
 import org.jlab.groot.data.GraphErrors;
 import org.jlab.groot.data.H1F;
 import org.jlab.groot.data.H2F;
@@ -34,6 +34,24 @@ public class TofP2PEventListener extends TOFCalibrationEngine {
 
 	//private String showPlotType = "VERTEX_DT";
 
+	// fill each paddle against the mean start time of the other tracks in the event
+	// rather than against each of them, one entry per hit instead of one per pair
+	public static boolean eventMeanMode = false;
+
+	private H1F[] vertexDiffHists = new H1F[TOFConstantSnapshot.MAX_PADDLES];
+
+	// good track hits of the current event
+	private int nHits = 0;
+	private int[] hitPaddle = new int[64];
+	private int[] hitTrack = new int[64];
+	private double[] hitTime = new double[64];
+
+	// sums of the start times by paddle and by track for the event mean mode
+	private double[] paddleSum = new double[TOFConstantSnapshot.MAX_PADDLES];
+	private int[] paddleCount = new int[TOFConstantSnapshot.MAX_PADDLES];
+	private double[] trackSum = new double[64];
+	private int[] trackCount = new int[64];
+
 	public TofP2PEventListener() {
 
 		stepName = "P2P";
@@ -121,9 +139,7 @@ public class TofP2PEventListener extends TOFCalibrationEngine {
 		}
 		else if (calDBSource==CAL_DB) {
 			System.out.println("Database Run No: "+prevCalRunNo);
-			DatabaseConstantProvider dcp = new DatabaseConstantProvider(prevCalRunNo, "default");
-			p2pValues = dcp.readConstants("/calibration/ftof/time_offsets");
-			dcp.disconnect();
+			p2pValues = TOFConstantFile.readConstants(prevCalRunNo, "/calibration/ftof/time_offsets");
 		}
 		prevCalRead = true;
 		System.out.println(stepName+" previous calibration values populated successfully");
@@ -158,6 +174,7 @@ public class TofP2PEventListener extends TOFCalibrationEngine {
 					dg.addDataSet(vertexDiffHist, 0);
 
 					dataGroups.add(dg,sector,layer,paddle);    
+					vertexDiffHists[TOFConstantSnapshot.index(sector, layer, paddle)] = vertexDiffHist;
 
 					// initialize the constants array
 					Double[] consts = {UNDEFINED_OVERRIDE};
@@ -177,35 +194,100 @@ public class TofP2PEventListener extends TOFCalibrationEngine {
 
 	}
 
+	// goodTrackFound is checked for each hit, which needs the REC particle banks
+	@Override
+	public String[] getRequiredBanks() {
+		return TOFEventBanks.OPTIONAL_BANKS;
+	}
+
 	@Override
 	public void processPaddleList(List<TOFPaddle> paddleList) {
 
-		for (TOFPaddle currentPad : paddleList) {
+		nHits = 0;
+		for (TOFPaddle pad : paddleList) {
+			if (pad.goodTrackFound() && pad.getPaddleIndex() != 0 && pad.getTRACK_ID() >= 0) {
+				countHit(pad);
+				addHit(pad.getPaddleIndex(), pad.getTRACK_ID(), pad.startTimeP2PCorr());
+			}
+		}
+		if (nHits < 2) {
+			return;
+		}
+
+		if (eventMeanMode) {
+			fillEventMean();
+		}
+		else {
+			fillPairs();
+		}
+	}
 
-			if (currentPad.goodTrackFound()) {
-				int sector = currentPad.getDescriptor().getSector();
-				int layer = currentPad.getDescriptor().getLayer();
-				int component = currentPad.getDescriptor().getComponent();
+	private void addHit(int paddle, int track, double time) {
+		if (nHits == hitPaddle.length) {
+			hitPaddle = Arrays.copyOf(hitPaddle, nHits * 2);
+			hitTrack = Arrays.copyOf(hitTrack, nHits * 2);
+			hitTime = Arrays.copyOf(hitTime, nHits * 2);
+		}
+		hitPaddle[nHits] = paddle;
+		hitTrack[nHits] = track;
+		hitTime[nHits] = time;
+		nHits++;
+	}
 
-				for (TOFPaddle otherPad : paddleList) {
+	// every pair of hits in different paddles from different tracks, filled in both paddles
+	private void fillPairs() {
+		for (int i = 0; i < nHits; i++) {
+			for (int j = i + 1; j < nHits; j++) {
+				if (hitPaddle[i] != hitPaddle[j] && hitTrack[i] != hitTrack[j]) {
+					double dt = hitTime[i] - hitTime[j];
+					vertexDiffHists[hitPaddle[i]].fill(dt);
+					vertexDiffHists[hitPaddle[j]].fill(-dt);
+				}
+			}
+		}
+	}
 
-					if (otherPad.goodTrackFound() 
-							&& otherPad.paddleNumber() != currentPad.paddleNumber()
-							&& otherPad.getTRACK_ID() != currentPad.getTRACK_ID()) {
+	// each hit against the mean of the hits in other paddles from other tracks
+	// a track is assumed to give at most one hit in a paddle
+	private void fillEventMean() {
 
-						dataGroups.getItem(sector,layer,component).getH1F("vertexDiffHist").fill(
-								currentPad.startTimeP2PCorr() - otherPad.startTimeP2PCorr());
+		double sum = 0.0;
+		for (int i = 0; i < nHits; i++) {
+			int track = hitTrack[i];
+			if (track >= trackSum.length) {
+				trackSum = Arrays.copyOf(trackSum, track * 2 + 1);
+				trackCount = Arrays.copyOf(trackCount, track * 2 + 1);
+			}
+			paddleSum[hitPaddle[i]] += hitTime[i];
+			paddleCount[hitPaddle[i]]++;
+			trackSum[track] += hitTime[i];
+			trackCount[track]++;
+			sum += hitTime[i];
+		}
 
-					}
-				}
+		for (int i = 0; i < nHits; i++) {
+			int paddle = hitPaddle[i];
+			int track = hitTrack[i];
+			int n = nHits - paddleCount[paddle] - trackCount[track] + 1;
+			if (n > 0) {
+				double otherSum = sum - paddleSum[paddle] - trackSum[track] + hitTime[i];
+				vertexDiffHists[paddle].fill(hitTime[i] - otherSum / n);
 			}
 		}
-	}    
+
+		// only reset the entries used in this event
+		for (int i = 0; i < nHits; i++) {
+			paddleSum[hitPaddle[i]] = 0.0;
+			paddleCount[hitPaddle[i]] = 0;
+			trackSum[hitTrack[i]] = 0.0;
+			trackCount[hitTrack[i]] = 0;
+		}
+	}
 
 	@Override
 	public void timerUpdate() {
 		// don't analyze until the end or it will mess up the fine hists
-		save();
+		saveRows();
 		calib.fireTableDataChanged();
 	}
 
@@ -273,6 +355,11 @@ public class TofP2PEventListener extends TOFCalibrationEngine {
 		return newOffset;
 	}    
 
+	@Override
+	public double updatePrevCalib() {
+		return copyToPrev(p2pValues, "paddle2paddle", "paddle2paddle");
+	}
+
 	@Override
 	public void saveRow(int sector, int layer, int paddle) {
 
@@ -90,6 +90,12 @@ public class TofRFEventListener extends TOFCalibrationEngine {
 
 	}
 
+	// goodTrackFound is checked for each hit, which needs the REC particle banks
+	@Override
+	public String[] getRequiredBanks() {
+		return TOFEventBanks.OPTIONAL_BANKS;
+	}
+
 	@Override
 	public void processPaddleList(List<TOFPaddle> paddleList) {
 
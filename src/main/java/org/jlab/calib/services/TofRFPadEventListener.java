@@ -3,6 +3,8 @@ package org.jlab.calib.services;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
@@ -16,7 +18,6 @@ import javax.swing.JOptionPane;
 
 import org.jlab.calib.services.ctof.CTOFCalibrationEngine;
 import org.jlab.detector.calib.utils.CalibrationConstants;
-import org.jlab.detector.calib.utils.DatabaseConstantProvider;
 import org.jlab.groot.data.GraphErrors;
 import org.jlab.groot.data.H1F;
 import org.jlab.groot.data.H2F;
@@ -39,6 +40,19 @@ public class TofRFPadEventListener extends TOFCalibrationEngine {
 
 	private String fitOption = "RQ";	
 
+	// histograms filled for each hit, indexed by paddle number
+	private H1F[] rawHists = new H1F[TOFConstantSnapshot.MAX_PADDLES];
+
+	// publish the circular mean and sigma of each paddle at each timer update
+	// instead of fitting, the fit is still done for the final values (Live RF pad offsets in the GUI)
+	public static boolean circularStats = false;
+
+	private TOFCircularStats stats = new TOFCircularStats(TOFConstantSnapshot.MAX_PADDLES, BEAM_BUCKET);
+	private boolean[] fitDone = new boolean[TOFConstantSnapshot.MAX_PADDLES];
+
+	// fit parameters kept between fits
+	private TOFFitSeeds fineSeeds = new TOFFitSeeds();
+
 	public TofRFPadEventListener() {
 
 		stepName = "RF paddle";
@@ -134,9 +148,7 @@ public class TofRFPadEventListener extends TOFCalibrationEngine {
 		}
 		else if (calDBSource==CAL_DB) {
 			System.out.println("Database Run No: "+prevCalRunNo);
-			DatabaseConstantProvider dcp = new DatabaseConstantProvider(prevCalRunNo, "default");
-			rfpadValues = dcp.readConstants("/calibration/ftof/time_offsets");
- 			dcp.disconnect();
+			rfpadValues = TOFConstantFile.readConstants(prevCalRunNo, "/calibration/ftof/time_offsets");
 		}
 		prevCalRead = true;
 		System.out.println(stepName+" previous calibration values populated successfully");
@@ -155,6 +167,8 @@ public class TofRFPadEventListener extends TOFCalibrationEngine {
 		
 		double bb = BEAM_BUCKET;
 		int bins = (int) (bb/2.004)*160;
+		stats = new TOFCircularStats(TOFConstantSnapshot.MAX_PADDLES, bb);
+		fitDone = new boolean[TOFConstantSnapshot.MAX_PADDLES];
 
 		for (int sector = 1; sector <= 6; sector++) {
 			for (int layer = 1; layer <= 3; layer++) {
@@ -169,6 +183,7 @@ public class TofRFPadEventListener extends TOFCalibrationEngine {
 									bins, -bb, bb);
 					fineHistRaw.setTitleX("RF time - vertex time modulo beam bucket (ns)");
 					dg.addDataSet(fineHistRaw, 0);
+					rawHists[TOFConstantSnapshot.index(sector, layer, paddle)] = fineHistRaw;
 
 					H1F fineHist = 
 							new H1F("fineHist",histTitle(sector, layer, paddle),
@@ -203,23 +218,57 @@ public class TofRFPadEventListener extends TOFCalibrationEngine {
 	}
 
 	@Override
-	public void processPaddleList(List<TOFPaddle> paddleList) {
-
-		for (TOFPaddle pad : paddleList) {
-
-			int sector = pad.getDescriptor().getSector();
-			int layer = pad.getDescriptor().getLayer();
-			int component = pad.getDescriptor().getComponent();
+	public boolean isFusable() {
+		return true;
+	}
 
-			//if (sector == 1 && layer==2 && component==10)	pad.show();
+	@Override
+	public boolean requiresGoodTrack() {
+		return true;
+	}
 
-			if (pad.goodTrackFound()) {
-				
-				dataGroups.getItem(sector,layer,component).getH1F("fineHistRaw").fill(
-						(pad.refTimeTWPosCorr()+(1000*BEAM_BUCKET) + (0.5*BEAM_BUCKET))%BEAM_BUCKET - 0.5*BEAM_BUCKET);
-			}
+	@Override
+	public void processPaddle(TOFPaddle pad) {
+		double time = (pad.refTimeTWPosCorr()+(1000*BEAM_BUCKET) + (0.5*BEAM_BUCKET))%BEAM_BUCKET - 0.5*BEAM_BUCKET;
+		rawHists[pad.getPaddleIndex()].fill(time);
+		if (circularStats) {
+			stats.fill(pad.getPaddleIndex(), time);
 		}
 	}  
+
+	@Override
+	public void timerUpdate() {
+		if (circularStats) {
+			saveRows();
+			calib.fireTableDataChanged();
+		}
+		else {
+			updateChanged();
+		}
+	}
+
+	@Override
+	public void merge(TOFCalibrationEngine engine) {
+		super.merge(engine);
+		stats.add(((TofRFPadEventListener) engine).stats);
+	}
+
+	@Override
+	public void writeCheckpoint(DataOutputStream out) throws IOException {
+		super.writeCheckpoint(out);
+		stats.write(out);
+	}
+
+	@Override
+	public void readCheckpoint(DataInputStream in) throws IOException {
+		super.readCheckpoint(in);
+		stats.read(in);
+	}
+
+	// use the circular statistics until the paddle has been fitted
+	private boolean useStats(int sector, int layer, int paddle) {
+		return circularStats && !fitDone[TOFConstantSnapshot.index(sector, layer, paddle)];
+	}
 	
 	private double minSigma(int layer, int paddle) {
 		
@@ -244,6 +293,7 @@ public class TofRFPadEventListener extends TOFCalibrationEngine {
 
 		H1F rawHist = dataGroups.getItem(sector,layer,paddle).getH1F("fineHistRaw");
 		H1F fineHist = dataGroups.getItem(sector,layer,paddle).getH1F("fineHist");
+		fitDone[TOFConstantSnapshot.index(sector, layer, paddle)] = true;
 		
 		// move the histogram content to +/- half beam bucket around the peak
 		fineHist.reset();
@@ -297,14 +347,28 @@ public class TofRFPadEventListener extends TOFCalibrationEngine {
 		}
 
 		fineFunc.setRange(lowLimit, highLimit);
-		fineFunc.setParameter(0, fineHist.getBinContent(maxBin));
 		fineFunc.setParLimits(0, fineHist.getBinContent(maxBin)*0.7, fineHist.getBinContent(maxBin)*1.2);
-		fineFunc.setParameter(1, maxPos);
-		fineFunc.setParameter(2, 0.1);
 		fineFunc.setParLimits(2, minSigma(layer,paddle), 1.0);
+		// limits for the gaussian, the linear background is free
+		double[] fineMin = {fineHist.getBinContent(maxBin)*0.7, Double.NEGATIVE_INFINITY, minSigma(layer,paddle)};
+		double[] fineMax = {fineHist.getBinContent(maxBin)*1.2, Double.POSITIVE_INFINITY, 1.0};
+		setFineStart(fineFunc, fineHist.getBinContent(maxBin), maxPos);
+
+		// start the mean and sigma from the last fit of this paddle if the peak is still in the fit range
+		boolean seeded = fineSeeds.apply(fineFunc, sector, layer, paddle, 1, 2);
+		if (seeded && (fineFunc.getParameter(1) < lowLimit || fineFunc.getParameter(1) > highLimit)) {
+			setFineStart(fineFunc, fineHist.getBinContent(maxBin), maxPos);
+			seeded = false;
+		}
 
 		try {
-			DataFitter.fit(fineFunc, fineHist, fitOption);
+			TOFFastFitter.fitPeak(fineFunc, fineHist, lowLimit, highLimit, fineMin, fineMax, fitOption);
+			if (seeded && !fineFunc.isFitValid()) {
+				// start again from the histogram maximum
+				setFineStart(fineFunc, fineHist.getBinContent(maxBin), maxPos);
+				TOFFastFitter.fitPeak(fineFunc, fineHist, lowLimit, highLimit, fineMin, fineMax, fitOption);
+			}
+			fineSeeds.put(sector, layer, paddle, fineFunc, fineFunc.isFitValid());
 			//fineHist.setTitle(fineHist.getTitle() + " Fine offset = " + formatDouble(fineFunc.getParameter(1)));
 		}
 		catch(Exception ex) {
@@ -324,6 +388,12 @@ public class TofRFPadEventListener extends TOFCalibrationEngine {
 
 	}
 
+	private void setFineStart(F1D fineFunc, double maxCounts, double maxPos) {
+		fineFunc.setParameter(0, maxCounts);
+		fineFunc.setParameter(1, maxPos);
+		fineFunc.setParameter(2, 0.1);
+	}
+
 	private Double formatDouble(double val) {
 		return Double.parseDouble(new DecimalFormat("0.000").format(val));
 	}
@@ -387,6 +457,9 @@ public class TofRFPadEventListener extends TOFCalibrationEngine {
 		if (overrideVal != UNDEFINED_OVERRIDE) {
 			offset = overrideVal;
 		}
+		else if (useStats(sector, layer, paddle)) {
+			offset = stats.getMean(TOFConstantSnapshot.index(sector, layer, paddle));
+		}
 		else {
 			F1D fineFunc = dataGroups.getItem(sector,layer,paddle).getF1D("fineFunc");
 			H1F rawHist = dataGroups.getItem(sector,layer,paddle).getH1F("fineHistRaw");
@@ -407,6 +480,11 @@ public class TofRFPadEventListener extends TOFCalibrationEngine {
 		if (overrideVal != UNDEFINED_OVERRIDE) {
 			sigma = overrideVal;
 		}
+		else if (useStats(sector, layer, paddle)) {
+			// background under the peak removed, as the fit does with its background terms
+			int p = TOFConstantSnapshot.index(sector, layer, paddle);
+			sigma = stats.getSigma(p, stats.getBackground(p, rawHists[p]));
+		}
 		else {
 			F1D fineFunc = dataGroups.getItem(sector,layer,paddle).getF1D("fineFunc");
 			sigma = fineFunc.getParameter(2);
@@ -415,6 +493,11 @@ public class TofRFPadEventListener extends TOFCalibrationEngine {
 	}    
 	
 
+	@Override
+	public double updatePrevCalib() {
+		return copyToPrev(rfpadValues, "rfpad", "rfpad");
+	}
+
 	@Override
 	public void saveRow(int sector, int layer, int paddle) {
 		
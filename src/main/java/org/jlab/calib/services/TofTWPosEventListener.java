@@ -21,7 +21,6 @@ import org.jlab.detector.calib.tasks.CalibrationEngine;
 import org.jlab.detector.calib.utils.CalibrationConstants;
 import org.jlab.detector.calib.utils.CalibrationConstantsListener;
 import org.jlab.detector.calib.utils.CalibrationConstantsView;
-import org.jlab.detector.calib.utils.DatabaseConstantProvider;
 import org.jlab.detector.decode.CodaEventDecoder;
 import org.jlab.detector.decode.DetectorDataDgtz;
 import org.jlab.detector.decode.DetectorDecoderView;
@@ -148,9 +147,7 @@ public class TofTWPosEventListener extends TOFCalibrationEngine {
 		}
 		else if (calDBSource==CAL_DB) {
 			System.out.println("Database Run No: "+prevCalRunNo);
-			DatabaseConstantProvider dcp = new DatabaseConstantProvider(prevCalRunNo, "default");
-			twposValues = dcp.readConstants("/calibration/ftof/time_walk_pos");
-			dcp.disconnect();
+			twposValues = TOFConstantFile.readConstants(prevCalRunNo, "/calibration/ftof/time_walk_pos");
 		}
 		prevCalRead = true;
 		System.out.println(stepName+" previous calibration values populated successfully");
@@ -222,32 +219,32 @@ public class TofTWPosEventListener extends TOFCalibrationEngine {
 	}
 
 	@Override
-	public void processPaddleList(List<TOFPaddle> paddleList) {
-
-		for (TOFPaddle paddle : paddleList) {
-
-			int sector = paddle.getDescriptor().getSector();
-			int layer = paddle.getDescriptor().getLayer();
-			int component = paddle.getDescriptor().getComponent();
+	public boolean isFusable() {
+		return true;
+	}
 
-			if (paddle.goodTrackFound()) {
+	@Override
+	public boolean requiresGoodTrack() {
+		return true;
+	}
 
-				dataGroups.getItem(sector,layer,component).getH2F("twposHist").fill(
-						 paddle.paddleY(),
-						 (paddle.refTimeRFCorr()+(1000*BEAM_BUCKET) + (0.5*BEAM_BUCKET))%BEAM_BUCKET - 0.5*BEAM_BUCKET);
-				
-			}
-		}
+	@Override
+	public void processPaddle(TOFPaddle paddle) {
+		int sector = paddle.getDescriptor().getSector();
+		int layer = paddle.getDescriptor().getLayer();
+		int component = paddle.getDescriptor().getComponent();
+
+		dataGroups.getItem(sector,layer,component).getH2F("twposHist").fill(
+				 paddle.paddleY(),
+				 (paddle.refTimeRFCorr()+(1000*BEAM_BUCKET) + (0.5*BEAM_BUCKET))%BEAM_BUCKET - 0.5*BEAM_BUCKET);
 	}
 	
 	@Override
 	public void timerUpdate() {
-		if (fitMethod!=FIT_METHOD_SF) {
-			// only analyze at end of file for slice fitter - takes too long
-			analyze();
+		if (fitMethod!=FIT_METHOD_SF || liveSliceFits) {
+			// only analyze at end of file for slice fitter unless live slice fits are on - takes too long
+			updateChanged();
 		}
-		save();
-		calib.fireTableDataChanged();
 	}	
 
 	@Override
@@ -285,7 +282,7 @@ public class TofTWPosEventListener extends TOFCalibrationEngine {
 			psfL.setFitMode(fitMode);
 			psfL.setMinEvents(fitMinEvents);
 			psfL.setBackgroundOrder(backgroundSF);
-			psfL.setNthreads(1);
+			psfL.setNthreads(sliceFitThreads());
 			setOutput(false);
 			psfL.fitSlicesX();
 			setOutput(true);
@@ -22,7 +22,6 @@ import org.jlab.detector.calib.tasks.CalibrationEngine;
 import org.jlab.detector.calib.utils.CalibrationConstants;
 import org.jlab.detector.calib.utils.CalibrationConstantsListener;
 import org.jlab.detector.calib.utils.CalibrationConstantsView;
-import org.jlab.detector.calib.utils.DatabaseConstantProvider;
 import org.jlab.detector.decode.CodaEventDecoder;
 import org.jlab.detector.decode.DetectorDataDgtz;
 import org.jlab.detector.decode.DetectorDecoderView;
@@ -168,9 +167,7 @@ public class TofTdcConvEventListener extends TOFCalibrationEngine {
         }
         else if (calDBSource==CAL_DB) {
         	System.out.println("Database Run No: "+prevCalRunNo);
-            DatabaseConstantProvider dcp = new DatabaseConstantProvider(prevCalRunNo, "default");
-            convValues = dcp.readConstants("/calibration/ftof/tdc_conv");
-            dcp.disconnect();
+            convValues = TOFConstantFile.readConstants(prevCalRunNo, "/calibration/ftof/tdc_conv");
         }
         prevCalRead = true;
 		System.out.println(stepName+" previous calibration values populated successfully");
@@ -250,6 +247,16 @@ public class TofTdcConvEventListener extends TOFCalibrationEngine {
         }
     }
 
+    @Override
+    public void copyConfig(TOFCalibrationEngine engine) {
+        super.copyConfig(engine);
+        TofTdcConvEventListener tdcEngine = (TofTdcConvEventListener) engine;
+        TDC_MIN = tdcEngine.TDC_MIN;
+        TDC_MAX = tdcEngine.TDC_MAX;
+        FIT_MIN = tdcEngine.FIT_MIN;
+        FIT_MAX = tdcEngine.FIT_MAX;
+    }
+
     @Override
     public void processEvent(DataEvent event) {
 
@@ -259,34 +266,36 @@ public class TofTdcConvEventListener extends TOFCalibrationEngine {
     }
 
     @Override
-    public void processPaddleList(List<TOFPaddle> paddleList) {
-    	
-         for (TOFPaddle paddle : paddleList) {
-
-            int sector = paddle.getDescriptor().getSector();
-            int layer = paddle.getDescriptor().getLayer();
-            int component = paddle.getDescriptor().getComponent();
+    public boolean isFusable() {
+        return true;
+    }
 
-            if (paddle.goodTrackFound() && paddle.getTDCL()!=0 && paddle.getTDCR()!=0) {
-                dataGroups.getItem(sector,layer,component).getH2F("tdcConvLeft").fill(
-                         paddle.getTDCL(), 
-                         (paddle.refTimeCorr()+(1000*BEAM_BUCKET) + (0.5*BEAM_BUCKET))%BEAM_BUCKET - 0.5*BEAM_BUCKET);
-                dataGroups.getItem(sector,layer,component).getH2F("tdcConvRight").fill(
-                        paddle.getTDCR(), 
-                        (paddle.refTimeCorr()+(1000*BEAM_BUCKET) + (0.5*BEAM_BUCKET))%BEAM_BUCKET - 0.5*BEAM_BUCKET);
+    @Override
+    public boolean requiresGoodTrack() {
+        return true;
+    }
 
-            }
+    @Override
+    public void processPaddle(TOFPaddle paddle) {
+        int sector = paddle.getDescriptor().getSector();
+        int layer = paddle.getDescriptor().getLayer();
+        int component = paddle.getDescriptor().getComponent();
+
+        if (paddle.getTDCL()!=0 && paddle.getTDCR()!=0) {
+            double dt = (paddle.refTimeCorr()+(1000*BEAM_BUCKET) + (0.5*BEAM_BUCKET))%BEAM_BUCKET - 0.5*BEAM_BUCKET;
+            dataGroups.getItem(sector,layer,component).getH2F("tdcConvLeft").fill(
+                     paddle.getTDCL(), dt);
+            dataGroups.getItem(sector,layer,component).getH2F("tdcConvRight").fill(
+                    paddle.getTDCR(), dt);
         }
     }
     
 	@Override
 	public void timerUpdate() {
-		if (fitMethod!=FIT_METHOD_SF) {
-			// only analyze at end of file for slice fitter - takes too long
-			analyze();
+		if (fitMethod!=FIT_METHOD_SF || liveSliceFits) {
+			// only analyze at end of file for slice fitter unless live slice fits are on - takes too long
+			updateChanged();
 		}
-		save();
-		calib.fireTableDataChanged();
 	}
 
     @Override
@@ -304,7 +313,7 @@ public class TofTdcConvEventListener extends TOFCalibrationEngine {
 			psfL.setFitMode(fitMode);
 			psfL.setMinEvents(fitMinEvents);
 			psfL.setBackgroundOrder(backgroundSF);
-			psfL.setNthreads(1);
+			psfL.setNthreads(sliceFitThreads());
 			//psfL.setShowProgress(false);
 			setOutput(false);
 			psfL.fitSlicesX();
@@ -318,7 +327,7 @@ public class TofTdcConvEventListener extends TOFCalibrationEngine {
 			psfR.setFitMode(fitMode);
 			psfR.setMinEvents(fitMinEvents);
 			psfR.setBackgroundOrder(backgroundSF);
-			psfR.setNthreads(1);
+			psfR.setNthreads(sliceFitThreads());
 			//psfR.setShowProgress(false);
 			setOutput(false);
 			psfR.fitSlicesX();
@@ -364,7 +373,7 @@ public class TofTdcConvEventListener extends TOFCalibrationEngine {
         convFuncLeft.setParameter(0, 0.0);
         convFuncLeft.setParameter(1, 0.0);
         try {
-            DataFitter.fit(convFuncLeft, convGraphLeft, fitOption);
+            TOFFastFitter.fitPoly(convFuncLeft, convGraphLeft, lowLimit, highLimit, fitOption);
 			this.isFitValid[0][sector-1][layer-1][paddle-1] = convFuncLeft.isFitValid();
         } catch (Exception e) {
             System.out.println("Fit error with sector "+sector+" layer "+layer+" paddle "+paddle);
@@ -377,7 +386,7 @@ public class TofTdcConvEventListener extends TOFCalibrationEngine {
         convFuncRight.setParameter(0, 0.0);
         convFuncRight.setParameter(1, 0.0);
         try {
-            DataFitter.fit(convFuncRight, convGraphRight, fitOption);
+            TOFFastFitter.fitPoly(convFuncRight, convGraphRight, lowLimit, highLimit, fitOption);
 			this.isFitValid[1][sector-1][layer-1][paddle-1] = convFuncRight.isFitValid();
         } catch (Exception e) {
             System.out.println("Fit error with sector "+sector+" layer "+layer+" paddle "+paddle);
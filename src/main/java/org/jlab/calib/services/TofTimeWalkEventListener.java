@@ -3,6 +3,8 @@ package org.jlab.calib.services;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
@@ -17,7 +19,6 @@ import javax.swing.JOptionPane;
 import javax.swing.JTabbedPane;
 
 import org.jlab.detector.calib.utils.CalibrationConstants;
-import org.jlab.detector.calib.utils.DatabaseConstantProvider;
 import org.jlab.groot.data.GraphErrors;
 import org.jlab.groot.data.H1F;
 import org.jlab.groot.data.H2F;
@@ -61,7 +62,14 @@ public class TofTimeWalkEventListener extends TOFCalibrationEngine {
 	final double fitTW2 = 3.8;
         final double fitTW0range = 0.5;
 	
-	private IndexedList<H2F> offsetHists = new IndexedList<H2F>(4);  // indexed by s,l,c, offset (in beam bucket multiples)
+	// one histogram per paddle, filled with delta t shifted by the paddle offset
+	// at each fit the y bins are rotated so the peak is nearest zero, and the offset updated to match
+	private IndexedList<H2F> offsetHists = new IndexedList<H2F>(3);
+	private double[][][] offsets = new double[6][3][62];
+
+	// time walk fit parameters kept between fits
+	private TOFFitSeeds twSeeds = new TOFFitSeeds();
+
 	private int NUM_OFFSET_HISTS = 20;
 	
 	private String fitOption = "RQ";
@@ -217,9 +225,7 @@ public class TofTimeWalkEventListener extends TOFCalibrationEngine {
 		}
 		else if (calDBSource==CAL_DB) {
 			System.out.println("Database Run No: "+prevCalRunNo);
-			DatabaseConstantProvider dcp = new DatabaseConstantProvider(prevCalRunNo, "default");
-			timeWalkValues = dcp.readConstants("/calibration/ftof/time_walk_exp");
-			dcp.disconnect();
+			timeWalkValues = TOFConstantFile.readConstants(prevCalRunNo, "/calibration/ftof/time_walk_exp");
 		}
 		prevCalRead = true;
 		System.out.println(stepName+" previous calibration values populated successfully");
@@ -285,21 +291,17 @@ public class TofTimeWalkEventListener extends TOFCalibrationEngine {
 
 					setPlotTitle(sector,layer,paddle);
 
-					// now create the offset hists
-					//NUM_OFFSET_HISTS = (int) (bb/2.004)*NUM_OFFSET_HISTS;
-					for (int i=0; i<NUM_OFFSET_HISTS; i++) {
-
-						double n = NUM_OFFSET_HISTS;
-						double offset = i*(BEAM_BUCKET/n);
-						H2F offHist = new H2F("offsetHist",
-								histTitle(sector,layer,paddle),
-								xbins[layer], ENERGY_MIN[layer], ENERGY_MAX[layer],
-								ybins, -bb*0.5, bb*0.5);
-						offHist.setTitleY("#Delta t");
-						offHist.setTitleX("Energy (MeV)");
+					// now create the offset hist
+					H2F offHist = new H2F("offsetHist",
+							histTitle(sector,layer,paddle),
+							xbins[layer], ENERGY_MIN[layer], ENERGY_MAX[layer],
+							ybins, -bb*0.5, bb*0.5);
+					offHist.setTitleY("#Delta t");
+					offHist.setTitleX("Energy (MeV)");
 
-						offsetHists.add(offHist, sector,layer,paddle,i);
-					}
+					offsetHists.add(offHist, sector,layer,paddle);
+					offsets[sector-1][layer-1][paddle-1] = 0.0;
+					dg.addDataSet(offHist, 0);
 
 					// initialize the constants array
 					Double[] consts = {UNDEFINED_OVERRIDE, UNDEFINED_OVERRIDE, UNDEFINED_OVERRIDE};
@@ -311,6 +313,106 @@ public class TofTimeWalkEventListener extends TOFCalibrationEngine {
 		}
 	}
 
+	@Override
+	public void merge(TOFCalibrationEngine engine) {
+
+		// the data groups only refer to the offset hists
+		// the other engine's hists are rotated to this engine's offsets before adding
+		TofTimeWalkEventListener twEngine = (TofTimeWalkEventListener) engine;
+		for (int sector = 1; sector <= 6; sector++) {
+			for (int layer = 1; layer <= 3; layer++) {
+				for (int paddle = 1; paddle <= NUM_PADDLES[layer-1]; paddle++) {
+					H2F hist = offsetHists.getItem(sector,layer,paddle);
+					H2F otherHist = twEngine.offsetHists.getItem(sector,layer,paddle);
+					if (hist != null && otherHist != null) {
+						double diff = offsets[sector-1][layer-1][paddle-1]
+								- twEngine.offsets[sector-1][layer-1][paddle-1];
+						rotateY(otherHist, (int) Math.round(diff / binWidthY(otherHist)));
+						addHist(hist, otherHist);
+					}
+				}
+			}
+		}
+	}
+
+	@Override
+	public void writeCheckpoint(DataOutputStream out) throws IOException {
+		for (int sector = 1; sector <= 6; sector++) {
+			for (int layer = 1; layer <= 3; layer++) {
+				for (int paddle = 1; paddle <= NUM_PADDLES[layer-1]; paddle++) {
+					out.writeDouble(offsets[sector-1][layer-1][paddle-1]);
+				}
+			}
+		}
+		super.writeCheckpoint(out);
+	}
+
+	// the checkpoint hists are added at the offsets they were filled with, as for merge
+	// so this engine's hists are rotated to those offsets while adding and then back again
+	@Override
+	public void readCheckpoint(DataInputStream in) throws IOException {
+		int[][][] shifts = new int[6][3][];
+		for (int sector = 1; sector <= 6; sector++) {
+			for (int layer = 1; layer <= 3; layer++) {
+				shifts[sector-1][layer-1] = new int[NUM_PADDLES[layer-1]];
+				for (int paddle = 1; paddle <= NUM_PADDLES[layer-1]; paddle++) {
+					double diff = offsets[sector-1][layer-1][paddle-1] - in.readDouble();
+					H2F hist = offsetHists.getItem(sector,layer,paddle);
+					if (hist != null) {
+						shifts[sector-1][layer-1][paddle-1] = (int) Math.round(diff / binWidthY(hist));
+						rotateY(hist, -shifts[sector-1][layer-1][paddle-1]);
+					}
+				}
+			}
+		}
+		super.readCheckpoint(in);
+		for (int sector = 1; sector <= 6; sector++) {
+			for (int layer = 1; layer <= 3; layer++) {
+				for (int paddle = 1; paddle <= NUM_PADDLES[layer-1]; paddle++) {
+					H2F hist = offsetHists.getItem(sector,layer,paddle);
+					if (hist != null) {
+						rotateY(hist, shifts[sector-1][layer-1][paddle-1]);
+					}
+				}
+			}
+		}
+	}
+
+	private static double binWidthY(H2F hist) {
+		return (hist.getYAxis().max() - hist.getYAxis().min()) / hist.getYAxis().getNBins();
+	}
+
+	// rotate the y bins, bin j moves to bin j+shift wrapping round the beam bucket
+	private static void rotateY(H2F hist, int shift) {
+		int nx = hist.getXAxis().getNBins();
+		int ny = hist.getYAxis().getNBins();
+		shift = ((shift % ny) + ny) % ny;
+		if (shift == 0) {
+			return;
+		}
+		double[] col = new double[ny];
+		for (int i = 0; i < nx; i++) {
+			for (int j = 0; j < ny; j++) {
+				col[(j + shift) % ny] = hist.getBinContent(i, j);
+			}
+			for (int j = 0; j < ny; j++) {
+				hist.setBinContent(i, j, col[j]);
+			}
+		}
+	}
+
+	// copy of the histogram with the y bins rotated
+	private static H2F rotatedHist(H2F hist, int shift) {
+		H2F rotated = new H2F(hist.getName(), "",
+				hist.getXAxis().getNBins(), hist.getXAxis().min(), hist.getXAxis().max(),
+				hist.getYAxis().getNBins(), hist.getYAxis().min(), hist.getYAxis().max());
+		rotated.setTitleY("#Delta t");
+		rotated.setTitleX("Energy (MeV)");
+		addHist(rotated, hist);
+		rotateY(rotated, shift);
+		return rotated;
+	}
+
 	@Override
 	public void processEvent(DataEvent event) {
 
@@ -321,38 +423,31 @@ public class TofTimeWalkEventListener extends TOFCalibrationEngine {
 	}
 
 	@Override
-	public void processPaddleList(List<TOFPaddle> paddleList) {
+	public boolean isFusable() {
+		return true;
+	}
 
-		for (TOFPaddle paddle : paddleList) {
+	@Override
+	public boolean requiresGoodTrack() {
+		return true;
+	}
 
-			// Fill the histograms
-			int sector = paddle.getDescriptor().getSector();
-			int layer = paddle.getDescriptor().getLayer();
-			int component = paddle.getDescriptor().getComponent();
+	@Override
+	public void processPaddle(TOFPaddle paddle) {
+		int sector = paddle.getDescriptor().getSector();
+		int layer = paddle.getDescriptor().getLayer();
+		int component = paddle.getDescriptor().getComponent();
 
-			// fill timeResidual vs Energy
-			if (paddle.goodTrackFound()) {
-			
-				//dataGroups.getItem(sector,layer,component).getH2F("trHist").fill(paddle.ENERGY, paddle.deltaTTW(0.0));
-				
-				// fill the offset histograms
-				for (int i=0; i<NUM_OFFSET_HISTS; i++) {
-					double n = NUM_OFFSET_HISTS;
-					double offset = i*(BEAM_BUCKET/n);
-					offsetHists.getItem(sector,layer,component,i).fill(paddle.getENERGY(), paddle.deltaTTW(offset));
-				}
-			}
-		}
+		offsetHists.getItem(sector,layer,component).fill(paddle.getENERGY(),
+				paddle.deltaTTW(offsets[sector-1][layer-1][component-1]));
 	}    
 	
 	@Override
 	public void timerUpdate() {
-		if (fitMethod!=FIT_METHOD_SF) {
-			// only analyze at end of file for slice fitter - takes too long
-			analyze();
+		if (fitMethod!=FIT_METHOD_SF || liveSliceFits) {
+			// only analyze at end of file for slice fitter unless live slice fits are on - takes too long
+			updateChanged();
 		}
-		save();
-		calib.fireTableDataChanged();
 	}
 
 	@Override
@@ -377,32 +472,19 @@ public class TofTimeWalkEventListener extends TOFCalibrationEngine {
 			endChannelForFit = maxRange;
 		}		
 
-		// Find the best offset hist
-		
-		int offsetIdxLeft = 0;
-		double minYmaxLeft = 9999.0;
-
-		for (int i=0; i<NUM_OFFSET_HISTS; i++) {
-			
-			// Get the max position of the y projection
-			H1F yProjL = offsetHists.getItem(sector,layer,paddle,i).projectionY();
-			int ymaxBinL = yProjL.getMaximumBin();
-			double ymaxL = yProjL.getxAxis().getBinCenter(ymaxBinL);
-			
-			if (Math.abs(ymaxL) < minYmaxLeft) {
-				minYmaxLeft = Math.abs(ymaxL);
-				offsetIdxLeft = i;
-			}
+		// Find the best offset
+		// rotate the y bins so the max of the y projection is in the bin nearest zero
+		// this is the same as filling with an offset of a whole number of bins
+		H2F twL = offsetHists.getItem(sector,layer,paddle);
+		H1F yProjL = twL.projectionY();
+		if (yProjL.integral() > 0) {
+			int ny = twL.getYAxis().getNBins();
+			int shift = ny/2 - yProjL.getMaximumBin();
+			rotateY(twL, shift);
+			double bb = BEAM_BUCKET;
+			double offset = offsets[sector-1][layer-1][paddle-1] + shift*binWidthY(twL);
+			offsets[sector-1][layer-1][paddle-1] = ((offset % bb) + bb) % bb;
 		}
-
-		//System.out.println("offsetIdxLeft "+offsetIdxLeft);
-		//System.out.println("offsetIdxRight "+offsetIdxRight);
-
-		// add the correct offset hist to the data group
-		DataGroup dg = dataGroups.getItem(sector,layer,paddle);
-		dg.addDataSet(offsetHists.getItem(sector,layer,paddle,offsetIdxLeft), 0);
-		
-		H2F twL = offsetHists.getItem(sector,layer,paddle,offsetIdxLeft);
 		
 		GraphErrors twLGraph = (GraphErrors) dataGroups.getItem(sector, layer, paddle).getData("trGraph"); 
 		twLGraph.setTitleY("#Delta t");
@@ -412,7 +494,7 @@ public class TofTimeWalkEventListener extends TOFCalibrationEngine {
 			psfL.setFitMode(fitMode);
 			psfL.setMinEvents(fitMinEvents);
 			psfL.setBackgroundOrder(backgroundSF);
-			psfL.setNthreads(1);
+			psfL.setNthreads(sliceFitThreads());
 			//psfL.setShowProgress(false);
 			setOutput(false);
 			psfL.fitSlicesX();
@@ -432,13 +514,28 @@ public class TofTimeWalkEventListener extends TOFCalibrationEngine {
 		// fit function to the graph of means
 		F1D twLFunc = dataGroups.getItem(sector,layer,paddle).getF1D("trFunc");
 		twLFunc.setRange(startChannelForFit, endChannelForFit);
-		twLFunc.setParameter(0, 0.0);
-		twLFunc.setParameter(1, fitTW0);
-		twLFunc.setParameter(2, fitTW1);
-		twLFunc.setParameter(3, fitTW2);
+		setTWStart(twLFunc);
                 twLFunc.setParLimits(1, fitTW0-fitTW0range, fitTW0+fitTW0range);
+
+		// start from the last fit of this paddle, or the previous calibration values
+		boolean seeded = twSeeds.apply(twLFunc, sector, layer, paddle, 0, 1, 2, 3);
+		if (!seeded && TOFFitSeeds.enabled) {
+			double prevTW1 = timeWalkValues.getDoubleValue("tw1", sector, layer, paddle);
+			if (Math.abs(prevTW1 - fitTW0) < fitTW0range) {
+				twLFunc.setParameter(1, prevTW1);
+				twLFunc.setParameter(2, timeWalkValues.getDoubleValue("tw2", sector, layer, paddle));
+				twLFunc.setParameter(3, timeWalkValues.getDoubleValue("tw3", sector, layer, paddle));
+				seeded = true;
+			}
+		}
 		try {
 			DataFitter.fit(twLFunc, twLGraph, fitOption);
+			if (seeded && !twLFunc.isFitValid()) {
+				// start again from the default values
+				setTWStart(twLFunc);
+				DataFitter.fit(twLFunc, twLGraph, fitOption);
+			}
+			twSeeds.put(sector, layer, paddle, twLFunc, twLFunc.isFitValid());
 			this.isFitValid[sector-1][layer-1][paddle-1] = twLFunc.isFitValid();
 		}
 		catch (Exception e) {
@@ -492,6 +589,13 @@ public class TofTimeWalkEventListener extends TOFCalibrationEngine {
 
 	}
 	
+	private void setTWStart(F1D twLFunc) {
+		twLFunc.setParameter(0, 0.0);
+		twLFunc.setParameter(1, fitTW0);
+		twLFunc.setParameter(2, fitTW1);
+		twLFunc.setParameter(3, fitTW2);
+	}
+
 	@Override
 	public void customFit(int sector, int layer, int paddle){
 		
@@ -624,6 +728,39 @@ public class TofTimeWalkEventListener extends TOFCalibrationEngine {
 	}     
 	
 
+	// the change is that of the time walk correction over the fit range in ns,
+	// as the three parameters have different units and move together
+	@Override
+	public double updatePrevCalib() {
+		double change = 0.0;
+		for (int sector = 1; sector <= 6; sector++) {
+			for (int layer = 1; layer <= 3; layer++) {
+				for (int paddle = 1; paddle <= NUM_PADDLES[layer-1]; paddle++) {
+					if (!hasHits(sector, layer, paddle)) {
+						continue;
+					}
+					double min = FIT_RANGE.getDoubleValue("min", layer, paddle);
+					double max = FIT_RANGE.getDoubleValue("max", layer, paddle);
+					for (int i = 0; i <= 10; i++) {
+						double x = min + i * (max - min) / 10.0;
+						change = Math.max(change, Math.abs(twCorrection(calib, sector, layer, paddle, x)
+								- twCorrection(timeWalkValues, sector, layer, paddle, x)));
+					}
+				}
+			}
+		}
+		copyToPrev(timeWalkValues, "tw1", "tw1");
+		copyToPrev(timeWalkValues, "tw2", "tw2");
+		copyToPrev(timeWalkValues, "tw3", "tw3");
+		return change;
+	}
+
+	private double twCorrection(CalibrationConstants values, int sector, int layer, int paddle, double x) {
+		return values.getDoubleValue("tw1", sector, layer, paddle)
+				* Math.exp(values.getDoubleValue("tw2", sector, layer, paddle) * x)
+				+ values.getDoubleValue("tw3", sector, layer, paddle) / x;
+	}
+
 	@Override
 	public void saveRow(int sector, int layer, int paddle) {
 
@@ -767,10 +904,14 @@ public class TofTimeWalkEventListener extends TOFCalibrationEngine {
 		nomFunc.setLineColor(FUNC_COLOUR);
 
 
+		H2F hist = offsetHists.getItem(sector,layer,component);
 		for (int i=0; i < NUM_OFFSET_HISTS; i++) {
 
+			// the hist as it would be filled with each of the offsets
+			int shift = i*hist.getYAxis().getNBins()/NUM_OFFSET_HISTS;
+
 			leftCanvas.cd(2*i);
-			H2F leftHist = offsetHists.getItem(sector,layer,component,i);
+			H2F leftHist = rotatedHist(hist, shift);
 			leftCanvas.draw(leftHist);
 			leftCanvas.draw(nomFunc, "same");
 
@@ -793,7 +934,7 @@ public class TofTimeWalkEventListener extends TOFCalibrationEngine {
 			}
 			
 			rightCanvas.cd(2*i);
-			H2F rightHist = offsetHists.getItem(sector,layer,component,i);
+			H2F rightHist = rotatedHist(hist, shift);
 			rightCanvas.draw(rightHist);
 			rightCanvas.draw(nomFunc, "same");
 
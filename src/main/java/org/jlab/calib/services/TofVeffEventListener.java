@@ -24,7 +24,6 @@ import org.jlab.detector.calib.tasks.CalibrationEngine;
 import org.jlab.detector.calib.utils.CalibrationConstants;
 import org.jlab.detector.calib.utils.CalibrationConstantsListener;
 import org.jlab.detector.calib.utils.CalibrationConstantsView;
-import org.jlab.detector.calib.utils.DatabaseConstantProvider;
 import org.jlab.detector.decode.CodaEventDecoder;
 import org.jlab.detector.decode.DetectorDataDgtz;
 import org.jlab.detector.decode.DetectorDecoderView;
@@ -69,6 +68,8 @@ public class TofVeffEventListener extends TOFCalibrationEngine {
 		stepName = "Effective Velocity";
 		histTitle = "VEFF";
 		fileNamePrefix = "FTOF_CALIB_VEFF_";
+		// cm/ns
+		iterationTolerance = 0.1;
 		// get file name here so that each timer update overwrites it
 		filename = nextFileName();
 
@@ -155,9 +156,7 @@ public class TofVeffEventListener extends TOFCalibrationEngine {
 		}
 		else if (calDBSource==CAL_DB) {
 			System.out.println("Database Run No: "+prevCalRunNo);
-			DatabaseConstantProvider dcp = new DatabaseConstantProvider(prevCalRunNo, "default");
-			veffValues = dcp.readConstants("/calibration/ftof/effective_velocity");
-			dcp.disconnect();
+			veffValues = TOFConstantFile.readConstants(prevCalRunNo, "/calibration/ftof/effective_velocity");
 		}
 		prevCalRead = true;
 		System.out.println(stepName+" previous calibration values populated successfully");
@@ -232,35 +231,32 @@ public class TofVeffEventListener extends TOFCalibrationEngine {
 	}
 
 	@Override
-	public void processPaddleList(List<TOFPaddle> paddleList) {
-
-		for (TOFPaddle paddle : paddleList) {
-
-			int sector = paddle.getDescriptor().getSector();
-			int layer = paddle.getDescriptor().getLayer();
-			int component = paddle.getDescriptor().getComponent();
+	public boolean isFusable() {
+		return true;
+	}
 
-			if (paddle.goodTrackFound()) {
+	@Override
+	public boolean requiresGoodTrack() {
+		return true;
+	}
 
-//				dataGroups.getItem(sector,layer,component).getH2F("veff").fill(
-//						paddle.paddleY() + (paddleLength(sector,layer,component)/2), 
-//						paddle.halfTimeDiff() + 15.0);
-				dataGroups.getItem(sector,layer,component).getH2F("veff").fill(
-						paddle.paddleY(), 
-						paddle.veffHalfTimeDiff());
-				
-			}
-		}
+	@Override
+	public void processPaddle(TOFPaddle paddle) {
+		int sector = paddle.getDescriptor().getSector();
+		int layer = paddle.getDescriptor().getLayer();
+		int component = paddle.getDescriptor().getComponent();
+
+		dataGroups.getItem(sector,layer,component).getH2F("veff").fill(
+				paddle.paddleY(), 
+				paddle.veffHalfTimeDiff());
 	}
 	
 	@Override
 	public void timerUpdate() {
-		if (fitMethod!=FIT_METHOD_SF) {
-			// only analyze at end of file for slice fitter - takes too long
-			analyze();
+		if (fitMethod!=FIT_METHOD_SF || liveSliceFits) {
+			// only analyze at end of file for slice fitter unless live slice fits are on - takes too long
+			updateChanged();
 		}
-		save();
-		calib.fireTableDataChanged();
 	}	
 
 	@Override
@@ -297,7 +293,7 @@ public class TofVeffEventListener extends TOFCalibrationEngine {
 			psf.setFitMode(fitMode);
 			psf.setMinEvents(fitMinEvents);
 			psf.setBackgroundOrder(backgroundSF);
-			psf.setNthreads(1);
+			psf.setNthreads(sliceFitThreads());
 			setOutput(false);
 			psf.fitSlicesX();
 			setOutput(true);
@@ -321,7 +317,7 @@ public class TofVeffEventListener extends TOFCalibrationEngine {
 		veffFunc.setParameter(0, 0.0);
 		veffFunc.setParameter(1, 1.0/16.0);
 		try {
-			DataFitter.fit(veffFunc, veffGraph, fitOption);
+			TOFFastFitter.fitPoly(veffFunc, veffGraph, lowLimit, highLimit, fitOption);
 			this.isFitValid[sector-1][layer-1][paddle-1] = veffFunc.isFitValid();
 
 		} catch (Exception e) {
@@ -468,6 +464,11 @@ public class TofVeffEventListener extends TOFCalibrationEngine {
 		return lr;
 	}	
 
+	@Override
+	public double updatePrevCalib() {
+		return copyToPrev(veffValues, "veff_left", "veff_left");
+	}
+
 	@Override
 	public void saveRow(int sector, int layer, int paddle) {
 		calib.setDoubleValue(getVeff(sector,layer,paddle),
@@ -17,7 +17,6 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintStream;
 import java.text.DateFormat;
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
@@ -48,7 +47,11 @@ import javax.swing.event.ChangeListener;
 import javax.swing.event.TableModelEvent;
 
 import org.jlab.calib.services.TOFCalibration;
+import org.jlab.calib.services.TOFCalibrationEngine;
+import org.jlab.calib.services.TOFConstantSnapshot;
 import org.jlab.calib.services.TOFCustomFitPanel;
+import org.jlab.calib.services.TOFEventBanks;
+import org.jlab.calib.services.TOFLog;
 import org.jlab.calib.services.TOFPaddle;
 import org.jlab.calib.services.TofCheckEventListener;
 import org.jlab.calib.services.TofFadcEventListener;
@@ -98,28 +101,23 @@ public class CTOFCalibration
 	EmbeddedCanvas canvas = null;
 	CalibrationConstantsView ccview = null;
 
-	CTOFCalibrationEngine[] engines = { new CtofHVEventListener(), new CtofAttenEventListener(),
-			new CtofTdcConvEventListener(), new CtofLeftRightEventListener(), new CtofVeffEventListener(),
-			new CtofRFPadEventListener(), new CtofHPosEventListener(), new CtofHposBinEventListener(),
-			new CtofP2PEventListener(), new CtofFadcEventListener(), new CtofCheckEventListener() };
+	CTOFCalibrationEngine[] engines = createEngines();
 
-	public static CtofPrevConfigPanel[] engPanels = { new CtofPrevConfigPanel(new CTOFCalibrationEngine()),
-			new CtofPrevConfigPanel(new CTOFCalibrationEngine()), new CtofPrevConfigPanel(new CTOFCalibrationEngine()),
-			new CtofPrevConfigPanel(new CTOFCalibrationEngine()), new CtofPrevConfigPanel(new CTOFCalibrationEngine()),
-			new CtofPrevConfigPanel(new CTOFCalibrationEngine()) };
+	// filled in configure() - not created here so the class can be loaded headless
+	public static CtofPrevConfigPanel[] engPanels = new CtofPrevConfigPanel[6];
 
 	// engine indices
-	public final int HV = 0;
-	public final int ATTEN = 1;
-	public final int TDC_CONV = 2;
-	public final int LEFT_RIGHT = 3;
-	public final int VEFF = 4;
-	public final int RFPAD = 5;
-	public final int HPOS = 6;
-	public final int HPOSBIN = 7;
-	public final int P2P = 8;
-	public final int FADC = 9;
-	public final int CHECK = 10;
+	public final static int HV = 0;
+	public final static int ATTEN = 1;
+	public final static int TDC_CONV = 2;
+	public final static int LEFT_RIGHT = 3;
+	public final static int VEFF = 4;
+	public final static int RFPAD = 5;
+	public final static int HPOS = 6;
+	public final static int HPOSBIN = 7;
+	public final static int P2P = 8;
+	public final static int FADC = 9;
+	public final static int CHECK = 10;
 
 	String[] dirs = { "/calibration/ctof/gain_balance", "/calibration/ctof/attenuation", "/calibration/ctof/tdc_conv",
 			"/calibration/ctof/time_offsets/upstream_downstream", "/calibration/ctof/effective_velocity",
@@ -189,8 +187,11 @@ public class CTOFCalibration
 	public static int trackCharge = 1;
 	JComboBox<Double> trfList = new JComboBox<Double>();
 	JComboBox<String> pidList = new JComboBox<String>();
+	JComboBox<String> rfpadLiveList = new JComboBox<String>();
+	JComboBox<String> liveSliceList = new JComboBox<String>();
 	private JTextField triggerText = new JTextField(10);
-	public static int triggerBit = 0;
+	// events are only used if they have one of these trigger bits, 0 for all events
+	public static long triggerBit = 0;
 
 	JComboBox<String> fitList = new JComboBox<String>();
 	JComboBox<String> fitModeList = new JComboBox<String>();
@@ -202,8 +203,6 @@ public class CTOFCalibration
 	private JTextField maxFADCxText = new JTextField(6);
 	private JTextField widthFADCText = new JTextField(6);
 
-	public final static PrintStream oldStdout = System.out;
-
 	public CTOFCalibration() {
 
 		TOFPaddle.tof = "CTOF";
@@ -409,6 +408,7 @@ public class CTOFCalibration
 				}
 				System.out.println(engines[i].stepName + " " + engines[i].engineOn);
 			}
+			TOFEventBanks.setRequiredBanks(CTOFCalibrationEngine.requiredBanks(engines));
 
 			System.out.println("");
 			System.out.println("Configuration settings - Previous calibration values");
@@ -423,6 +423,8 @@ public class CTOFCalibration
 					System.exit(0);
 				}
 			}
+			// values used for each hit are read again from the new tables
+			TOFConstantSnapshot.invalidate();
 
 			// set the config values
 			// if (ctofCenterText.getText().compareTo("") != 0) {
@@ -463,8 +465,10 @@ public class CTOFCalibration
 			CTOFCalibrationEngine.BEAM_BUCKET = (Double) trfList.getSelectedItem();
 			TOFCalibration.trackPid = pidList.getSelectedIndex();
 			if (triggerText.getText().compareTo("") != 0) {
-				triggerBit = Integer.parseInt(triggerText.getText());
+				triggerBit = Long.decode(triggerText.getText().trim());
 			}
+			TOFCalibrationEngine.liveSliceFits = liveSliceList.getSelectedIndex() == 1;
+			CtofRFPadEventListener.circularStats = rfpadLiveList.getSelectedIndex() == 1;
 
 			engines[ATTEN].fitMethod = fitList.getSelectedIndex();
 			engines[ATTEN].fitMode = (String) fitModeList.getSelectedItem();
@@ -522,6 +526,8 @@ public class CTOFCalibration
 			System.out.println("RF period: " + CTOFCalibrationEngine.BEAM_BUCKET);
 			System.out.println("PID: " + pidList.getItemAt(TOFCalibration.trackPid));
 			System.out.println("Trigger: " + triggerBit);
+			System.out.println("Live slice fits: " + liveSliceList.getSelectedItem());
+			System.out.println("Live RF pad offsets: " + rfpadLiveList.getSelectedItem());
 			System.out.println("2D histogram graph method: " + fitList.getSelectedItem());
 			System.out.println("Slicefitter mode: " + fitModeList.getSelectedItem());
 			System.out.println("Minimum events per slice: " + minEventsText.getText());
@@ -537,26 +543,28 @@ public class CTOFCalibration
 
 		List<TOFPaddle> paddleList = DataProvider.getPaddleList(event);
 
+		if (event.getType() == DataEventType.EVENT_START) {
+			for (int i = 0; i < engines.length; i++) {
+				if (engines[i].engineOn) {
+					engines[i].resetEventListener();
+					engines[i].resetHitCounts();
+				}
+			}
+		}
+		if (event.getType() == DataEventType.EVENT_START || event.getType() == DataEventType.EVENT_ACCUMULATE) {
+			CTOFCalibrationEngine.processPaddleListFused(paddleList, engines);
+		}
+
 		for (int i = 0; i < engines.length; i++) {
 
 			if (engines[i].engineOn) {
 
-				if (event.getType() == DataEventType.EVENT_START) {
-					engines[i].resetEventListener();
-					engines[i].processPaddleList(paddleList);
-
-				} else if (event.getType() == DataEventType.EVENT_ACCUMULATE) {
-					/*if (i == P2P) {
-						engines[i].processEvent(event);
-					} else {*/
-						engines[i].processPaddleList(paddleList);
-					//}
-				} else if (event.getType() == DataEventType.EVENT_STOP) {
-					System.setOut(oldStdout);
+				if (event.getType() == DataEventType.EVENT_STOP) {
+					TOFLog.reset();
 					System.out.println("EVENT_STOP for " + engines[i].stepName + " " + todayString());
 					engines[i].analyze();
 					ccview.getTabbedPane().setEnabled(true);
-					System.setOut(oldStdout);
+					TOFLog.reset();
 				}
 
 				if (event.getType() == DataEventType.EVENT_STOP) {
@@ -592,14 +600,23 @@ public class CTOFCalibration
 			CtofRFPadEventListener rfpadEng = (CtofRFPadEventListener) engines[RFPAD];
 			rfpadEng.writeSigmaFile("CTOF_CALIB_TRES.txt");
 			// time offsets
-			writeTimeOffsets("CTOF_CALIB_TIME_OFFSETS.txt", panel.stepOptions);
+			writeTimeOffsets(engines, "CTOF_CALIB_TIME_OFFSETS.txt", panel.stepOptions);
 			// TDC conv
 			// engines[TDC_CONV].writeFile("CTOF_CALIB_TDC_CONV.txt");
 			//
 		}
 	}
 
-	public void writeTimeOffsets(String filename, int[] stepOptions) {
+	public static CTOFCalibrationEngine[] createEngines() {
+
+		CTOFCalibrationEngine[] engines = { new CtofHVEventListener(), new CtofAttenEventListener(),
+				new CtofTdcConvEventListener(), new CtofLeftRightEventListener(), new CtofVeffEventListener(),
+				new CtofRFPadEventListener(), new CtofHPosEventListener(), new CtofHposBinEventListener(),
+				new CtofP2PEventListener(), new CtofFadcEventListener(), new CtofCheckEventListener() };
+		return engines;
+	}
+
+	public static void writeTimeOffsets(CTOFCalibrationEngine[] engines, String filename, int[] stepOptions) {
 
 		try {
 
@@ -1042,14 +1059,38 @@ public class CTOFCalibration
 		y++;
 		c.gridx = 0;
 		c.gridy = y;
-		trPanel.add(new JLabel("Trigger:"), c);
+		trPanel.add(new JLabel("Trigger mask:"), c);
 		triggerText.addActionListener(this);
 		c.gridx = 1;
 		c.gridy = y;
 		trPanel.add(triggerText, c);
 		c.gridx = 2;
 		c.gridy = y;
-		trPanel.add(new JLabel("Not currently used"), c);
+		trPanel.add(new JLabel("e.g. 0x1, 0 for all events"), c);
+
+		// live slice fits
+		y++;
+		c.gridx = 0;
+		c.gridy = y;
+		trPanel.add(new JLabel("Live slice fits:"), c);
+		c.gridx = 1;
+		c.gridy = y;
+		liveSliceList.addItem("No");
+		liveSliceList.addItem("Yes");
+		liveSliceList.addActionListener(this);
+		trPanel.add(liveSliceList, c);
+
+		// live rf pad offsets
+		y++;
+		c.gridx = 0;
+		c.gridy = y;
+		trPanel.add(new JLabel("Live RF pad offsets:"), c);
+		c.gridx = 1;
+		c.gridy = y;
+		rfpadLiveList.addItem("Fit at each update");
+		rfpadLiveList.addItem("Circular mean");
+		rfpadLiveList.addActionListener(this);
+		trPanel.add(rfpadLiveList, c);
 
 		// graph type
 		y++;
@@ -1140,6 +1181,12 @@ public class CTOFCalibration
 
 	public static void main(String[] args) {
 
+		if (args.length > 0) {
+			// command line arguments given - run without the GUI
+			CTOFCalibrationBatch.main(args);
+			return;
+		}
+
 		CTOFCalibration calibGUI = new CTOFCalibration();
 
 	}
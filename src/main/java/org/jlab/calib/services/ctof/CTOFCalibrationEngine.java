@@ -4,6 +4,8 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
@@ -15,13 +17,22 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
 
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
 import javax.swing.JTabbedPane;
 
+import org.jlab.calib.services.TOFCalibrationEngine;
+import org.jlab.calib.services.TOFCheckpoint;
+import org.jlab.calib.services.TOFConstantSnapshot;
+import org.jlab.calib.services.TOFCounterStatus;
+import org.jlab.calib.services.TOFEventBanks;
+import org.jlab.calib.services.TOFLog;
 import org.jlab.calib.services.TOFPaddle;
 import org.jlab.detector.calib.tasks.CalibrationEngine;
 import org.jlab.detector.calib.utils.CalibrationConstants;
@@ -43,7 +54,7 @@ import javax.swing.JButton;
 
 import java.awt.BorderLayout;
 
-public class CTOFCalibrationEngine extends CalibrationEngine implements ActionListener  {
+public class CTOFCalibrationEngine extends CalibrationEngine implements ActionListener, TOFCheckpoint.Step {
  
     public final static int[] NUM_PADDLES = { 48 };
     public final static int     NUM_LAYERS = 1;
@@ -99,10 +110,11 @@ public class CTOFCalibrationEngine extends CalibrationEngine implements ActionLi
     public static CalibrationConstants hposBinCCDBValues;
     
     // Calculated counter status values
-    public static IndexedList<Integer> adcLeftStatus = new IndexedList<Integer>(3);
-    public static IndexedList<Integer> adcRightStatus = new IndexedList<Integer>(3);
-    public static IndexedList<Integer> tdcLeftStatus = new IndexedList<Integer>(3);
-    public static IndexedList<Integer> tdcRightStatus = new IndexedList<Integer>(3);
+    public static TOFCounterStatus counterStatus = new TOFCounterStatus();
+
+    // hits passed to processPaddle for each paddle, and the number when it was last fitted
+    private int[] paddleHits = new int[TOFConstantSnapshot.MAX_PADDLES];
+    private int[] paddleHitsAtFit = new int[TOFConstantSnapshot.MAX_PADDLES];
     public static IndexedList<Double[]> hposBinValues = new IndexedList<Double[]>(3);
 
     private int saveSector;
@@ -139,18 +151,125 @@ public class CTOFCalibrationEngine extends CalibrationEngine implements ActionLi
         } else if (event.getType() == DataEventType.EVENT_ACCUMULATE) {
             processEvent(event);
         } else if (event.getType() == DataEventType.EVENT_STOP) {
-            System.out.println("EVENT_STOP");
+            TOFLog.info(stepName + " EVENT_STOP");
             analyze();
         }
     }
 
     public void processPaddleList(List<TOFPaddle> paddleList) {
+        // overridden in calibration step classes which don't fill from each hit on its own
+        for (TOFPaddle paddle : paddleList) {
+            if (!requiresGoodTrack() || paddle.goodTrackFound()) {
+                countHit(paddle);
+                processPaddle(paddle);
+            }
+        }
+    }
+
+    // Steps which fill from each hit on its own return true and override processPaddle
+    // so all these steps can be filled in a single pass over the paddle list
+    public boolean isFusable() {
+        return false;
+    }
+
+    // processPaddle is only called for hits with a good track
+    public boolean requiresGoodTrack() {
+        return false;
+    }
+
+    // optional banks this step needs, see TOFEventBanks.setRequiredBanks
+    // overridden in the steps which check goodTrackFound themselves
+    public String[] getRequiredBanks() {
+        return requiresGoodTrack() ? TOFEventBanks.OPTIONAL_BANKS : new String[0];
+    }
+
+    // optional banks needed by the enabled engines
+    public static Set<String> requiredBanks(CTOFCalibrationEngine[] engineSet) {
+        Set<String> required = new HashSet<String>();
+        for (CTOFCalibrationEngine engine : engineSet) {
+            if (engine.engineOn) {
+                required.addAll(Arrays.asList(engine.getRequiredBanks()));
+            }
+        }
+        return required;
+    }
+
+    public void processPaddle(TOFPaddle paddle) {
         // overridden in calibration step classes
     }
 
+    // Process the paddle list for all enabled engines
+    // the list is walked once for the fusable engines, passing each hit to each of them in turn
+    public static void processPaddleListFused(List<TOFPaddle> paddleList, CTOFCalibrationEngine[] engineSet) {
+
+        boolean anyFused = false;
+        for (CTOFCalibrationEngine engine : engineSet) {
+            if (engine.engineOn) {
+                if (TOFCalibrationEngine.fusedProcessing && engine.isFusable()) {
+                    anyFused = true;
+                }
+                else {
+                    engine.processPaddleList(paddleList);
+                }
+            }
+        }
+        if (!anyFused) {
+            return;
+        }
+
+        for (TOFPaddle paddle : paddleList) {
+            boolean goodTrack = paddle.goodTrackFound();
+            for (CTOFCalibrationEngine engine : engineSet) {
+                if (engine.engineOn && engine.isFusable() && (goodTrack || !engine.requiresGoodTrack())) {
+                    engine.countHit(paddle);
+                    engine.processPaddle(paddle);
+                }
+            }
+        }
+    }
+
+    public void countHit(TOFPaddle paddle) {
+        paddleHits[paddle.getPaddleIndex()]++;
+    }
+
+    // called with resetEventListener when the histograms are recreated
+    public void resetHitCounts() {
+        Arrays.fill(paddleHits, 0);
+        Arrays.fill(paddleHitsAtFit, 0);
+    }
+
     @Override
     public void timerUpdate() {
-        analyze();
+        if (isFusable()) {
+            updateChanged();
+        }
+        else {
+            analyze();
+        }
+    }
+
+    // Refit only the paddles with at least minNewHits new hits since they were last fitted
+    // and update their rows in the table, the file is written by analyze at the end of the run
+    public void updateChanged() {
+
+        List<Integer> paddles = new ArrayList<Integer>();
+        for (int paddle = 1; paddle <= NUM_PADDLES[0]; paddle++) {
+            int i = TOFConstantSnapshot.index(1, 1, paddle);
+            if (paddleHits[i] - paddleHitsAtFit[i] >= Math.max(1, TOFCalibrationEngine.minNewHits)) {
+                paddles.add(paddle);
+                paddleHitsAtFit[i] = paddleHits[i];
+            }
+        }
+        // all rows are shown from the first update
+        if (calib.getRowCount() == 0) {
+            saveRows();
+        }
+        fitPaddles(paddles);
+        for (int paddle : paddles) {
+            calib.addEntry(1, 1, paddle);
+            saveRow(1, 1, paddle);
+        }
+        calib.fireTableDataChanged();
     }
 
     public void processEvent(DataEvent event) {
@@ -162,15 +281,78 @@ public class CTOFCalibrationEngine extends CalibrationEngine implements ActionLi
 
         //System.out.println(stepName+" analyze");
 
+        List<Integer> paddles = new ArrayList<Integer>();
         for (int paddle = 1; paddle <= NUM_PADDLES[0]; paddle++) {
-            fit(1, 1, paddle);
+            paddles.add(paddle);
         }
+        fitPaddles(paddles);
+        System.arraycopy(paddleHits, 0, paddleHitsAtFit, 0, paddleHits.length);
           
         save();
         //saveCounterStatus();
         calib.fireTableDataChanged();
     }
 
+    // Fit the listed paddles, shared out over the TOFCalibrationEngine fit pool
+    public void fitPaddles(List<Integer> paddles) {
+
+        if (TOFCalibrationEngine.fitThreads <= 1 || paddles.size() <= 1) {
+            for (int paddle : paddles) {
+                fit(1, 1, paddle);
+            }
+            return;
+        }
+
+        List<Callable<Object>> fits = new ArrayList<Callable<Object>>();
+        for (int paddle : paddles) {
+            final int p = paddle;
+            fits.add(new Callable<Object>() {
+                public Object call() {
+                    fit(1, 1, p);
+                    return null;
+                }
+            });
+        }
+        TOFCalibrationEngine.invokeFits(fits);
+    }
+
+    // Copy the configuration of another engine of the same type
+    // used for the per thread copies of the engines in batch mode
+    public void copyConfig(CTOFCalibrationEngine engine) {
+        engineOn = engine.engineOn;
+        fitMethod = engine.fitMethod;
+        fitMode = engine.fitMode;
+        fitMinEvents = engine.fitMinEvents;
+        maxGraphError = engine.maxGraphError;
+        fitSliceMaxError = engine.fitSliceMaxError;
+        logScale = engine.logScale;
+    }
+
+    // Add the histograms filled by another copy of this engine
+    public void merge(CTOFCalibrationEngine engine) {
+        TOFCalibrationEngine.mergeDataGroups(dataGroups, engine.dataGroups);
+        for (int i = 0; i < paddleHits.length; i++) {
+            paddleHits[i] += engine.paddleHits[i];
+        }
+    }
+
+    public boolean isEngineOn() {
+        return engineOn;
+    }
+
+    // Write the histograms and hit counts for a checkpoint
+    // steps with other accumulated values override this to write them as well
+    public void writeCheckpoint(DataOutputStream out) throws IOException {
+        TOFCheckpoint.writeDataGroups(out, dataGroups);
+        TOFCheckpoint.writeCounts(out, paddleHits);
+    }
+
+    // Add the histograms and hit counts from a checkpoint, as for merge
+    public void readCheckpoint(DataInputStream in) throws IOException {
+        TOFCheckpoint.readDataGroups(in, dataGroups);
+        TOFCheckpoint.readCounts(in, paddleHits);
+    }
+
     public void fit(int sector, int layer, int paddle) {
         // fit to default range
         fit(sector, layer, paddle, UNDEFINED_OVERRIDE, UNDEFINED_OVERRIDE);
@@ -187,10 +369,7 @@ public class CTOFCalibrationEngine extends CalibrationEngine implements ActionLi
 
     public void save() {
 
-        for (int paddle = 1; paddle <= NUM_PADDLES[0]; paddle++) {
-            calib.addEntry(1, 1, paddle);
-            saveRow(1, 1, paddle);
-        }
+        saveRows();
 
         //calib.save(filename);
         // current CalibrationConstants object does not write file in correct format
@@ -198,6 +377,15 @@ public class CTOFCalibrationEngine extends CalibrationEngine implements ActionLi
         this.writeFile(filename);
     }
 
+    // update the table without writing the file
+    public void saveRows() {
+
+        for (int paddle = 1; paddle <= NUM_PADDLES[0]; paddle++) {
+            calib.addEntry(1, 1, paddle);
+            saveRow(1, 1, paddle);
+        }
+    }
+
     public void writeFile(String filename) {
 
         try { 
@@ -222,9 +410,7 @@ public class CTOFCalibrationEngine extends CalibrationEngine implements ActionLi
             outputBw.close();
         }
         catch(IOException ex) {
-            System.out.println(
-                    "Error reading file '" 
-                            + filename + "'");                   
+            TOFLog.error("Error writing file '" + filename + "'");
             // Or we could just do this: 
             ex.printStackTrace();
         }
@@ -616,16 +802,8 @@ public class CTOFCalibrationEngine extends CalibrationEngine implements ActionLi
     	}
 	}
 
+    // output is switched off for this thread only
     public void setOutput(boolean outputOn) {
-        if (outputOn) {
-            System.setOut(CTOFCalibration.oldStdout);
-        }
-        else {
-            System.setOut(new java.io.PrintStream(
-                    new java.io.OutputStream() {
-                        public void write(int b){}
-                    }
-                    ));
-        }
+        TOFLog.quiet(!outputOn);
     }
 }
@@ -20,7 +20,9 @@ import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JSplitPane;
 
+import org.jlab.calib.services.TOFCalibrationEngine;
 import org.jlab.calib.services.TOFCustomFitPanel;
+import org.jlab.calib.services.TOFFastFitter;
 import org.jlab.calib.services.TOFPaddle;
 import org.jlab.detector.base.DetectorType;
 import org.jlab.detector.calib.tasks.CalibrationEngine;
@@ -153,45 +155,28 @@ public class CtofAttenEventListener extends CTOFCalibrationEngine {
 	}
 
 	@Override
-	public void processPaddleList(List<TOFPaddle> paddleList) {
-
-		for (TOFPaddle paddle : paddleList) {
-
-			int sector = paddle.getDescriptor().getSector();
-			int layer = paddle.getDescriptor().getLayer();
-			int component = paddle.getDescriptor().getComponent();
-
-			// dgtz data only
-			
-//			System.out.println("position "+paddle.position());
-//			System.out.println("halfTimeDiff "+paddle.halfTimeDiff());
-//			System.out.println("veff "+paddle.veff()+" leftRightAdjustment "+paddle.leftRightAdjustment());
-//			System.out.println("timeLeftAfterTW "+paddle.timeLeftAfterTW()+" timeRightAfterTW "+paddle.timeRightAfterTW());
-//			
-//			paddle.show();
-			if (paddle.includeInTiming()) {
-				dataGroups.getItem(sector,layer,component).getH2F("atten").fill(
-						paddle.position(), paddle.logRatio());
-			}
-
-			// cooked data - position from timing and veff
-			//			if (paddle.recPosition()!=0) {
-			//				dataGroups.getItem(sector,layer,component).getH2F("atten").fill(
-			//						paddle.recPosition(), paddle.logRatio());
-			//			}
-
+	public boolean isFusable() {
+		return true;
+	}
 
+	@Override
+	public void processPaddle(TOFPaddle paddle) {
+		int sector = paddle.getDescriptor().getSector();
+		int layer = paddle.getDescriptor().getLayer();
+		int component = paddle.getDescriptor().getComponent();
+
+		if (paddle.includeInTiming()) {
+			dataGroups.getItem(sector,layer,component).getH2F("atten").fill(
+					paddle.position(), paddle.logRatio());
 		}
 	}
 
 	@Override
 	public void timerUpdate() {
-		if (fitMethod!=FIT_METHOD_SF) {
-			// only analyze at end of file for slice fitter - takes too long
-			analyze();
+		if (fitMethod!=FIT_METHOD_SF || TOFCalibrationEngine.liveSliceFits) {
+			// only analyze at end of file for slice fitter unless live slice fits are on - takes too long
+			updateChanged();
 		}
-		save();
-		calib.fireTableDataChanged();
 	}	
 
 	@Override
@@ -232,7 +217,7 @@ public class CtofAttenEventListener extends CTOFCalibrationEngine {
 			psf.setFitMode(fitMode);
 			psf.setMinEvents(fitMinEvents);
 			psf.setBackgroundOrder(backgroundSF);
-			psf.setNthreads(1);
+			psf.setNthreads(TOFCalibrationEngine.sliceFitThreads());
 			setOutput(false);
 			psf.fitSlicesX();
 			setOutput(true);
@@ -258,12 +243,14 @@ public class CtofAttenEventListener extends CTOFCalibrationEngine {
 		attenFunc.setParLimits(0, -5.0, 5.0);
 		attenFunc.setParLimits(1, 2.0/500.0, 2.0/10.0);
 		if (sector==1 && layer==1 &&paddle==8) {
-			DataFitter.fit(attenFunc, meanGraph, fitOption);
+			TOFFastFitter.fitPoly(attenFunc, meanGraph, lowLimit, highLimit,
+					new double[] {-5.0, 2.0/500.0}, new double[] {5.0, 2.0/10.0}, fitOption);
 			this.isFitValid[paddle-1] = attenFunc.isFitValid();
 
 		}
 		else {
-			DataFitter.fit(attenFunc, meanGraph, fitOption);
+			TOFFastFitter.fitPoly(attenFunc, meanGraph, lowLimit, highLimit,
+					new double[] {-5.0, 2.0/500.0}, new double[] {5.0, 2.0/10.0}, fitOption);
 			this.isFitValid[paddle-1] = attenFunc.isFitValid();
 		}
 
@@ -3,6 +3,8 @@ package org.jlab.calib.services.ctof;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
@@ -14,6 +16,7 @@ import java.util.List;
 
 import javax.swing.JOptionPane;
 
+import org.jlab.calib.services.TOFHistogramBank;
 import org.jlab.calib.services.TOFPaddle;
 import org.jlab.detector.calib.utils.CalibrationConstants;
 import org.jlab.detector.calib.utils.DatabaseConstantProvider;
@@ -36,6 +39,16 @@ public class CtofCheckEventListener extends CTOFCalibrationEngine {
 	private final double        ADC_MIN = 50.0;
 	private final double        ADC_MAX = 7000.0;
 
+	private TOFHistogramBank hists;
+	private int momHist;
+	private int vzHist;
+	private int hitHist;
+	private int pathHist;
+	private int adcLHist;
+	private int adcRHist;
+	private final String[] HIST_TITLES = {"Check p ", "Check vz ", "Check hit ", "Check path ",
+			"Check ADC Up ", "Check ADC Down "};
+
 	public CtofCheckEventListener() {
 
 		stepName = "Check";
@@ -69,114 +82,74 @@ public class CtofCheckEventListener extends CTOFCalibrationEngine {
 
 		double bb = CTOFCalibrationEngine.BEAM_BUCKET;
 		int bins = (int) (bb/2.004)*88;
-		for (int paddle = 1; paddle <= NUM_PADDLES[0]; paddle++) {
 
-			DataGroup dg = new DataGroup(3,2);
-
-			// create all the histograms and functions
-			H2F momHist = 
-					new H2F("momHist","Paddle "+paddle,
-							100, CTOFCalibration.minP, CTOFCalibration.maxP,
-							bins, -bb*0.5, bb*0.5);
-			momHist.setTitleX("p (GeV)");
-			momHist.setTitleY("delta T (ns)");
-			momHist.setTitle("Check p " + paddle);
-			dg.addDataSet(momHist, 0);
-
-			H2F vzHist = 
-					new H2F("vzHist","Paddle "+paddle,
-							100, CTOFCalibration.minV, CTOFCalibration.maxV,
-							bins, -bb*0.5, bb*0.5);
-			vzHist.setTitleX("vz (cm)");
-			vzHist.setTitleY("delta T (ns)");
-			vzHist.setTitle("Check vz " + paddle);
-			dg.addDataSet(vzHist, 1);
-
-			H2F hitHist = 
-					new H2F("hitHist","Paddle "+paddle,
-							100, -paddleLength(1,1,paddle)*0.55, paddleLength(1,1,paddle)*0.55,
-							bins, -bb*0.5, bb*0.5);
-			hitHist.setTitleX("hit position (cm)");
-			hitHist.setTitleY("delta T (ns)");
-			hitHist.setTitle("Check hit " + paddle);
-			dg.addDataSet(hitHist, 2);
-
-			H2F pathHist = 
-					new H2F("pathHist","Paddle "+paddle,
-							100, 23.0,55.0,
-							bins, -bb*0.5, bb*0.5);
-			pathHist.setTitleX("path (cm)");
-			pathHist.setTitleY("delta T (ns)");
-			pathHist.setTitle("Check path " + paddle);
-			dg.addDataSet(pathHist, 3);
-
-			H2F adcLHist = 
-					new H2F("adcLHist","Paddle "+paddle,
-							100, ADC_MIN, ADC_MAX,
-							bins, -bb*0.5, bb*0.5);
-			adcLHist.setTitleX("ADC Up");
-			adcLHist.setTitleY("delta T (ns)");
-			adcLHist.setTitle("Check ADC Up " + paddle);
-			dg.addDataSet(adcLHist, 4);
-
-			H2F adcRHist = 
-					new H2F("adcRHist","Paddle "+paddle,
-							100, ADC_MIN, ADC_MAX,
-							bins, -bb*0.5, bb*0.5);
-			adcRHist.setTitleX("ADC Down");
-			adcRHist.setTitleY("delta T (ns)");
-			adcRHist.setTitle("Check ADC Down " + paddle);
-			dg.addDataSet(adcRHist, 5);
-
-			dataGroups.add(dg,1,1,paddle);    
+		// the histograms are filled for every paddle so kept in a bank rather than as H2F
+		hists = new TOFHistogramBank(NUM_PADDLES[0]+1);
+		momHist = hists.add2D("momHist", "p (GeV)", "delta T (ns)",
+				100, CTOFCalibration.minP, CTOFCalibration.maxP, bins, -bb*0.5, bb*0.5);
+		vzHist = hists.add2D("vzHist", "vz (cm)", "delta T (ns)",
+				100, CTOFCalibration.minV, CTOFCalibration.maxV, bins, -bb*0.5, bb*0.5);
+		hitHist = hists.add2D("hitHist", "hit position (cm)", "delta T (ns)",
+				100, -1.0, 1.0, bins, -bb*0.5, bb*0.5);
+		pathHist = hists.add2D("pathHist", "path (cm)", "delta T (ns)",
+				100, 23.0, 55.0, bins, -bb*0.5, bb*0.5);
+		adcLHist = hists.add2D("adcLHist", "ADC Up", "delta T (ns)",
+				100, ADC_MIN, ADC_MAX, bins, -bb*0.5, bb*0.5);
+		adcRHist = hists.add2D("adcRHist", "ADC Down", "delta T (ns)",
+				100, ADC_MIN, ADC_MAX, bins, -bb*0.5, bb*0.5);
 
+		for (int paddle = 1; paddle <= NUM_PADDLES[0]; paddle++) {
+			hists.setXRange(hitHist, paddle,
+					-paddleLength(1,1,paddle)*0.55, paddleLength(1,1,paddle)*0.55);
 		}
 	}
 
 	@Override
-	public void processEvent(DataEvent event) {
-
-		List<TOFPaddle> paddleList = DataProvider.getPaddleList(event);
-		processPaddleList(paddleList);
-
+	public void merge(CTOFCalibrationEngine engine) {
+		hists.add(((CtofCheckEventListener) engine).hists);
 	}
 
 	@Override
-	public void processPaddleList(List<TOFPaddle> paddleList) {
-
-		for (TOFPaddle pad : paddleList) {
-
-			int sector = pad.getDescriptor().getSector();
-			int layer = pad.getDescriptor().getLayer();
-			int component = pad.getDescriptor().getComponent();
+	public void writeCheckpoint(DataOutputStream out) throws IOException {
+		hists.write(out);
+	}
 
-			if (pad.goodTrackFound() && pad.includeInCTOFTiming()) {
-                                double timeResidual = pad.refSTTimeCorr();
-                                dataGroups.getItem(sector,layer,component).getH2F("momHist").fill(
-						pad.getP(),
-						timeResidual);
+	@Override
+	public void readCheckpoint(DataInputStream in) throws IOException {
+		hists.read(in);
+	}
 
-				dataGroups.getItem(sector,layer,component).getH2F("vzHist").fill(
-						pad.getVERTEX_Z(),
-						timeResidual);
+	@Override
+	public void processEvent(DataEvent event) {
 
-				dataGroups.getItem(sector,layer,component).getH2F("hitHist").fill(
-						pad.paddleY(),
-						timeResidual);
+		List<TOFPaddle> paddleList = DataProvider.getPaddleList(event);
+		processPaddleList(paddleList);
 
-				dataGroups.getItem(sector,layer,component).getH2F("pathHist").fill(
-						pad.getPATH_LENGTH(),
-						timeResidual);
+	}
 
-				dataGroups.getItem(sector,layer,component).getH2F("adcLHist").fill(
-						pad.getADCL(),
-						timeResidual);
+	@Override
+	public boolean isFusable() {
+		return true;
+	}
 
-				dataGroups.getItem(sector,layer,component).getH2F("adcRHist").fill(
-						pad.getADCR(),
-						timeResidual);
+	@Override
+	public boolean requiresGoodTrack() {
+		return true;
+	}
 
-			}
+	@Override
+	public void processPaddle(TOFPaddle pad) {
+		int component = pad.getDescriptor().getComponent();
+
+		if (pad.includeInCTOFTiming()) {
+			double timeResidual = pad.refSTTimeCorr();
+
+			hists.fill(momHist, component, pad.getP(), timeResidual);
+			hists.fill(vzHist, component, pad.getVERTEX_Z(), timeResidual);
+			hists.fill(hitHist, component, pad.paddleY(), timeResidual);
+			hists.fill(pathHist, component, pad.getPATH_LENGTH(), timeResidual);
+			hists.fill(adcLHist, component, pad.getADCL(), timeResidual);
+			hists.fill(adcRHist, component, pad.getADCR(), timeResidual);
 		}
 	}    
 
@@ -207,47 +180,40 @@ public class CtofCheckEventListener extends CTOFCalibrationEngine {
 	@Override
 	public void drawPlots(int sector, int layer, int paddle, EmbeddedCanvas canvas) {
 
-		H2F hist = new H2F();
+		int hist = momHist;
 		if (showPlotType == "CHECK_MOM") { 
-			hist = dataGroups.getItem(sector,layer,paddle).getH2F("momHist");
+			hist = momHist;
 		}
 		else if (showPlotType == "CHECK_VZ") { 
-			hist = dataGroups.getItem(sector,layer,paddle).getH2F("vzHist");
+			hist = vzHist;
 		}
 		else if (showPlotType == "CHECK_HIT") { 
-			hist = dataGroups.getItem(sector,layer,paddle).getH2F("hitHist");
+			hist = hitHist;
 		}
 		else if (showPlotType == "CHECK_PATH") { 
-			hist = dataGroups.getItem(sector,layer,paddle).getH2F("pathHist");
+			hist = pathHist;
 		}
 		else if (showPlotType == "CHECK_ADCL") { 
-			hist = dataGroups.getItem(sector,layer,paddle).getH2F("adcLHist");
+			hist = adcLHist;
 		}
 		else if (showPlotType == "CHECK_ADCR") { 
-			hist = dataGroups.getItem(sector,layer,paddle).getH2F("adcRHist");
+			hist = adcRHist;
 		}
 
-		//hist.setTitle("Paddle "+paddle);
-		hist.setTitleX("");
-		hist.setTitleY("");
-		canvas.draw(hist);    
+		H2F h2 = hists.getH2F(hist, paddle, HIST_TITLES[hist] + paddle);
+		h2.setTitleX("");
+		h2.setTitleY("");
+		canvas.draw(h2);    
 	}
 
 	@Override
 	public void setPlotTitle(int sector, int layer, int paddle) {
-		// reset hist title as may have been set to null by show all 
-		dataGroups.getItem(sector,layer,paddle).getH2F("momHist").setTitleX("p (GeV)");
-		dataGroups.getItem(sector,layer,paddle).getH2F("momHist").setTitleY("delta T (ns)");
-		dataGroups.getItem(sector,layer,paddle).getH2F("vzHist").setTitleX("vz (cm)");
-		dataGroups.getItem(sector,layer,paddle).getH2F("vzHist").setTitleY("delta T (ns)");
-		dataGroups.getItem(sector,layer,paddle).getH2F("hitHist").setTitleX("hit position (cm)");
-		dataGroups.getItem(sector,layer,paddle).getH2F("hitHist").setTitleY("delta T (ns)");
-		dataGroups.getItem(sector,layer,paddle).getH2F("pathHist").setTitleX("path (cm)");
-		dataGroups.getItem(sector,layer,paddle).getH2F("pathHist").setTitleY("delta T (ns)");
-		dataGroups.getItem(sector,layer,paddle).getH2F("adcLHist").setTitleX("ADC Left");
-		dataGroups.getItem(sector,layer,paddle).getH2F("adcLHist").setTitleY("delta T (ns)");
-		dataGroups.getItem(sector,layer,paddle).getH2F("adcRHist").setTitleX("ADC Right");
-		dataGroups.getItem(sector,layer,paddle).getH2F("adcRHist").setTitleY("delta T (ns)");
+		// called before the paddle is drawn, so create the histograms for it from the bank
+		DataGroup dg = new DataGroup(3,2);
+		for (int i = 0; i < hists.getNHists(); i++) {
+			dg.addDataSet(hists.getH2F(i, paddle, HIST_TITLES[i] + paddle), i);
+		}
+		dataGroups.add(dg, 1, 1, paddle);
 	}	
 
 	@Override
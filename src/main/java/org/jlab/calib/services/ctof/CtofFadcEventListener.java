@@ -96,6 +96,15 @@ public class CtofFadcEventListener extends CTOFCalibrationEngine {
 		}
 	}
 
+	@Override
+	public void copyConfig(CTOFCalibrationEngine engine) {
+		super.copyConfig(engine);
+		CtofFadcEventListener fadcEngine = (CtofFadcEventListener) engine;
+		MIN_X = fadcEngine.MIN_X;
+		MAX_X = fadcEngine.MAX_X;
+		WIDTH = fadcEngine.WIDTH;
+	}
+
 	@Override
 	public void processEvent(DataEvent event) {
 
@@ -105,23 +114,24 @@ public class CtofFadcEventListener extends CTOFCalibrationEngine {
 	}
 
 	@Override
-	public void processPaddleList(List<TOFPaddle> paddleList) {
-
-		for (TOFPaddle pad : paddleList) {
-
-			int sector = pad.getDescriptor().getSector();
-			int layer = pad.getDescriptor().getLayer();
-			int component = pad.getDescriptor().getComponent();
+	public boolean isFusable() {
+		return true;
+	}
 
-			if (pad.getADC_TIMEL() > 0 && pad.getTDCL() > 0) {
-				dataGroups.getItem(sector, layer, component).getH1F("fadcHistLeft")
-						.fill(pad.tdcToTimeL() - pad.getADC_TIMEL());
-			}
+	@Override
+	public void processPaddle(TOFPaddle pad) {
+		int sector = pad.getDescriptor().getSector();
+		int layer = pad.getDescriptor().getLayer();
+		int component = pad.getDescriptor().getComponent();
+
+		if (pad.getADC_TIMEL() > 0 && pad.getTDCL() > 0) {
+			dataGroups.getItem(sector, layer, component).getH1F("fadcHistLeft")
+					.fill(pad.tdcToTimeL() - pad.getADC_TIMEL());
+		}
 
-			if (pad.getADC_TIMER() > 0 && pad.getTDCR() > 0) {
-				dataGroups.getItem(sector, layer, component).getH1F("fadcHistRight")
-						.fill(pad.tdcToTimeR() - pad.getADC_TIMER());
-			}
+		if (pad.getADC_TIMER() > 0 && pad.getTDCR() > 0) {
+			dataGroups.getItem(sector, layer, component).getH1F("fadcHistRight")
+					.fill(pad.tdcToTimeR() - pad.getADC_TIMER());
 		}
 	}
 
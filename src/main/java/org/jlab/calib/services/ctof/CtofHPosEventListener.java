@@ -16,6 +16,8 @@ import javax.swing.JPanel;
 import javax.swing.JSplitPane;
 import javax.swing.JTabbedPane;
 
+import org.jlab.calib.services.TOFCalibrationEngine;
+import org.jlab.calib.services.TOFConstantFile;
 import org.jlab.calib.services.TOFCustomFitPanel;
 import org.jlab.calib.services.TOFPaddle;
 import org.jlab.detector.base.DetectorType;
@@ -23,7 +25,6 @@ import org.jlab.detector.calib.tasks.CalibrationEngine;
 import org.jlab.detector.calib.utils.CalibrationConstants;
 import org.jlab.detector.calib.utils.CalibrationConstantsListener;
 import org.jlab.detector.calib.utils.CalibrationConstantsView;
-import org.jlab.detector.calib.utils.DatabaseConstantProvider;
 import org.jlab.detector.decode.CodaEventDecoder;
 import org.jlab.detector.decode.DetectorDataDgtz;
 import org.jlab.detector.decode.DetectorDecoderView;
@@ -155,9 +156,7 @@ public class CtofHPosEventListener extends CTOFCalibrationEngine {
 		}
 		else if (calDBSource==CAL_DB) {
 			System.out.println("Database Run No: "+prevCalRunNo);
-			DatabaseConstantProvider dcp = new DatabaseConstantProvider(prevCalRunNo, "default");
-			hposFuncValues = dcp.readConstants("/calibration/ctof/hpos");
-			dcp.disconnect();
+			hposFuncValues = TOFConstantFile.readConstants(prevCalRunNo, "/calibration/ctof/hpos");
 		}
 		prevCalRead = true;
 		System.out.println(stepName+" previous calibration values populated successfully");
@@ -224,32 +223,34 @@ public class CtofHPosEventListener extends CTOFCalibrationEngine {
 	}
 
 	@Override
-	public void processPaddleList(List<TOFPaddle> paddleList) {
-
-		for (TOFPaddle paddle : paddleList) {
+	public boolean isFusable() {
+		return true;
+	}
 
-			int sector = paddle.getDescriptor().getSector();
-			int layer = paddle.getDescriptor().getLayer();
-			int component = paddle.getDescriptor().getComponent();
+	@Override
+	public boolean requiresGoodTrack() {
+		return true;
+	}
 
-			if (paddle.goodTrackFound() && paddle.includeInCTOFTiming()) {
-				
-				dataGroups.getItem(sector,layer,component).getH2F("hposHist").fill(
-						 paddle.paddleY(),
-						 (paddle.refSTTimeHPosBinCorr()+(1000*BEAM_BUCKET) + (0.5*BEAM_BUCKET))%BEAM_BUCKET - 0.5*BEAM_BUCKET);
-				
-			}
+	@Override
+	public void processPaddle(TOFPaddle paddle) {
+		int sector = paddle.getDescriptor().getSector();
+		int layer = paddle.getDescriptor().getLayer();
+		int component = paddle.getDescriptor().getComponent();
+
+		if (paddle.includeInCTOFTiming()) {
+			dataGroups.getItem(sector,layer,component).getH2F("hposHist").fill(
+					 paddle.paddleY(),
+					 (paddle.refSTTimeHPosBinCorr()+(1000*BEAM_BUCKET) + (0.5*BEAM_BUCKET))%BEAM_BUCKET - 0.5*BEAM_BUCKET);
 		}
 	}
 	
 	@Override
 	public void timerUpdate() {
-		if (fitMethod!=FIT_METHOD_SF) {
-			// only analyze at end of file for slice fitter - takes too long
-			analyze();
+		if (fitMethod!=FIT_METHOD_SF || TOFCalibrationEngine.liveSliceFits) {
+			// only analyze at end of file for slice fitter unless live slice fits are on - takes too long
+			updateChanged();
 		}
-		save();
-		calib.fireTableDataChanged();
 	}	
 
 	@Override
@@ -287,7 +288,7 @@ public class CtofHPosEventListener extends CTOFCalibrationEngine {
 			psfL.setFitMode(fitMode);
 			psfL.setMinEvents(fitMinEvents);
 			psfL.setBackgroundOrder(backgroundSF);
-			psfL.setNthreads(1);
+			psfL.setNthreads(TOFCalibrationEngine.sliceFitThreads());
 			setOutput(false);
 			psfL.fitSlicesX();
 			setOutput(true);
@@ -1,6 +1,8 @@
 package org.jlab.calib.services.ctof;
 
 import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
@@ -15,7 +17,14 @@ import javax.swing.JOptionPane;
 import javax.swing.JTabbedPane;
 
 import org.jlab.calib.services.TOFCalibration;
+import org.jlab.calib.services.TOFCalibrationEngine;
+import org.jlab.calib.services.TOFCheckpoint;
+import org.jlab.calib.services.TOFConstantSnapshot;
+import org.jlab.calib.services.TOFFitSeeds;
+import org.jlab.calib.services.TOFCounterStatus;
 import org.jlab.calib.services.TOFCustomFitPanel;
+import org.jlab.calib.services.TOFEventBanks;
+import org.jlab.calib.services.TOFFastFitter;
 import org.jlab.calib.services.TOFH1F;
 import org.jlab.calib.services.TOFPaddle;
 import org.jlab.detector.calib.tasks.CalibrationEngine;
@@ -68,6 +77,13 @@ public class CtofHVEventListener extends CTOFCalibrationEngine {
 
 	private boolean[] isFitValid = new boolean[48];
 
+	// histograms filled for each hit, indexed by paddle number
+	private H1F[] geoMeanHists = new H1F[TOFConstantSnapshot.MAX_PADDLES];
+	private H1F[] logRatioHists = new H1F[TOFConstantSnapshot.MAX_PADDLES];
+
+	// geometric mean fit parameters kept between fits
+	private TOFFitSeeds gmSeeds = new TOFFitSeeds();
+
 	public CtofHVEventListener() {
 
 		stepName = "HV";
@@ -82,12 +98,7 @@ public class CtofHVEventListener extends CTOFCalibrationEngine {
 		calib.setPrecision(3); // record calibration constants to 3 dp
 
 		// initialize the counter status
-		for (int paddle = 1; paddle <= NUM_PADDLES[0]; paddle++) {
-			adcLeftStatus.add(1, 1, 1, paddle);
-			adcRightStatus.add(1, 1, 1, paddle);
-			tdcLeftStatus.add(1, 1, 1, paddle);
-			tdcRightStatus.add(1, 1, 1, paddle);
-		}
+		counterStatus.reset();
 	}
 
 	public void setConstraints() {
@@ -124,6 +135,8 @@ public class CtofHVEventListener extends CTOFCalibrationEngine {
 					"Log Ratio Paddle "+paddle, 
 					300,-6.0,6.0);
 			logRatioHist.setName("logratio");
+			geoMeanHists[TOFConstantSnapshot.index(1, 1, paddle)] = geoMeanHist;
+			logRatioHists[TOFConstantSnapshot.index(1, 1, paddle)] = logRatioHist;
 
 			// create all the functions
 			F1D gmFunc = new F1D("gmFunc", "[amp]*landau(x,[mean],[sigma]) +[exp_amp]*exp([p]*x)",
@@ -150,6 +163,30 @@ public class CtofHVEventListener extends CTOFCalibrationEngine {
 		}
 	}
 
+	@Override
+	public void copyConfig(CTOFCalibrationEngine engine) {
+		super.copyConfig(engine);
+		NEWHV_MIP_CHANNEL = ((CtofHVEventListener) engine).NEWHV_MIP_CHANNEL;
+	}
+
+	@Override
+	public void merge(CTOFCalibrationEngine engine) {
+		super.merge(engine);
+		TOFCalibrationEngine.addHist(hvStatHist, ((CtofHVEventListener) engine).hvStatHist);
+	}
+
+	@Override
+	public void writeCheckpoint(DataOutputStream out) throws IOException {
+		super.writeCheckpoint(out);
+		TOFCheckpoint.writeHist(out, hvStatHist);
+	}
+
+	@Override
+	public void readCheckpoint(DataInputStream in) throws IOException {
+		super.readCheckpoint(in);
+		TOFCheckpoint.readHist(in, hvStatHist);
+	}
+
 	@Override
 	public void processEvent(DataEvent event) {
 
@@ -160,37 +197,36 @@ public class CtofHVEventListener extends CTOFCalibrationEngine {
 	}
 
 	@Override
-	public void processPaddleList(List<TOFPaddle> paddleList) {
-
-		//System.out.println("HV Process paddle list");
-
-		for (TOFPaddle paddle : paddleList) {
-
-			int sector = paddle.getDescriptor().getSector();
-			int layer = paddle.getDescriptor().getLayer();
-			int component = paddle.getDescriptor().getComponent();
+	public boolean isFusable() {
+		return true;
+	}
 
-			if (paddle.isValidGeoMean() && paddle.geometricMean() > CTOFCalibration.expectedMipChannel * 0.25) {
-				if (TOFCalibration.pathNorm == TOFCalibration.PATH_NORM_NO) {
-					System.out.println("inside");
-					dataGroups.getItem(sector,layer,component).getH1F("geomean").fill(paddle.geometricMean());
-					hvStatHist.fill(((layer-1)*10)+sector);
-					//System.out.println("Filling with geometricMean "+paddle.geometricMean());
-					//paddle.show();
-				}
-				else {
-					if (paddle.goodTrackFound()) {
-						dataGroups.getItem(sector,layer,component).getH1F("geomean").fill(paddle.geometricMeanNorm());
-						//System.out.println("Filling with geometricMeanNorm "+paddle.geometricMeanNorm());
-						//paddle.show();
-					}
-				}	
-			}
+	// goodTrackFound is checked for each hit, which needs the REC particle banks
+	@Override
+	public String[] getRequiredBanks() {
+		return TOFEventBanks.OPTIONAL_BANKS;
+	}
 
-			if (paddle.isValidLogRatio()) {
-				dataGroups.getItem(sector,layer,component).getH1F("logratio").fill(paddle.logRatio());
+	@Override
+	public void processPaddle(TOFPaddle paddle) {
+		int sector = paddle.getDescriptor().getSector();
+		int layer = paddle.getDescriptor().getLayer();
+		int idx = paddle.getPaddleIndex();
+
+		if (paddle.isValidGeoMean() && paddle.geometricMean() > CTOFCalibration.expectedMipChannel * 0.25) {
+			if (TOFCalibration.pathNorm == TOFCalibration.PATH_NORM_NO) {
+				geoMeanHists[idx].fill(paddle.geometricMean());
+				hvStatHist.fill(((layer-1)*10)+sector);
 			}
+			else {
+				if (paddle.goodTrackFound()) {
+					geoMeanHists[idx].fill(paddle.geometricMeanNorm());
+				}
+			}	
+		}
 
+		if (paddle.isValidLogRatio()) {
+			logRatioHists[idx].fill(paddle.logRatio());
 		}
 	}   
 
@@ -279,17 +315,24 @@ public class CtofHVEventListener extends CTOFCalibrationEngine {
 		F1D gmFunc = dataGroups.getItem(sector,layer,paddle).getF1D("gmFunc");
 		gmFunc.setRange(startChannelForFit, endChannelForFit);
 
-		gmFunc.setParameter(0, maxCounts*0.8);
 		gmFunc.setParLimits(0, maxCounts*0.5, maxCounts*1.2);
-		gmFunc.setParameter(1, maxPos);
-		gmFunc.setParameter(2, 200.0);
 		gmFunc.setParLimits(2, 0.0,400.0);
-		gmFunc.setParameter(3, maxCounts*0.5);
-		gmFunc.setParameter(4, -0.001);
+		double[] gmMin = {maxCounts*0.5, Double.NEGATIVE_INFINITY, 0.0};
+		double[] gmMax = {maxCounts*1.2, Double.POSITIVE_INFINITY, 400.0};
+		setGeoMeanStart(gmFunc, maxCounts, maxPos);
+
+		// start the peak shape from the last fit of this paddle
+		boolean seeded = gmSeeds.apply(gmFunc, sector, layer, paddle, 1, 2, 4);
 
 		try {    
-			DataFitter.fit(gmFunc, h, "RQ");
+			TOFFastFitter.fitPeak(gmFunc, h, startChannelForFit, endChannelForFit, gmMin, gmMax, "RQ");
+			if (seeded && !gmFunc.isFitValid()) {
+				// start again from the histogram maximum
+				setGeoMeanStart(gmFunc, maxCounts, maxPos);
+				TOFFastFitter.fitPeak(gmFunc, h, startChannelForFit, endChannelForFit, gmMin, gmMax, "RQ");
+			}
 			this.isFitValid[paddle-1] = gmFunc.isFitValid();
+			gmSeeds.put(sector, layer, paddle, gmFunc, gmFunc.isFitValid());
 
 		} catch (Exception e) {
 			System.out.println("Fit error with sector "+sector+" layer "+layer+" paddle "+paddle);
@@ -303,6 +346,14 @@ public class CtofHVEventListener extends CTOFCalibrationEngine {
 		}
 	}
 
+	private void setGeoMeanStart(F1D gmFunc, double maxCounts, double maxPos) {
+		gmFunc.setParameter(0, maxCounts*0.8);
+		gmFunc.setParameter(1, maxPos);
+		gmFunc.setParameter(2, 200.0);
+		gmFunc.setParameter(3, maxCounts*0.5);
+		gmFunc.setParameter(4, -0.001);
+	}
+
 	public void fitLogRatio(int sector, int layer, int paddle,
 			double minRange, double maxRange){
 
@@ -818,34 +869,13 @@ public class CtofHVEventListener extends CTOFCalibrationEngine {
 			FileWriter outputFw = new FileWriter(outputFile.getAbsoluteFile());
 			BufferedWriter outputBw = new BufferedWriter(outputFw);
 
+			counterStatus.setThresholds();
 			for (int paddle = 1; paddle <= NUM_PADDLES[0]; paddle++) {
 
-				int adcLStat = adcLeftStatus.getItem(1,1,paddle);
-				int adcRStat = adcRightStatus.getItem(1,1,paddle);
-				int tdcLStat = tdcLeftStatus.getItem(1,1,paddle);
-				int tdcRStat = tdcRightStatus.getItem(1,1,paddle);                    
-				int counterStatusLeft = 0;
-				int counterStatusRight = 0;
-
-				if (adcLStat==1 && tdcLStat==1) {
-					counterStatusLeft = 3;
-				}
-				else if (adcLStat==1) {
-					counterStatusLeft = 1;
-				}
-				else if (tdcLStat==1) {
-					counterStatusLeft = 2;
-				}
-
-				if (adcRStat==1 && tdcRStat==1) {
-					counterStatusRight = 3;
-				}
-				else if (adcRStat==1) {
-					counterStatusRight = 1;
-				}
-				else if (tdcRStat==1) {
-					counterStatusRight = 2;
-				}
+				int counterStatusLeft = counterStatus.getStatus(TOFCounterStatus.ADC_LEFT,
+						TOFCounterStatus.TDC_LEFT, 1, 1, paddle);
+				int counterStatusRight = counterStatus.getStatus(TOFCounterStatus.ADC_RIGHT,
+						TOFCounterStatus.TDC_RIGHT, 1, 1, paddle);
 
 				String line = 1+" "+1+" "+paddle+" "+
 						counterStatusLeft+" "+counterStatusRight+" ";
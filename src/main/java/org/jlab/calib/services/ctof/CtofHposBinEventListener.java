@@ -20,6 +20,8 @@ import javax.swing.JPanel;
 import javax.swing.JSplitPane;
 import javax.swing.JTabbedPane;
 
+import org.jlab.calib.services.TOFCalibrationEngine;
+import org.jlab.calib.services.TOFConstantFile;
 import org.jlab.calib.services.TOFCustomFitPanel;
 import org.jlab.calib.services.TOFPaddle;
 import org.jlab.detector.base.DetectorType;
@@ -27,7 +29,6 @@ import org.jlab.detector.calib.tasks.CalibrationEngine;
 import org.jlab.detector.calib.utils.CalibrationConstants;
 import org.jlab.detector.calib.utils.CalibrationConstantsListener;
 import org.jlab.detector.calib.utils.CalibrationConstantsView;
-import org.jlab.detector.calib.utils.DatabaseConstantProvider;
 import org.jlab.detector.decode.CodaEventDecoder;
 import org.jlab.detector.decode.DetectorDataDgtz;
 import org.jlab.detector.decode.DetectorDecoderView;
@@ -153,9 +154,7 @@ public class CtofHposBinEventListener extends CTOFCalibrationEngine {
 		}
 		else if (calDBSource==CAL_DB) {
 			System.out.println("Database Run No: "+prevCalRunNo);
-			DatabaseConstantProvider dcp = new DatabaseConstantProvider(prevCalRunNo, "default");
-			hposBinCCDBValues = dcp.readConstants("/calibration/ctof/hposbin");
-			dcp.disconnect();
+			hposBinCCDBValues = TOFConstantFile.readConstants(prevCalRunNo, "/calibration/ctof/hposbin");
 			
 			for (int paddle = 1; paddle <= NUM_PADDLES[0]; paddle++) {
 				Double[] vals = new Double[xBins];
@@ -226,43 +225,34 @@ public class CtofHposBinEventListener extends CTOFCalibrationEngine {
 	}
 
 	@Override
-	public void processPaddleList(List<TOFPaddle> paddleList) {
-
-		for (TOFPaddle paddle : paddleList) {
+	public boolean isFusable() {
+		return true;
+	}
 
-			int sector = paddle.getDescriptor().getSector();
-			int layer = paddle.getDescriptor().getLayer();
-			int component = paddle.getDescriptor().getComponent();
+	@Override
+	public boolean requiresGoodTrack() {
+		return true;
+	}
 
-			if (paddle.goodTrackFound() && paddle.includeInCTOFTiming()) {
-				
-				dataGroups.getItem(sector,layer,component).getH2F("hposBinHist").fill(
-						 paddle.paddleY(),
-						 //(paddle.refSTTimeHPosFuncCorr()+(1000*BEAM_BUCKET) + (0.5*BEAM_BUCKET))%BEAM_BUCKET - 0.5*BEAM_BUCKET);
-				 		 // use HPosBinCorr so we can check if all corrections go to zero
-						 // output value accounts for this
-						 (paddle.refSTTimeHPosBinCorr()+(1000*BEAM_BUCKET) + (0.5*BEAM_BUCKET))%BEAM_BUCKET - 0.5*BEAM_BUCKET);
-				
-//				if (component==6 && paddle.paddleY() > -12.0 && paddle.paddleY() < -11.0) {
-//					System.out.println("paddleY "+paddle.paddleY()+
-//									   " refSTTimeCorr "+ paddle.refSTTimeCorr()+
-//									   " HPosCorr " + paddle.HPosCorr()+
-//									   " HPosCorrBin " + paddle.HPosCorrBin()+
-//									   " HPosCorrFunc " + paddle.HPosCorrFunc());
-//				}
-				
-			}
+	@Override
+	public void processPaddle(TOFPaddle paddle) {
+		int sector = paddle.getDescriptor().getSector();
+		int layer = paddle.getDescriptor().getLayer();
+		int component = paddle.getDescriptor().getComponent();
+
+		if (paddle.includeInCTOFTiming()) {
+			dataGroups.getItem(sector,layer,component).getH2F("hposBinHist").fill(
+					 paddle.paddleY(),
+					 (paddle.refSTTimeHPosBinCorr()+(1000*BEAM_BUCKET) + (0.5*BEAM_BUCKET))%BEAM_BUCKET - 0.5*BEAM_BUCKET);
 		}
 	}
 	
 	@Override
 	public void timerUpdate() {
-		if (fitMethod!=FIT_METHOD_SF) {
-			// only analyze at end of file for slice fitter - takes too long
-			analyze();
+		if (fitMethod!=FIT_METHOD_SF || TOFCalibrationEngine.liveSliceFits) {
+			// only analyze at end of file for slice fitter unless live slice fits are on - takes too long
+			updateChanged();
 		}
-		save();
-		calib.fireTableDataChanged();
 	}	
 	
 	public static int sliceNumber(double xPos) {
@@ -283,7 +273,7 @@ public class CtofHposBinEventListener extends CTOFCalibrationEngine {
 			psfL.setFitMode(fitMode);
 			psfL.setMinEvents(fitMinEvents);
 			psfL.setBackgroundOrder(backgroundSF);
-			psfL.setNthreads(1);
+			psfL.setNthreads(TOFCalibrationEngine.sliceFitThreads());
 			setOutput(false);
 			psfL.fitSlicesX();
 			setOutput(true);
@@ -19,7 +19,10 @@ import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JSplitPane;
 
+import org.jlab.calib.services.TOFConstantFile;
 import org.jlab.calib.services.TOFCustomFitPanel;
+import org.jlab.calib.services.TOFEventBanks;
+import org.jlab.calib.services.TOFFastFitter;
 import org.jlab.calib.services.TOFPaddle;
 import org.jlab.detector.base.DetectorDescriptor;
 import org.jlab.detector.base.DetectorType;
@@ -27,7 +30,6 @@ import org.jlab.detector.calib.tasks.CalibrationEngine;
 import org.jlab.detector.calib.utils.CalibrationConstants;
 import org.jlab.detector.calib.utils.CalibrationConstantsListener;
 import org.jlab.detector.calib.utils.CalibrationConstantsView;
-import org.jlab.detector.calib.utils.DatabaseConstantProvider;
 import org.jlab.detector.decode.CodaEventDecoder;
 import org.jlab.detector.decode.DetectorDataDgtz;
 import org.jlab.detector.decode.DetectorDecoderView;
@@ -148,9 +150,7 @@ public class CtofLeftRightEventListener extends CTOFCalibrationEngine {
         }
         else if (calDBSource==CAL_DB) {
             System.out.println("Database Run No: "+prevCalRunNo);
-            DatabaseConstantProvider dcp = new DatabaseConstantProvider(prevCalRunNo, "default");
-            leftRightValues = dcp.readConstants("/calibration/ctof/time_offsets");
-            dcp.disconnect();
+            leftRightValues = TOFConstantFile.readConstants(prevCalRunNo, "/calibration/ctof/time_offsets");
         }
         prevCalRead = true;
         System.out.println(stepName+" previous calibration values populated successfully");
@@ -219,23 +219,30 @@ public class CtofLeftRightEventListener extends CTOFCalibrationEngine {
     }
 
     @Override
-    public void processPaddleList(List<TOFPaddle> paddleList) {
+    public boolean isFusable() {
+        return true;
+    }
+
+    // goodTrackFound is checked for each hit, which needs the REC particle banks
+    @Override
+    public String[] getRequiredBanks() {
+        return TOFEventBanks.OPTIONAL_BANKS;
+    }
 
-        for (TOFPaddle paddle : paddleList) {
+    @Override
+    public void processPaddle(TOFPaddle paddle) {
+        int sector = paddle.getDescriptor().getSector();
+        int layer = paddle.getDescriptor().getLayer();
+        int component = paddle.getDescriptor().getComponent();
 
-            int sector = paddle.getDescriptor().getSector();
-            int layer = paddle.getDescriptor().getLayer();
-            int component = paddle.getDescriptor().getComponent();
-            
-            if (paddle.includeInTiming()) {
-            	dataGroups.getItem(sector,layer,component).getH1F("tdc_left_right").fill(
+        if (paddle.includeInTiming()) {
+            dataGroups.getItem(sector,layer,component).getH1F("tdc_left_right").fill(
                     paddle.leftRight());
-            }
-            
-			if (paddle.goodTrackFound()) {
-				dataGroups.getItem(sector,layer,component).getH1F("left_right").fill(
-						2.0*(paddle.veffHalfTimeDiff() - (paddle.paddleY()- paddle.ctofCenter())/paddle.veff()));
-			}
+        }
+
+        if (paddle.goodTrackFound()) {
+            dataGroups.getItem(sector,layer,component).getH1F("left_right").fill(
+                    2.0*(paddle.veffHalfTimeDiff() - (paddle.paddleY()- paddle.ctofCenter())/paddle.veff()));
         }
     }
 
@@ -276,7 +283,8 @@ public class CtofLeftRightEventListener extends CTOFCalibrationEngine {
 		//lrFunc.setParLimits(2, 0.5, 5.0);
 		if (lrHist.getEntries() > 50) {
 			try {
-				DataFitter.fit(lrFunc, lrHist, fitOption);
+				TOFFastFitter.fitGaus(lrFunc, lrHist, lowLimit, highLimit,
+						lrHist.getBinContent(maxBin)*0.5, lrHist.getBinContent(maxBin)*1.2, fitOption);
                 this.isFitValid[paddle-1] = lrFunc.isFitValid();
 			}
 			catch(Exception ex) {
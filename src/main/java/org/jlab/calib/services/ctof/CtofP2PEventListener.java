@@ -11,10 +11,10 @@ import java.util.List;
 
 import javax.swing.JOptionPane;
 
+import org.jlab.calib.services.TOFConstantFile;
 import org.jlab.calib.services.TOFCustomFitPanel;
 import org.jlab.calib.services.TOFPaddle;
 import org.jlab.detector.calib.utils.CalibrationConstants;
-import org.jlab.detector.calib.utils.DatabaseConstantProvider;
 import org.jlab.groot.data.GraphErrors;
 import org.jlab.groot.data.H1F;
 import org.jlab.groot.data.H2F;
@@ -116,9 +116,7 @@ public class CtofP2PEventListener extends CTOFCalibrationEngine {
 		}
 		else if (calDBSource==CAL_DB) {
 			System.out.println("Database Run No: "+prevCalRunNo);
-			DatabaseConstantProvider dcp = new DatabaseConstantProvider(prevCalRunNo, "default");
-			p2pValues = dcp.readConstants("/calibration/ctof/time_offsets");
-			dcp.disconnect();
+			p2pValues = TOFConstantFile.readConstants(prevCalRunNo, "/calibration/ctof/time_offsets");
 		}
 		prevCalRead = true;
 		System.out.println(stepName+" previous calibration values populated successfully");
@@ -166,20 +164,26 @@ public class CtofP2PEventListener extends CTOFCalibrationEngine {
         processPaddleList(paddleList);
     }
     
-    @Override
-	public void processPaddleList(List<TOFPaddle> paddleList) {
+	@Override
+	public boolean isFusable() {
+		return true;
+	}
 
-		for (TOFPaddle paddle : paddleList) {
+	@Override
+	public boolean requiresGoodTrack() {
+		return true;
+	}
 
-			if (paddle.goodTrackFound() && paddle.includeInCTOFTiming()) {   
+	@Override
+	public void processPaddle(TOFPaddle paddle) {
+		if (paddle.includeInCTOFTiming()) {   
 
-				int sector = paddle.getDescriptor().getSector();
-				int layer = paddle.getDescriptor().getLayer();
-				int component = paddle.getDescriptor().getComponent();
+			int sector = paddle.getDescriptor().getSector();
+			int layer = paddle.getDescriptor().getLayer();
+			int component = paddle.getDescriptor().getComponent();
 
-				dataGroups.getItem(sector,layer,component).getH1F("vertexDiffHist").fill(
-								paddle.startTimeP2PCorr() - paddle.getST_TIME());
-			}
+			dataGroups.getItem(sector,layer,component).getH1F("vertexDiffHist").fill(
+							paddle.startTimeP2PCorr() - paddle.getST_TIME());
 		}
 	}    
 
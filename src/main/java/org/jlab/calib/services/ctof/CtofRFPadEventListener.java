@@ -3,6 +3,8 @@ package org.jlab.calib.services.ctof;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
@@ -14,10 +16,14 @@ import java.util.List;
 
 import javax.swing.JOptionPane;
 
+import org.jlab.calib.services.TOFCircularStats;
+import org.jlab.calib.services.TOFConstantFile;
+import org.jlab.calib.services.TOFConstantSnapshot;
 import org.jlab.calib.services.TOFCustomFitPanel;
+import org.jlab.calib.services.TOFFastFitter;
+import org.jlab.calib.services.TOFFitSeeds;
 import org.jlab.calib.services.TOFPaddle;
 import org.jlab.detector.calib.utils.CalibrationConstants;
-import org.jlab.detector.calib.utils.DatabaseConstantProvider;
 import org.jlab.groot.data.GraphErrors;
 import org.jlab.groot.data.H1F;
 import org.jlab.groot.data.H2F;
@@ -38,6 +44,19 @@ public class CtofRFPadEventListener extends CTOFCalibrationEngine {
 	private String showPlotType = "VERTEX_RF";
 
 	private String fitOption = "RQ";
+
+	// histograms filled for each hit, indexed by paddle number
+	private H1F[] rawHists = new H1F[TOFConstantSnapshot.MAX_PADDLES];
+
+	// publish the circular mean and sigma of each paddle at each timer update
+	// instead of fitting, the fit is still done for the final values (Live RF pad offsets in the GUI)
+	public static boolean circularStats = false;
+
+	private TOFCircularStats stats = new TOFCircularStats(TOFConstantSnapshot.MAX_PADDLES, BEAM_BUCKET);
+	private boolean[] fitDone = new boolean[TOFConstantSnapshot.MAX_PADDLES];
+
+	// fit parameters kept between fits
+	private TOFFitSeeds fineSeeds = new TOFFitSeeds();
 	
 	private final double MIN_SIGMA = 0.064;
 	private final double MAX_SIGMA = 0.096;
@@ -124,9 +143,7 @@ public class CtofRFPadEventListener extends CTOFCalibrationEngine {
 		}
 		else if (calDBSource==CAL_DB) {
 			System.out.println("Database Run No: "+prevCalRunNo);
-			DatabaseConstantProvider dcp = new DatabaseConstantProvider(prevCalRunNo, "default");
-			rfpadValues = dcp.readConstants("/calibration/ctof/time_offsets");
-			dcp.disconnect();
+			rfpadValues = TOFConstantFile.readConstants(prevCalRunNo, "/calibration/ctof/time_offsets");
 		}
 		prevCalRead = true;
 		System.out.println(stepName+" previous calibration values populated successfully");
@@ -145,6 +162,8 @@ public class CtofRFPadEventListener extends CTOFCalibrationEngine {
 		
 		double bb = CTOFCalibrationEngine.BEAM_BUCKET;
 		int bins = (int) (bb/2.004)*160;
+		stats = new TOFCircularStats(TOFConstantSnapshot.MAX_PADDLES, bb);
+		fitDone = new boolean[TOFConstantSnapshot.MAX_PADDLES];
 		for (int paddle = 1; paddle <= NUM_PADDLES[0]; paddle++) {
 
 			DataGroup dg = new DataGroup(2,1);
@@ -155,6 +174,7 @@ public class CtofRFPadEventListener extends CTOFCalibrationEngine {
 							bins, -bb, bb);
 			fineHistRaw.setTitleX("ST time - vertex time modulo beam bucket (ns)");
 			dg.addDataSet(fineHistRaw, 0);
+			rawHists[TOFConstantSnapshot.index(1, 1, paddle)] = fineHistRaw;
 
 			H1F fineHist = 
 					new H1F("fineHist","RFPAD "+paddle,
@@ -188,25 +208,60 @@ public class CtofRFPadEventListener extends CTOFCalibrationEngine {
 	}
 
 	@Override
-	public void processPaddleList(List<TOFPaddle> paddleList) {
-
-		for (TOFPaddle pad : paddleList) {
+	public boolean isFusable() {
+		return true;
+	}
 
-			int sector = pad.getDescriptor().getSector();
-			int layer = pad.getDescriptor().getLayer();
-			int component = pad.getDescriptor().getComponent();
-			
-			//if (pad.TRACK_ID != -1)	pad.show();
+	@Override
+	public boolean requiresGoodTrack() {
+		return true;
+	}
 
-			// fill the fine hists
-			if (pad.goodTrackFound() && pad.includeInCTOFTiming()) {
-				
-				dataGroups.getItem(sector,layer,component).getH1F("fineHistRaw").fill(
-						(pad.refSTTimeHPosCorr()+(1000*BEAM_BUCKET) + (0.5*BEAM_BUCKET))%BEAM_BUCKET - 0.5*BEAM_BUCKET);
+	@Override
+	public void processPaddle(TOFPaddle pad) {
+		if (pad.includeInCTOFTiming()) {
+			double time = (pad.refSTTimeHPosCorr()+(1000*BEAM_BUCKET) + (0.5*BEAM_BUCKET))%BEAM_BUCKET - 0.5*BEAM_BUCKET;
+			rawHists[pad.getPaddleIndex()].fill(time);
+			if (circularStats) {
+				stats.fill(pad.getPaddleIndex(), time);
 			}
 		}
 	}    
 
+	@Override
+	public void timerUpdate() {
+		if (circularStats) {
+			saveRows();
+			calib.fireTableDataChanged();
+		}
+		else {
+			updateChanged();
+		}
+	}
+
+	@Override
+	public void merge(CTOFCalibrationEngine engine) {
+		super.merge(engine);
+		stats.add(((CtofRFPadEventListener) engine).stats);
+	}
+
+	@Override
+	public void writeCheckpoint(DataOutputStream out) throws IOException {
+		super.writeCheckpoint(out);
+		stats.write(out);
+	}
+
+	@Override
+	public void readCheckpoint(DataInputStream in) throws IOException {
+		super.readCheckpoint(in);
+		stats.read(in);
+	}
+
+	// use the circular statistics until the paddle has been fitted
+	private boolean useStats(int paddle) {
+		return circularStats && !fitDone[TOFConstantSnapshot.index(1, 1, paddle)];
+	}
+
 	@Override
 	public void fit(int sector, int layer, int paddle, double minRange, double maxRange) {
 		
@@ -214,6 +269,7 @@ public class CtofRFPadEventListener extends CTOFCalibrationEngine {
 		
 		H1F rawHist = dataGroups.getItem(sector,layer,paddle).getH1F("fineHistRaw");
 		H1F fineHist = dataGroups.getItem(sector,layer,paddle).getH1F("fineHist");
+		fitDone[TOFConstantSnapshot.index(1, 1, paddle)] = true;
 		
 		// move the histogram content to +/- half beam bucket around the peak
 		fineHist.reset();
@@ -265,14 +321,28 @@ public class CtofRFPadEventListener extends CTOFCalibrationEngine {
 		}
 
 		fineFunc.setRange(lowLimit, highLimit);
-		fineFunc.setParameter(0, fineHist.getBinContent(maxBin));
 		fineFunc.setParLimits(0, fineHist.getBinContent(maxBin)*0.7, fineHist.getBinContent(maxBin)*1.2);
-		fineFunc.setParameter(1, maxPos);
-		fineFunc.setParameter(2, 0.1);
 		fineFunc.setParLimits(2, 0.050, 1.0);
+		// limits for the gaussian, the linear background is free
+		double[] fineMin = {fineHist.getBinContent(maxBin)*0.7, Double.NEGATIVE_INFINITY, 0.050};
+		double[] fineMax = {fineHist.getBinContent(maxBin)*1.2, Double.POSITIVE_INFINITY, 1.0};
+		setFineStart(fineFunc, fineHist.getBinContent(maxBin), maxPos);
+
+		// start the mean and sigma from the last fit of this paddle if the peak is still in the fit range
+		boolean seeded = fineSeeds.apply(fineFunc, sector, layer, paddle, 1, 2);
+		if (seeded && (fineFunc.getParameter(1) < lowLimit || fineFunc.getParameter(1) > highLimit)) {
+			setFineStart(fineFunc, fineHist.getBinContent(maxBin), maxPos);
+			seeded = false;
+		}
 
 		try {
-			DataFitter.fit(fineFunc, fineHist, fitOption);
+			TOFFastFitter.fitPeak(fineFunc, fineHist, lowLimit, highLimit, fineMin, fineMax, fitOption);
+			if (seeded && !fineFunc.isFitValid()) {
+				// start again from the histogram maximum
+				setFineStart(fineFunc, fineHist.getBinContent(maxBin), maxPos);
+				TOFFastFitter.fitPeak(fineFunc, fineHist, lowLimit, highLimit, fineMin, fineMax, fitOption);
+			}
+			fineSeeds.put(sector, layer, paddle, fineFunc, fineFunc.isFitValid());
 			this.isFitValid[paddle-1] = fineFunc.isFitValid();
 			//fineHist.setTitle(fineHist.getTitle() + " Fine offset = " + formatDouble(fineFunc.getParameter(1)));
 		}
@@ -290,6 +360,12 @@ public class CtofRFPadEventListener extends CTOFCalibrationEngine {
 
 	}
 
+	private void setFineStart(F1D fineFunc, double maxCounts, double maxPos) {
+		fineFunc.setParameter(0, maxCounts);
+		fineFunc.setParameter(1, maxPos);
+		fineFunc.setParameter(2, 0.1);
+	}
+
 	private Double formatDouble(double val) {
 		return Double.parseDouble(new DecimalFormat("0.000").format(val));
 	}
@@ -343,6 +419,9 @@ public class CtofRFPadEventListener extends CTOFCalibrationEngine {
 		if (overrideVal != UNDEFINED_OVERRIDE) {
 			offset = overrideVal;
 		}
+		else if (useStats(paddle)) {
+			offset = stats.getMean(TOFConstantSnapshot.index(1, 1, paddle));
+		}
 		else {
 			F1D fineFunc = dataGroups.getItem(sector,layer,paddle).getF1D("fineFunc");
 			H1F rawHist = dataGroups.getItem(sector,layer,paddle).getH1F("fineHistRaw");
@@ -357,6 +436,11 @@ public class CtofRFPadEventListener extends CTOFCalibrationEngine {
 	
 	public Double getSigma(int sector, int layer, int paddle) {
 
+		if (useStats(paddle)) {
+			// background under the peak removed, as the fit does with its background terms
+			int p = TOFConstantSnapshot.index(1, 1, paddle);
+			return stats.getSigma(p, stats.getBackground(p, rawHists[p]));
+		}
 		F1D fineFunc = dataGroups.getItem(sector,layer,paddle).getF1D("fineFunc");
 		return fineFunc.getParameter(2);
 	}  	
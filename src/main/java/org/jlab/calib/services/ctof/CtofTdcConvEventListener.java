@@ -17,14 +17,16 @@ import javax.swing.JSplitPane;
 import javax.swing.JTabbedPane;
 
 import org.jlab.calib.services.TOFCalibration;
+import org.jlab.calib.services.TOFCalibrationEngine;
+import org.jlab.calib.services.TOFConstantFile;
 import org.jlab.calib.services.TOFCustomFitPanel;
+import org.jlab.calib.services.TOFFastFitter;
 import org.jlab.calib.services.TOFPaddle;
 import org.jlab.detector.base.DetectorType;
 import org.jlab.detector.calib.tasks.CalibrationEngine;
 import org.jlab.detector.calib.utils.CalibrationConstants;
 import org.jlab.detector.calib.utils.CalibrationConstantsListener;
 import org.jlab.detector.calib.utils.CalibrationConstantsView;
-import org.jlab.detector.calib.utils.DatabaseConstantProvider;
 import org.jlab.detector.decode.CodaEventDecoder;
 import org.jlab.detector.decode.DetectorDataDgtz;
 import org.jlab.detector.decode.DetectorDecoderView;
@@ -162,9 +164,7 @@ public class CtofTdcConvEventListener extends CTOFCalibrationEngine {
         }
         else if (calDBSource==CAL_DB) {
         	System.out.println("Database Run No: "+prevCalRunNo);
-            DatabaseConstantProvider dcp = new DatabaseConstantProvider(prevCalRunNo, "default");
-            convValues = dcp.readConstants("/calibration/ctof/tdc_conv");
-            dcp.disconnect();
+            convValues = TOFConstantFile.readConstants(prevCalRunNo, "/calibration/ctof/tdc_conv");
         }
         prevCalRead = true;
 		System.out.println(stepName+" previous calibration values populated successfully");
@@ -238,6 +238,16 @@ public class CtofTdcConvEventListener extends CTOFCalibrationEngine {
 
 	}
 
+	@Override
+	public void copyConfig(CTOFCalibrationEngine engine) {
+		super.copyConfig(engine);
+		CtofTdcConvEventListener tdcEngine = (CtofTdcConvEventListener) engine;
+		TDC_MIN = tdcEngine.TDC_MIN;
+		TDC_MAX = tdcEngine.TDC_MAX;
+		FIT_MIN = tdcEngine.FIT_MIN;
+		FIT_MAX = tdcEngine.FIT_MAX;
+	}
+
 	@Override
 	public void processEvent(DataEvent event) {
 
@@ -247,34 +257,36 @@ public class CtofTdcConvEventListener extends CTOFCalibrationEngine {
 	}
 
 	@Override
-	public void processPaddleList(List<TOFPaddle> paddleList) {
-		
-		for (TOFPaddle paddle : paddleList) {
-
-			int sector = paddle.getDescriptor().getSector();
-			int layer = paddle.getDescriptor().getLayer();
-			int component = paddle.getDescriptor().getComponent();
+	public boolean isFusable() {
+		return true;
+	}
 
-			if (paddle.goodTrackFound() && paddle.includeInTiming()) {
-				dataGroups.getItem(sector,layer,component).getH2F("tdcConvLeft").fill(
-						paddle.getTDCL(), 
-						(paddle.refTimeCorr()+(1000*BEAM_BUCKET) + (0.5*BEAM_BUCKET))%BEAM_BUCKET - 0.5*BEAM_BUCKET);
-				dataGroups.getItem(sector,layer,component).getH2F("tdcConvRight").fill(
-						paddle.getTDCR(), 
-						(paddle.refTimeCorr()+(1000*BEAM_BUCKET) + (0.5*BEAM_BUCKET))%BEAM_BUCKET - 0.5*BEAM_BUCKET);
+	@Override
+	public boolean requiresGoodTrack() {
+		return true;
+	}
 
-			}
+	@Override
+	public void processPaddle(TOFPaddle paddle) {
+		int sector = paddle.getDescriptor().getSector();
+		int layer = paddle.getDescriptor().getLayer();
+		int component = paddle.getDescriptor().getComponent();
+
+		if (paddle.includeInTiming()) {
+			double dt = (paddle.refTimeCorr()+(1000*BEAM_BUCKET) + (0.5*BEAM_BUCKET))%BEAM_BUCKET - 0.5*BEAM_BUCKET;
+			dataGroups.getItem(sector,layer,component).getH2F("tdcConvLeft").fill(
+					paddle.getTDCL(), dt);
+			dataGroups.getItem(sector,layer,component).getH2F("tdcConvRight").fill(
+					paddle.getTDCR(), dt);
 		}
 	}
 
 	@Override
 	public void timerUpdate() {
-		if (fitMethod!=FIT_METHOD_SF) {
-			// only analyze at end of file for slice fitter - takes too long
-			analyze();
+		if (fitMethod!=FIT_METHOD_SF || TOFCalibrationEngine.liveSliceFits) {
+			// only analyze at end of file for slice fitter unless live slice fits are on - takes too long
+			updateChanged();
 		}
-		save();
-		calib.fireTableDataChanged();
 	}
 
 	@Override
@@ -297,7 +309,7 @@ public class CtofTdcConvEventListener extends CTOFCalibrationEngine {
 			psfL.setFitMode(fitMode);
 			psfL.setMinEvents(fitMinEvents);
 			psfL.setBackgroundOrder(backgroundSF);
-			psfL.setNthreads(1);
+			psfL.setNthreads(TOFCalibrationEngine.sliceFitThreads());
 			//psfL.setShowProgress(false);
 			setOutput(false);
 			psfL.fitSlicesX();
@@ -311,7 +323,7 @@ public class CtofTdcConvEventListener extends CTOFCalibrationEngine {
 			psfR.setFitMode(fitMode);
 			psfR.setMinEvents(fitMinEvents);
 			psfR.setBackgroundOrder(backgroundSF);
-			psfR.setNthreads(1);
+			psfR.setNthreads(TOFCalibrationEngine.sliceFitThreads());
 			//psfR.setShowProgress(false);
 			setOutput(false);
 			psfR.fitSlicesX();
@@ -361,7 +373,7 @@ public class CtofTdcConvEventListener extends CTOFCalibrationEngine {
 		convFuncLeft.setParameter(0, 0.0);
 		convFuncLeft.setParameter(1, 0.0);
 		try {
-			DataFitter.fit(convFuncLeft, convGraphLeft, fitOption);
+			TOFFastFitter.fitPoly(convFuncLeft, convGraphLeft, lowLimitL, highLimitL, fitOption);
 			this.isFitValid[paddle-1][0] = convFuncLeft.isFitValid();
 		} catch (Exception e) {
 			System.out.println("Fit error with sector "+sector+" layer "+layer+" paddle "+paddle);
@@ -374,7 +386,7 @@ public class CtofTdcConvEventListener extends CTOFCalibrationEngine {
 		convFuncRight.setParameter(0, 0.0);
 		convFuncRight.setParameter(1, 0.0);
 		try {
-			DataFitter.fit(convFuncRight, convGraphRight, fitOption);
+			TOFFastFitter.fitPoly(convFuncRight, convGraphRight, lowLimitR, highLimitR, fitOption);
 			this.isFitValid[paddle-1][1] = convFuncRight.isFitValid();
 		} catch (Exception e) {
 			System.out.println("Fit error with sector "+sector+" layer "+layer+" paddle "+paddle);
@@ -19,14 +19,16 @@ import javax.swing.JPanel;
 import javax.swing.JSplitPane;
 import javax.swing.JTabbedPane;
 
+import org.jlab.calib.services.TOFCalibrationEngine;
+import org.jlab.calib.services.TOFConstantFile;
 import org.jlab.calib.services.TOFCustomFitPanel;
+import org.jlab.calib.services.TOFFastFitter;
 import org.jlab.calib.services.TOFPaddle;
 import org.jlab.detector.base.DetectorType;
 import org.jlab.detector.calib.tasks.CalibrationEngine;
 import org.jlab.detector.calib.utils.CalibrationConstants;
 import org.jlab.detector.calib.utils.CalibrationConstantsListener;
 import org.jlab.detector.calib.utils.CalibrationConstantsView;
-import org.jlab.detector.calib.utils.DatabaseConstantProvider;
 import org.jlab.detector.decode.CodaEventDecoder;
 import org.jlab.detector.decode.DetectorDataDgtz;
 import org.jlab.detector.decode.DetectorDecoderView;
@@ -150,9 +152,7 @@ public class CtofVeffEventListener extends CTOFCalibrationEngine {
         }
         else if (calDBSource==CAL_DB) {
             System.out.println("Database Run No: "+prevCalRunNo);
-            DatabaseConstantProvider dcp = new DatabaseConstantProvider(prevCalRunNo, "default");
-            veffValues = dcp.readConstants("/calibration/ctof/effective_velocity");
-            dcp.disconnect();
+            veffValues = TOFConstantFile.readConstants(prevCalRunNo, "/calibration/ctof/effective_velocity");
         }
         prevCalRead = true;
         System.out.println(stepName+" previous calibration values populated successfully");
@@ -219,31 +219,34 @@ public class CtofVeffEventListener extends CTOFCalibrationEngine {
     }
 
     @Override
-    public void processPaddleList(List<TOFPaddle> paddleList) {
-
-        for (TOFPaddle paddle : paddleList) {
-
-            int sector = paddle.getDescriptor().getSector();
-            int layer = paddle.getDescriptor().getLayer();
-            int component = paddle.getDescriptor().getComponent();
-           
-            if (paddle.goodTrackFound() && paddle.includeInTiming()) {
-                dataGroups.getItem(sector,layer,component).getH2F("veff").fill(
-                        paddle.zPosCTOF(), 
-                        paddle.veffHalfTimeDiff());
-                
-            }
+    public boolean isFusable() {
+        return true;
+    }
+
+    @Override
+    public boolean requiresGoodTrack() {
+        return true;
+    }
+
+    @Override
+    public void processPaddle(TOFPaddle paddle) {
+        int sector = paddle.getDescriptor().getSector();
+        int layer = paddle.getDescriptor().getLayer();
+        int component = paddle.getDescriptor().getComponent();
+
+        if (paddle.includeInTiming()) {
+            dataGroups.getItem(sector,layer,component).getH2F("veff").fill(
+                    paddle.zPosCTOF(), 
+                    paddle.veffHalfTimeDiff());
         }
     }
     
     @Override
     public void timerUpdate() {
-        if (fitMethod!=FIT_METHOD_SF) {
-            // only analyze at end of file for slice fitter - takes too long
-            analyze();
+        if (fitMethod!=FIT_METHOD_SF || TOFCalibrationEngine.liveSliceFits) {
+            // only analyze at end of file for slice fitter unless live slice fits are on - takes too long
+            updateChanged();
         }
-        save();
-        calib.fireTableDataChanged();
     }    
 
     @Override
@@ -285,7 +288,7 @@ public class CtofVeffEventListener extends CTOFCalibrationEngine {
             psf.setFitMode(fitMode);
             psf.setMinEvents(fitMinEvents);
             psf.setBackgroundOrder(backgroundSF);
-            psf.setNthreads(1);
+            psf.setNthreads(TOFCalibrationEngine.sliceFitThreads());
             setOutput(false);
             psf.fitSlicesX();
             setOutput(true);
@@ -316,7 +319,7 @@ public class CtofVeffEventListener extends CTOFCalibrationEngine {
         //        veffFunc.setParLimits(0, -5.0, 5.0);
         //        veffFunc.setParLimits(1, 1.0/20.0, 1.0/12.0);
         try {
-            DataFitter.fit(veffFunc, veffGraph, fitOption);
+            TOFFastFitter.fitPoly(veffFunc, veffGraph, lowLimit, highLimit, fitOption);
 			this.isFitValid[paddle-1] = veffFunc.isFitValid();
 
         } catch (Exception e) {
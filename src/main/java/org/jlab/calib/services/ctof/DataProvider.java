@@ -6,9 +6,14 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.jlab.calib.services.TOFBankIndex;
 import org.jlab.calib.services.TOFCalibrationEngine;
+import org.jlab.calib.services.TOFEventBanks;
+import org.jlab.calib.services.TOFHitCache;
+import org.jlab.calib.services.TOFLog;
 //import org.jlab.calib.services.TOFCalibrationEngine;
 import org.jlab.calib.services.TOFPaddle;
+import org.jlab.calib.services.TOFPaddlePool;
 import org.jlab.clas.pdg.PhysicsConstants;
 import org.jlab.clas.physics.GenericKinematicFitter;
 import org.jlab.clas.physics.Particle;
@@ -46,14 +51,12 @@ import org.jlab.utils.groups.IndexedTable;
  */
 public class DataProvider {
 
-	private static boolean test = false;
-
 	public static List<TOFPaddle> getPaddleList(DataEvent event) {
 
-		if (test) {
+		if (TOFLog.isEnabled(TOFLog.DEBUG)) {
 			String[] bankList = event.getBankList();
 			for (int bi = 0; bi < bankList.length; bi++) {
-				System.out.println("Bank : " + bankList[bi]);
+				TOFLog.debug("Bank : " + bankList[bi]);
 			}
 			event.show();
 			if (event.hasBank("REC::Event")) {
@@ -89,86 +92,102 @@ public class DataProvider {
 
 		}
 
-		List<TOFPaddle> paddleList = new ArrayList<TOFPaddle>();
-		paddleList = getPaddleListHipo(event);
+		List<TOFPaddle> paddleList = getPaddleListHipo(event);
+		TOFEventBanks.get().endEvent();
+		if (TOFHitCache.writer != null) {
+			TOFHitCache.writer.addEvent(paddleList);
+		}
 		return paddleList;
 
 	}
 
-	private static int getIdx(DataBank bank, int hitOrder, int hitComp) {
+	public static List<TOFPaddle> getPaddleListHipo(DataEvent event) {
 
-		int idx = -1;
-		for (int i = 0; i < bank.rows(); i++) {
-			int component = bank.getShort("component", i);
-			int order = bank.getByte("order", i);
-			if (component == hitComp && order == hitOrder) {
-				idx = i;
-				break;
-			}
-		}
-		return idx;
-	}
+		// paddles and list are reused from the previous event on this thread
+		TOFPaddlePool pool = TOFPaddlePool.get();
+		ArrayList<TOFPaddle> paddleList = pool.newEvent();
+		// each bank is unpacked once, when first used
+		TOFEventBanks banks = TOFEventBanks.get().newEvent(event);
 
-	public static List<TOFPaddle> getPaddleListHipo(DataEvent event) {
+		// with a trigger mask set the channel status only counts the selected events
+		if (!acceptTrigger(banks)) {
+			return paddleList;
+		}
 
-		ArrayList<TOFPaddle> paddleList = new ArrayList<TOFPaddle>();
 		// Set the status flags
-		if (event.hasBank("CTOF::adc")) {
-			DataBank adcBank = event.getBank("CTOF::adc");
+		if (banks.hasBank("CTOF::adc")) {
+			DataBank adcBank = banks.getBank("CTOF::adc");
 
 			for (int i = 0; i < adcBank.rows(); i++) {
 				int component = adcBank.getShort("component", i);
 				int order = adcBank.getByte("order", i);
 				int adc = adcBank.getInt("ADC", i);
 				if (order == 0 && adc != 0) {
-					CTOFCalibrationEngine.adcLeftStatus.add(0, 1, 1, component);
+					CTOFCalibrationEngine.counterStatus.hit(order, 1, 1, component);
 				}
 				if (order == 1 && adc != 0) {
-					CTOFCalibrationEngine.adcRightStatus.add(0, 1, 1, component);
+					CTOFCalibrationEngine.counterStatus.hit(order, 1, 1, component);
 				}
 			}
 		}
-		if (event.hasBank("CTOF::tdc")) {
-			DataBank tdcBank = event.getBank("CTOF::tdc");
+		if (banks.hasBank("CTOF::tdc")) {
+			DataBank tdcBank = banks.getBank("CTOF::tdc");
 
 			for (int i = 0; i < tdcBank.rows(); i++) {
 				int component = tdcBank.getShort("component", i);
 				int order = tdcBank.getByte("order", i);
 				int tdc = tdcBank.getInt("TDC", i);
 				if (order == 2 && tdc != 0) {
-					CTOFCalibrationEngine.tdcLeftStatus.add(0, 1, 1, component);
+					CTOFCalibrationEngine.counterStatus.hit(order, 1, 1, component);
 				}
 				if (order == 3 && tdc != 0) {
-					CTOFCalibrationEngine.tdcRightStatus.add(0, 1, 1, component);
+					CTOFCalibrationEngine.counterStatus.hit(order, 1, 1, component);
 				}
 			}
 		}
 
-		if (event.hasBank("RUN::config")) {
+		if (!acceptEvent(banks)) {
+			return paddleList;
+		}
 
-			DataBank configBank = event.getBank("RUN::config");
+		if (banks.hasBank("RUN::config")) {
+
+			DataBank configBank = banks.getBank("RUN::config");
 			long triggerBit = configBank.getLong("trigger", 0);
 			int run = configBank.getInt("run", 0);
 			long timeStamp = configBank.getLong("timestamp", 0);
 
 			// iterate through hits bank getting corresponding adc and tdc
-			if (event.hasBank("CTOF::hits")) {
+			if (banks.hasBank("CTOF::hits")) {
 
 				// Only continue if we have adc and tdc banks
-				if (!event.hasBank("CTOF::adc") || !event.hasBank("CTOF::tdc")) {
+				if (!banks.hasBank("CTOF::adc") || !banks.hasBank("CTOF::tdc")) {
 					return paddleList;
 				}
 
-				DataBank adcBank = event.getBank("CTOF::adc");
-				DataBank tdcBank = event.getBank("CTOF::tdc");
+				DataBank adcBank = banks.getBank("CTOF::adc");
+				DataBank tdcBank = banks.getBank("CTOF::tdc");
 
-				DataBank hitsBank = event.getBank("CTOF::hits");
+				DataBank hitsBank = banks.getBank("CTOF::hits");
+
+				// banks are indexed once so the matching rows are found directly
+				TOFBankIndex adcIndex = TOFBankIndex.get(TOFBankIndex.ADC);
+				TOFBankIndex tdcIndex = TOFBankIndex.get(TOFBankIndex.TDC);
+				TOFBankIndex trkIndex = TOFBankIndex.get(TOFBankIndex.TRACK);
+				TOFBankIndex recTrkIndex = TOFBankIndex.get(TOFBankIndex.SCINTILLATOR);
+				adcIndex.indexHits(adcBank, true);
+				tdcIndex.indexHits(tdcBank, true);
+				DataBank trkBank = null;
+				DataBank recTrkBank = null;
 
 				for (int hitIndex = 0; hitIndex < hitsBank.rows(); hitIndex++) {
 
-					if (event.hasBank("CVTRec::Tracks")) {
+					if (banks.hasBank("CVTRec::Tracks")) {
 
-						DataBank trkBank = event.getBank("CVTRec::Tracks");
+						if (trkBank == null) {
+							trkBank = banks.getBank("CVTRec::Tracks");
+							trkIndex.indexColumn(trkBank, "ID");
+						}
 
 						int trkId = hitsBank.getShort("trkID", hitIndex);
 						// Get track
@@ -181,10 +200,10 @@ public class DataProvider {
 
 							int component = (int) hitsBank.getShort("component", hitIndex);
 
-							int adcIdx1 = getIdx(adcBank, 0, component);
-							int adcIdx2 = getIdx(adcBank, 1, component);
-							int tdcIdx1 = getIdx(tdcBank, 2, component);
-							int tdcIdx2 = getIdx(tdcBank, 3, component);
+							int adcIdx1 = adcIndex.getHitRow(1, 1, component, 0);
+							int adcIdx2 = adcIndex.getHitRow(1, 1, component, 1);
+							int tdcIdx1 = tdcIndex.getHitRow(1, 1, component, 2);
+							int tdcIdx2 = tdcIndex.getHitRow(1, 1, component, 3);
 
 							int adcL = 0;
 							int adcR = 0;
@@ -199,7 +218,7 @@ public class DataProvider {
 							if (tdcIdx2 != -1)
 								tdcR = tdcBank.getInt("TDC", tdcIdx2);
 
-							TOFPaddle paddle = new TOFPaddle(1, 1, component);
+							TOFPaddle paddle = pool.getPaddle(1, 1, component);
 
 							paddle.setRun(run, triggerBit, timeStamp);
 
@@ -213,13 +232,7 @@ public class DataProvider {
 							if (paddle.energy() > 0.5) {
 
 								// Find the matching CVTRec::Tracks bank
-								int trkIdx = -1;
-								for (int i = 0; i < trkBank.rows(); i++) {
-									if (trkBank.getShort("ID", i) == trkId) {
-										trkIdx = i;
-										break;
-									}
-								}
+								int trkIdx = trkIndex.getRow(trkId);
 
 								// path length from bank
 								paddle.setPATH_LENGTH(trkBank.getFloat("pathlength", trkIdx));
@@ -252,31 +265,32 @@ public class DataProvider {
 
 								// Get the REC::Track and then the REC::Particle
 								// setOutput(false);
-								if (event.hasBank("REC::Particle") && event.hasBank("REC::Track")) {
-
-									DataBank recTrkBank = event.getBank("REC::Track");
-									int pIdx = -1;
-									for (int i = 0; i < recTrkBank.rows(); i++) {
-										if (recTrkBank.getShort("index", i) == trkId - 1
-												&& recTrkBank.getByte("detector", i) == DetectorType.CVT
-														.getDetectorId()) {
-											pIdx = i;
-											break;
+								if (banks.hasBank("REC::Particle") && banks.hasBank("REC::Track")) {
+
+									if (recTrkBank == null) {
+										// CVT tracks by track index
+										recTrkBank = banks.getBank("REC::Track");
+										recTrkIndex.clear();
+										for (int i = 0; i < recTrkBank.rows(); i++) {
+											if (recTrkBank.getByte("detector", i) == DetectorType.CVT.getDetectorId()) {
+												recTrkIndex.add(recTrkBank.getShort("index", i), i);
+											}
 										}
 									}
+									int pIdx = recTrkIndex.getRow(trkId - 1);
 
-									DataBank recPartBank = event.getBank("REC::Particle");
+									DataBank recPartBank = banks.getBank("REC::Particle");
 									paddle.setPARTICLE_ID(recPartBank.getInt("pid", pIdx));
 									if (recPartBank.getInt("pid", 0) == 11)
 										paddle.setST_TIME(recPartBank.getFloat("vt", pIdx));
 								}
 								// setOutput(true);		
 
-								// System.out.println("Adding paddle to list");
+								// TOFLog.debug("Adding paddle to list");
 								if (paddle.includeInCalib()) {
 									paddle.Init();
 									paddleList.add(paddle);
-									if (test)
+									if (TOFLog.isEnabled(TOFLog.DEBUG))
 										paddle.show();
 								}
 							}
@@ -293,8 +307,18 @@ public class DataProvider {
 				// TDC bank only has actual hits, so can just search the whole bank for matching
 				// SLC
 
-				if (event.hasBank("CTOF::adc")) {
-					DataBank adcBank = event.getBank("CTOF::adc");
+				if (banks.hasBank("CTOF::adc")) {
+					DataBank adcBank = banks.getBank("CTOF::adc");
+
+					// banks are indexed once so the matching rows are found directly
+					TOFBankIndex adcIndex = TOFBankIndex.get(TOFBankIndex.ADC);
+					TOFBankIndex tdcIndex = TOFBankIndex.get(TOFBankIndex.TDC);
+					adcIndex.indexHits(adcBank, true);
+					DataBank tdcBank = null;
+					if (banks.hasBank("CTOF::tdc")) {
+						tdcBank = banks.getBank("CTOF::tdc");
+						tdcIndex.indexHits(tdcBank, true);
+					}
 
 					for (int i = 0; i < adcBank.rows(); i++) {
 						int order = adcBank.getByte("order", i);
@@ -309,64 +333,36 @@ public class DataProvider {
 							int tdcL = 0;
 							int tdcR = 0;
 
-							for (int j = 0; j < adcBank.rows(); j++) {
-								int c = adcBank.getShort("component", j);
-								int o = adcBank.getByte("order", j);
-								if (c == component && o == 1) {
-									// matching adc R
-									adcR = adcBank.getInt("ADC", j);
-									adcTimeR = adcBank.getFloat("time", j);
-									break;
-								}
+							int j = adcIndex.getHitRow(1, 1, component, 1);
+							if (j != -1) {
+								// matching adc R
+								adcR = adcBank.getInt("ADC", j);
+								adcTimeR = adcBank.getFloat("time", j);
 							}
 
 							// Now get matching TDCs
-							// can search whole bank as it has fewer rows (only hits)
-							// break when you find so always take the first one found
-							if (event.hasBank("CTOF::tdc")) {
-								DataBank tdcBank = event.getBank("CTOF::tdc");
-								for (int tdci = 0; tdci < tdcBank.rows(); tdci++) {
-									int c = tdcBank.getShort("component", tdci);
-									int o = tdcBank.getByte("order", tdci);
-									if (c == component && o == 2) {
-										// matching tdc L
-										tdcL = tdcBank.getInt("TDC", tdci);
-										break;
-									}
+							// always take the first one found
+							if (tdcBank != null) {
+								int tdci = tdcIndex.getHitRow(1, 1, component, 2);
+								if (tdci != -1) {
+									// matching tdc L
+									tdcL = tdcBank.getInt("TDC", tdci);
 								}
-								for (int tdci = 0; tdci < tdcBank.rows(); tdci++) {
-									int c = tdcBank.getShort("component", tdci);
-									int o = tdcBank.getByte("order", tdci);
-									if (c == component && o == 3) {
-										// matching tdc R
-										tdcR = tdcBank.getInt("TDC", tdci);
-										break;
-									}
+								tdci = tdcIndex.getHitRow(1, 1, component, 3);
+								if (tdci != -1) {
+									// matching tdc R
+									tdcR = tdcBank.getInt("TDC", tdci);
 								}
 							}
 
-							// set status to ok if at least one reading
-							if (adcL != 0) {
-								CTOFCalibrationEngine.adcLeftStatus.add(0, 1, 1, component);
-							}
-							if (adcR != 0) {
-								CTOFCalibrationEngine.adcRightStatus.add(0, 1, 1, component);
-							}
-							if (tdcL != 0) {
-								CTOFCalibrationEngine.tdcLeftStatus.add(0, 1, 1, component);
-							}
-							if (tdcR != 0) {
-								CTOFCalibrationEngine.tdcRightStatus.add(0, 1, 1, component);
-							}
-
-							if (test) {
-								System.out.println("Values found " + component);
-								System.out.println(adcL + " " + adcR + " " + tdcL + " " + tdcR);
+							if (TOFLog.isEnabled(TOFLog.DEBUG)) {
+								TOFLog.debug("Values found " + component);
+								TOFLog.debug(adcL + " " + adcR + " " + tdcL + " " + tdcR);
 							}
 
 							if (adcL > 100 && adcR > 100) {
 
-								TOFPaddle paddle = new TOFPaddle(1, 1, component);
+								TOFPaddle paddle = pool.getPaddle(1, 1, component);
 								paddle.setAdcTdc(adcL, adcR, tdcL, tdcR);
 								paddle.setRun(run, triggerBit, timeStamp);
 
@@ -377,9 +373,9 @@ public class DataProvider {
 
 								// if (paddle.includeInCalib()) {
 
-								if (test) {
-									System.out.println("Adding paddle " + component);
-									System.out.println(adcL + " " + adcR + " " + tdcL + " " + tdcR);
+								if (TOFLog.isEnabled(TOFLog.DEBUG)) {
+									TOFLog.debug("Adding paddle " + component);
+									TOFLog.debug(adcL + " " + adcR + " " + tdcL + " " + tdcR);
 								}
 								paddleList.add(paddle);
 								// }
@@ -393,11 +389,32 @@ public class DataProvider {
 		return paddleList;
 	}
 
-	public static void systemOut(String text) {
-		boolean test = false;
-		if (test) {
-			System.out.println(text);
+	// Trigger selection made before any of the CTOF banks are read, all events pass with no mask set
+	public static boolean acceptTrigger(TOFEventBanks banks) {
+
+		if (CTOFCalibration.triggerBit == 0) {
+			return true;
 		}
+		return banks.hasBank("RUN::config")
+				&& (banks.getBank("RUN::config").getLong("trigger", 0) & CTOFCalibration.triggerBit) != 0;
+	}
+
+	// Event selection made after the channel status is counted and before the hits and track banks are read
+	// rejects events without the banks needed to make any paddles, i.e. hits with no tracks
+	public static boolean acceptEvent(TOFEventBanks banks) {
+
+		if (!banks.hasBank("CTOF::adc") || !banks.hasBank("RUN::config")) {
+			return false;
+		}
+		if (banks.hasBank("CTOF::hits")
+				&& (!banks.hasBank("CTOF::tdc") || !banks.hasBank("CVTRec::Tracks"))) {
+			return false;
+		}
+		return true;
+	}
+
+	public static void systemOut(String text) {
+		TOFLog.debug(text);
 	}
 
 }